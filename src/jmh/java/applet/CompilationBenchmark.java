@@ -0,0 +1,105 @@
+/**
+ *
+ */
+package applet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compilation of the paths of the query of each {@link Fixture}, enumerated
+ * beforehand, into a diagram of a fresh {@link Manager}, either with one of
+ * the static orderings or one path at a time ({@code STREAMING}).
+ *
+ * @author stefano
+ *
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CompilationBenchmark {
+
+	private Set<Set<Relationship>> expression;
+
+	private Fixture fixture;
+
+	private GraphDatabaseService graph;
+
+	@Param({ "APPEARANCE", "FREQUENCY", "DISTANCE", "INSERTION", "STREAMING" })
+	public String mode;
+
+	@Param({ "problem", "source", "ladder-4", "ladder-8", "ladder-12" })
+	public String name;
+
+	private List<List<Relationship>> paths;
+
+	private Set<Relationship> relationships;
+
+	@Setup
+	public void setUp() {
+		fixture = new Fixture(name);
+		graph = fixture.getProblem().getGraph();
+		ForkJoinPool pool = new ForkJoinPool();
+		try (Transaction ignore = graph.beginTx()) {
+			Enumerator enumerator = new Enumerator(graph, pool);
+			Map<Long, Relationship> known = new HashMap<>();
+			paths = new ArrayList<>();
+			expression = new HashSet<>();
+			for (long[] path : enumerator.paths(fixture.getQuery())) {
+				List<Relationship> resolved = enumerator.resolve(path, known);
+				paths.add(resolved);
+				expression.add(new LinkedHashSet<>(resolved));
+			}
+			relationships = new HashSet<>(known.values());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		fixture.close();
+	}
+
+	@Benchmark
+	public int compile() {
+		Manager manager = new Manager();
+		try (Transaction ignore = graph.beginTx()) {
+			BDD bdd;
+			if ("STREAMING".equals(mode)) {
+				bdd = new BDD(manager, 0);
+				for (List<Relationship> path : paths)
+					bdd.add(path);
+			} else
+				bdd = new BDD(manager, expression, relationships, BDD.Ordering.valueOf(mode), 0);
+			return bdd.size();
+		}
+	}
+
+}
@@ -0,0 +1,64 @@
+/**
+ *
+ */
+package applet;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end
+ * {@link Problem#correlate(org.neo4j.graphdb.Node, org.neo4j.graphdb.Node, org.neo4j.graphdb.RelationshipType, org.neo4j.graphdb.Direction, Object...)}
+ * of the query of each {@link Fixture}, whose cached and stored result is
+ * evicted first so that it is answered from scratch every time.
+ *
+ * @author stefano
+ *
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CorrelateBenchmark {
+
+	private Fixture fixture;
+
+	@Param({ "problem", "source", "ladder-4", "ladder-8", "ladder-12" })
+	public String name;
+
+	@Param({ "false", "true" })
+	public boolean streaming;
+
+	@Setup
+	public void setUp() {
+		fixture = new Fixture(name);
+		fixture.getProblem().setStreaming(streaming);
+	}
+
+	@TearDown
+	public void tearDown() {
+		fixture.close();
+	}
+
+	@Benchmark
+	public double correlate() {
+		Problem problem = fixture.getProblem();
+		problem.invalidate(fixture.getType());
+		return problem.correlate(fixture.getSource(), fixture.getTarget(), fixture.getType(), fixture.getDir(), fixture.getMore());
+	}
+
+}
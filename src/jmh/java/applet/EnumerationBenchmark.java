@@ -0,0 +1,69 @@
+/**
+ *
+ */
+package applet;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Enumeration of the paths of the query of each {@link Fixture}, reading
+ * either the graph or a {@link Snapshot} of it.
+ *
+ * @author stefano
+ *
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EnumerationBenchmark {
+
+	private Enumerator enumerator;
+
+	private Fixture fixture;
+
+	@Param({ "problem", "source", "ladder-4", "ladder-8", "ladder-12" })
+	public String name;
+
+	private ForkJoinPool pool;
+
+	@Param({ "false", "true" })
+	public boolean snapshot;
+
+	@Setup
+	public void setUp() {
+		fixture = new Fixture(name);
+		pool = new ForkJoinPool();
+		Snapshot copy = snapshot ? new Snapshot(fixture.getProblem().getGraph()) : null;
+		enumerator = new Enumerator(fixture.getProblem().getGraph(), pool, copy);
+	}
+
+	@TearDown
+	public void tearDown() {
+		pool.shutdown();
+		fixture.close();
+	}
+
+	@Benchmark
+	public List<long[]> paths() {
+		return enumerator.paths(fixture.getQuery());
+	}
+
+}
@@ -0,0 +1,83 @@
+/**
+ *
+ */
+package applet;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Evaluation of the diagram of the query of each {@link Fixture}, compiled
+ * beforehand, by each {@link BDD.Evaluation}.
+ *
+ * @author stefano
+ *
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EvaluationBenchmark {
+
+	private BDD bdd;
+
+	@Param({ "MEMOIZED", "ALL_PATHS" })
+	public BDD.Evaluation evaluation;
+
+	private Fixture fixture;
+
+	@Param({ "problem", "source", "ladder-4", "ladder-8", "ladder-12" })
+	public String name;
+
+	@Setup
+	public void setUp() {
+		fixture = new Fixture(name);
+		GraphDatabaseService graph = fixture.getProblem().getGraph();
+		ForkJoinPool pool = new ForkJoinPool();
+		try (Transaction ignore = graph.beginTx()) {
+			Enumerator enumerator = new Enumerator(graph, pool);
+			Map<Long, Relationship> relationships = new HashMap<>();
+			Set<Set<Relationship>> expression = new HashSet<>();
+			for (long[] path : enumerator.paths(fixture.getQuery()))
+				expression.add(new LinkedHashSet<>(enumerator.resolve(path, relationships)));
+			bdd = new BDD(new Manager(), expression, new HashSet<>(relationships.values()), BDD.Ordering.APPEARANCE, 0);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		bdd.close();
+		fixture.close();
+	}
+
+	@Benchmark
+	public double traverse() {
+		return bdd.traverse(evaluation);
+	}
+
+}
@@ -0,0 +1,242 @@
+/**
+ *
+ */
+package applet;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.RelationshipType;
+
+/**
+ * Graph and query shared by the benchmarks, built in a {@link Problem} of its
+ * own in a temporary directory:
+ *
+ * <ul>
+ * <li>{@code problem} is the graph dumped to {@code problem.gv} by
+ * {@link Application}, queried from A to C along outgoing relationships of
+ * every type;</li>
+ * <li>{@code source} is the biomine sample in {@code source.txt}, queried
+ * from hgnc_620 to hgnc_2313;</li>
+ * <li>{@code ladder-n} is a ladder with {@code n} rungs and seeded random
+ * probabilities, queried between opposite corners, whose paths grow
+ * exponentially with {@code n}.</li>
+ * </ul>
+ *
+ * The files are looked up in the directory given by the {@code neodd.fixtures}
+ * system property, or else in the working directory.
+ *
+ * @author stefano
+ *
+ */
+public class Fixture implements AutoCloseable {
+
+	private static final Pattern EDGE = Pattern.compile("^\\s*N(\\d+) -> N(\\d+) \\[");
+
+	private static final RelationshipType EDGES = DynamicRelationshipType.withName("EDGE");
+
+	private static final String LADDER = "ladder-";
+
+	private static final Pattern LABEL = Pattern.compile("label = \"(.*)\"");
+
+	private static final Pattern NODE = Pattern.compile("^\\s*N(\\d+) \\[");
+
+	private static final Pattern NODE_LABEL = Pattern.compile("Node\\\\\\[\\d+\\\\\\]: ?([^|]*)\\|'name' = '([^']*)'");
+
+	private static final Pattern RELATIONSHIP_LABEL = Pattern.compile("^(\\w+)\\\\n'prob' = ([-0-9.eE]+)");
+
+	private final File directory;
+
+	private final Object[] more;
+
+	private final Problem problem;
+
+	private final Query query;
+
+	private final Node source, target;
+
+	private final RelationshipType type;
+
+	private final Direction dir;
+
+	public Fixture(String name) {
+		if (null == name || (name = name.trim()).isEmpty())
+			throw new IllegalArgumentException("Illegal 'name' argument in Fixture(String): " + name);
+		try {
+			this.directory = Files.createTempDirectory("neodd-fixture").toFile();
+		} catch (IOException e) {
+			throw new IllegalStateException("Failed in Fixture(String): " + e);
+		}
+		this.problem = new Problem(directory.getPath());
+		Node[] ends;
+		List<RelationshipType> types = new ArrayList<>();
+		if ("problem".equals(name)) {
+			ends = graphviz(file("problem.gv"), "A", "C", types);
+			this.dir = Direction.OUTGOING;
+		} else if ("source".equals(name)) {
+			ends = facts(file("source.txt"), "hgnc_620", "hgnc_2313");
+			types.add(EDGES);
+			this.dir = Direction.BOTH;
+		} else if (name.startsWith(LADDER)) {
+			ends = ladder(Integer.parseInt(name.substring(LADDER.length())));
+			types.add(EDGES);
+			this.dir = Direction.BOTH;
+		} else
+			throw new IllegalArgumentException("Illegal 'name' argument in Fixture(String): " + name);
+		this.source = ends[0];
+		this.target = ends[1];
+		this.type = types.get(0);
+		this.more = new Object[2 * (types.size() - 1)];
+		for (int i = 1; i < types.size(); i++) {
+			more[2 * i - 2] = types.get(i);
+			more[2 * i - 1] = dir;
+		}
+		this.query = new Query(source, target, type, dir, more);
+	}
+
+	private static File file(String name) {
+		File result = new File(System.getProperty("neodd.fixtures", "."), name);
+		if (!result.isFile())
+			throw new IllegalArgumentException("Illegal 'name' argument in Fixture.file(String): " + result);
+		return result;
+	}
+
+	/**
+	 * Rebuilds the graph written by {@link Problem#dump(String)} to the given
+	 * file, collecting the relationship types met, and returns the nodes with
+	 * the given names.
+	 */
+	private Node[] graphviz(File file, String source, String target, List<RelationshipType> types) {
+		Map<String, Node> nodes = new HashMap<>();
+		Map<String, Node> names = new HashMap<>();
+		Map<String, RelationshipType> known = new LinkedHashMap<>();
+		List<String[]> edges = new ArrayList<>();
+		try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+			String key = null;
+			String[] edge = null;
+			for (String line; null != (line = in.readLine());) {
+				Matcher matcher;
+				if ((matcher = EDGE.matcher(line)).find()) {
+					edge = new String[] { matcher.group(1), matcher.group(2), null, null };
+					key = null;
+				} else if ((matcher = NODE.matcher(line)).find()) {
+					key = matcher.group(1);
+					edge = null;
+				} else if ((matcher = LABEL.matcher(line)).find()) {
+					String label = matcher.group(1);
+					if (null != key && (matcher = NODE_LABEL.matcher(label)).find()) {
+						String[] labels = matcher.group(1).trim().isEmpty() ? new String[0] : matcher.group(1).trim().split(":");
+						Node node = problem.add(Collections.<String, Object> singletonMap("name", matcher.group(2)), labels);
+						nodes.put(key, node);
+						names.put(matcher.group(2), node);
+					} else if (null != edge && (matcher = RELATIONSHIP_LABEL.matcher(label)).find()) {
+						edge[2] = matcher.group(1);
+						edge[3] = matcher.group(2);
+						edges.add(edge);
+					}
+					key = null;
+					edge = null;
+				}
+			}
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Illegal 'file' argument in Fixture.graphviz(File, String, String, List<RelationshipType>): " + file);
+		}
+		for (String[] edge : edges) {
+			RelationshipType type = known.get(edge[2]);
+			if (null == type) {
+				type = DynamicRelationshipType.withName(edge[2]);
+				known.put(edge[2], type);
+			}
+			problem.add(type, nodes.get(edge[0]), nodes.get(edge[1]), Double.parseDouble(edge[3]));
+		}
+		types.addAll(known.values());
+		if (!names.containsKey(source) || !names.containsKey(target) || types.isEmpty())
+			throw new IllegalArgumentException("Illegal 'file' argument in Fixture.graphviz(File, String, String, List<RelationshipType>): " + file);
+		return new Node[] { names.get(source), names.get(target) };
+	}
+
+	/**
+	 * Imports the given file of facts, see {@link Importer}, and returns the
+	 * nodes with the given names.
+	 */
+	private Node[] facts(File file, String source, String target) {
+		Map<String, Node> nodes = new HashMap<>();
+		try (Loader loader = new Loader(problem.getGraph(), EDGES, nodes)) {
+			new Importer(loader).load(file.getPath());
+		}
+		if (!nodes.containsKey(source) || !nodes.containsKey(target))
+			throw new IllegalArgumentException("Illegal 'file' argument in Fixture.facts(File, String, String): " + file);
+		return new Node[] { nodes.get(source), nodes.get(target) };
+	}
+
+	/**
+	 * Builds a ladder with the given number of rungs and returns its opposite
+	 * corners.
+	 */
+	private Node[] ladder(int rungs) {
+		if (rungs < 1)
+			throw new IllegalArgumentException("Illegal 'rungs' argument in Fixture.ladder(int): " + rungs);
+		Map<String, Node> nodes = new HashMap<>();
+		Random random = new Random(rungs);
+		try (Loader loader = new Loader(problem.getGraph(), EDGES, nodes)) {
+			for (int i = 0; i < rungs; i++) {
+				loader.add("t" + i, "b" + i, 100 + random.nextInt(1000));
+				if (i > 0) {
+					loader.add("t" + (i - 1), "t" + i, 100 + random.nextInt(1000));
+					loader.add("b" + (i - 1), "b" + i, 100 + random.nextInt(1000));
+				}
+			}
+		}
+		return new Node[] { nodes.get("t0"), nodes.get("b" + (rungs - 1)) };
+	}
+
+	@Override
+	public void close() {
+		problem.close();
+		Utils.delete(directory);
+	}
+
+	public final Direction getDir() {
+		return dir;
+	}
+
+	public final Object[] getMore() {
+		return more;
+	}
+
+	public final Problem getProblem() {
+		return problem;
+	}
+
+	public final Query getQuery() {
+		return query;
+	}
+
+	public final Node getSource() {
+		return source;
+	}
+
+	public final Node getTarget() {
+		return target;
+	}
+
+	public final RelationshipType getType() {
+		return type;
+	}
+
+}
@@ -51,7 +51,13 @@ public class Application {
 		System.out.format("The probability is %.3f!\n", problem.correlate(a, c, RelType.KNOWS, Direction.OUTGOING));
 
 		System.out.format("The probability is %.3f!\n", problem.correlate(a, c, RelType.KNOWS, Direction.OUTGOING, RelType.OWNS, Direction.OUTGOING));
+		System.out.println(problem.getLast());
 
+		// the same query again is answered by the cache
+		System.out.format("The probability is %.3f!\n", problem.correlate(a, c, RelType.KNOWS, Direction.OUTGOING, RelType.OWNS, Direction.OUTGOING));
+		System.out.format("Cache: %d hits, %d misses\n", problem.getCache().getHits(), problem.getCache().getMisses());
+
+		problem.close();
 		System.out.println("Done.");
 	}
 }
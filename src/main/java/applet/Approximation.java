@@ -0,0 +1,294 @@
+/**
+ *
+ */
+package applet;
+
+import java.util.Arrays;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.RelationshipType;
+
+/**
+ * Anytime bounds on the probability that two nodes are connected, in the style
+ * of ProbLog's bounded approximation.
+ *
+ * Simple paths are enumerated depth-first from the source, within the
+ * {@link Subgraph} of the nodes lying between the source and the target, so
+ * that no prefix is left open in a region the target cannot be reached from;
+ * but a prefix whose
+ * probability falls below the current threshold is not extended any further
+ * and is kept as an open derivation instead. The disjunction of the complete
+ * paths is a lower bound on the probability, while that of the complete paths
+ * and the open prefixes is an upper bound, since every path continuing a
+ * prefix implies it; paths and prefixes are compiled through
+ * {@link BDD#add(Subgraph, int[])}, so relationships depending on the choices
+ * of a group exclude each other as in the exact diagrams. The threshold
+ * shrinks by {@link #DECAY} at each
+ * iteration, until the bounds are close enough, no prefix is left open or the
+ * time budget runs out.
+ *
+ * Paths and prefixes are searched for without locking the manager, whose lock
+ * is only taken to add {@link #CHUNK} of them at a time and to evaluate the
+ * diagrams, so that other queries sharing the manager are not held up for the
+ * whole time budget; the caller must not hold it either.
+ *
+ * Must be run inside a transaction, unless given a {@link Subgraph} already.
+ *
+ * @author stefano
+ *
+ */
+public class Approximation {
+
+	/**
+	 * The paths and prefixes found but not compiled yet, which are added to
+	 * both diagrams a few at a time under the lock of the manager.
+	 */
+	private class Batch implements AutoCloseable {
+
+		private final boolean[] complete = new boolean[CHUNK];
+
+		private final int[][] items = new int[CHUNK][];
+
+		private final BDD lower;
+
+		private int size = 0;
+
+		private final Subgraph subgraph;
+
+		private final BDD upper;
+
+		private Batch(Subgraph subgraph) {
+			this.subgraph = subgraph;
+			synchronized (manager) {
+				this.lower = new BDD(manager, 0);
+				this.upper = new BDD(manager, 0);
+			}
+		}
+
+		/**
+		 * Adds the given path, if complete, or prefix, compiling the batch
+		 * once full.
+		 */
+		private void add(int[] edges, boolean complete, long deadline) {
+			items[size] = edges;
+			this.complete[size++] = complete;
+			if (CHUNK == size)
+				flush(deadline, true);
+		}
+
+		/**
+		 * Compiles the batch into the lower diagram and, unless told
+		 * otherwise, into the upper one.
+		 */
+		private void flush(long deadline, boolean upper) {
+			synchronized (manager) {
+				manager.setDeadline(deadline);
+				try {
+					for (int i = 0; i < size; i++) {
+						if (complete[i])
+							lower.add(subgraph, items[i]);
+						if (upper)
+							this.upper.add(subgraph, items[i]);
+					}
+				} finally {
+					manager.setDeadline(Long.MAX_VALUE);
+				}
+			}
+			size = 0;
+		}
+
+		private double traverse(BDD bdd, long deadline) {
+			synchronized (manager) {
+				manager.setDeadline(deadline);
+				try {
+					return bdd.traverse();
+				} finally {
+					manager.setDeadline(Long.MAX_VALUE);
+				}
+			}
+		}
+
+		@Override
+		public void close() {
+			synchronized (manager) {
+				lower.close();
+				upper.close();
+			}
+		}
+
+	}
+
+	/**
+	 * The number of paths and prefixes added to the diagrams per hold of the
+	 * lock of the manager.
+	 */
+	private static final int CHUNK = 64;
+
+	private static final double DECAY = 0.1;
+
+	private static final double GRACE = 0.1;
+
+	private final Direction[] directions;
+
+	private final Manager manager;
+
+	private int open = 0;
+
+	private final RelationshipType[] types;
+
+	public Approximation(Manager manager, RelationshipType type, Direction dir, Object... more) {
+		if (null == manager)
+			throw new IllegalArgumentException("Illegal 'manager' argument in Approximation(Manager, RelationshipType, Direction, Object...): " + manager);
+		if (null == type)
+			throw new IllegalArgumentException("Illegal 'type' argument in Approximation(Manager, RelationshipType, Direction, Object...): " + type);
+		if (null == dir)
+			throw new IllegalArgumentException("Illegal 'dir' argument in Approximation(Manager, RelationshipType, Direction, Object...): " + dir);
+		if (null == more || 0 != more.length % 2)
+			throw new IllegalArgumentException("Illegal 'more' argument in Approximation(Manager, RelationshipType, Direction, Object...): " + Arrays.toString(more));
+		this.manager = manager;
+		this.types = new RelationshipType[1 + more.length / 2];
+		this.directions = new Direction[1 + more.length / 2];
+		this.types[0] = type;
+		this.directions[0] = dir;
+		for (int i = 0; i < more.length; i += 2) {
+			if (!(more[i] instanceof RelationshipType) || !(more[i + 1] instanceof Direction))
+				throw new IllegalArgumentException("Illegal 'more' argument in Approximation(Manager, RelationshipType, Direction, Object...): " + Arrays.toString(more));
+			this.types[1 + i / 2] = (RelationshipType) more[i];
+			this.directions[1 + i / 2] = (Direction) more[i + 1];
+		}
+	}
+
+	/**
+	 * Returns the lower and upper bounds on the probability that the given
+	 * nodes are connected, once they are at most {@code tolerance} apart or
+	 * after about {@code millis} milliseconds, whichever comes first.
+	 *
+	 * When time runs out in the middle of an iteration, the upper bound is the
+	 * one of the last iteration that completed, while the paths found so far
+	 * still raise the lower bound if their diagram can be finished within a
+	 * further {@link #GRACE} of the budget; the manager gives up on any
+	 * operation still running after that.
+	 */
+	public double[] bounds(Node source, Node target, long millis, double tolerance) {
+		if (null == source)
+			throw new IllegalArgumentException("Illegal 'source' argument in Approximation.bounds(Node, Node, long, double): " + source);
+		if (null == target)
+			throw new IllegalArgumentException("Illegal 'target' argument in Approximation.bounds(Node, Node, long, double): " + target);
+		if (millis < 0)
+			throw new IllegalArgumentException("Illegal 'millis' argument in Approximation.bounds(Node, Node, long, double): " + millis);
+		if (tolerance < 0.0 || tolerance > 1.0)
+			throw new IllegalArgumentException("Illegal 'tolerance' argument in Approximation.bounds(Node, Node, long, double): " + tolerance);
+		if (source.equals(target))
+			return new double[] { 1.0, 1.0 };
+		long deadline = System.nanoTime() + 1_000_000L * millis;
+		return bounds(new Subgraph(source, target, types, directions), deadline, millis, tolerance);
+	}
+
+	/**
+	 * Returns the bounds on the probability that the source of the given
+	 * subgraph is connected to its only target, as
+	 * {@link #bounds(Node, Node, long, double)} does; the relationship types
+	 * and directions given to the constructor are not used.
+	 */
+	public double[] bounds(Subgraph subgraph, long millis, double tolerance) {
+		if (null == subgraph || 1 != subgraph.targets)
+			throw new IllegalArgumentException("Illegal 'subgraph' argument in Approximation.bounds(Subgraph, long, double): " + subgraph);
+		if (millis < 0)
+			throw new IllegalArgumentException("Illegal 'millis' argument in Approximation.bounds(Subgraph, long, double): " + millis);
+		if (tolerance < 0.0 || tolerance > 1.0)
+			throw new IllegalArgumentException("Illegal 'tolerance' argument in Approximation.bounds(Subgraph, long, double): " + tolerance);
+		return bounds(subgraph, System.nanoTime() + 1_000_000L * millis, millis, tolerance);
+	}
+
+	private double[] bounds(Subgraph subgraph, long deadline, long millis, double tolerance) {
+		double[] result = { 0.0, 1.0 };
+		if (!subgraph.isConnected()) {
+			result[1] = 0.0;
+			return result;
+		}
+		long grace = deadline + (long) (GRACE * 1_000_000L * millis);
+		for (double threshold = DECAY;; threshold *= DECAY)
+			try (Batch batch = new Batch(subgraph)) {
+				if (!expand(subgraph, threshold, batch, deadline)) {
+					batch.flush(grace, false);
+					result[0] = Math.max(result[0], batch.traverse(batch.lower, grace));
+					return result;
+				}
+				batch.flush(deadline, true);
+				result[0] = Math.max(result[0], batch.traverse(batch.lower, deadline));
+				result[1] = Math.max(result[0], Math.min(result[1], batch.traverse(batch.upper, deadline)));
+				if (0 == open || result[1] - result[0] <= tolerance)
+					return result;
+			} catch (IllegalStateException e) {
+				if (System.nanoTime() <= deadline)
+					throw e;
+				return result;
+			}
+	}
+
+	/**
+	 * Adds every path from the source to the target to both diagrams and
+	 * every prefix whose probability is below the threshold to the upper one
+	 * only; returns false if the deadline passed before it was done.
+	 */
+	private boolean expand(Subgraph subgraph, double threshold, Batch batch, long deadline) {
+		try {
+			return search(subgraph, threshold, batch, deadline);
+		} catch (IllegalStateException e) {
+			if (System.nanoTime() <= deadline)
+				throw e;
+			return false;
+		}
+	}
+
+	private boolean search(Subgraph subgraph, double threshold, Batch batch, long deadline) {
+		long[] visited = new long[(subgraph.size() + 63) >>> 6];
+		int[] stack = new int[16];
+		int[] cursors = new int[16];
+		double[] prefixes = new double[16];
+		int[] edges = new int[16];
+		int depth = 0;
+		stack[0] = Subgraph.SOURCE;
+		cursors[0] = subgraph.offsets[Subgraph.SOURCE];
+		prefixes[0] = 1.0;
+		visited[0] |= 1L << Subgraph.SOURCE;
+		open = 0;
+		while (depth >= 0) {
+			if (System.nanoTime() > deadline)
+				return false;
+			int node = stack[depth];
+			if (cursors[depth] == subgraph.offsets[node + 1]) {
+				visited[node >>> 6] &= ~(1L << node);
+				depth -= 1;
+				continue;
+			}
+			int edge = cursors[depth]++;
+			int other = subgraph.neighbours[edge];
+			double prob = prefixes[depth] * subgraph.probs[edge];
+			if (0 != (visited[other >>> 6] & (1L << other)) || prob <= 0.0)
+				continue;
+			edges[depth] = edge;
+			if (Subgraph.TARGET == other)
+				batch.add(Arrays.copyOf(edges, depth + 1), true, deadline);
+			else if (prob < threshold) {
+				batch.add(Arrays.copyOf(edges, depth + 1), false, deadline);
+				open += 1;
+			} else {
+				depth += 1;
+				if (depth == stack.length) {
+					stack = Arrays.copyOf(stack, 2 * depth);
+					cursors = Arrays.copyOf(cursors, 2 * depth);
+					prefixes = Arrays.copyOf(prefixes, 2 * depth);
+					edges = Arrays.copyOf(edges, 2 * depth);
+				}
+				stack[depth] = other;
+				cursors[depth] = subgraph.offsets[other];
+				prefixes[depth] = prob;
+				visited[other >>> 6] |= 1L << other;
+			}
+		}
+		return true;
+	}
+
+}
@@ -1,193 +1,994 @@
 /**
- * 
+ *
  */
 package applet;
 
-import java.io.File;
-import java.io.FileOutputStream;
+import java.io.DataOutput;
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.nio.file.Files;
-import java.util.HashSet;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
-import org.neo4j.graphalgo.GraphAlgoFactory;
-import org.neo4j.graphalgo.PathFinder;
-import org.neo4j.graphdb.Direction;
-import org.neo4j.graphdb.GraphDatabaseService;
-import org.neo4j.graphdb.Node;
-import org.neo4j.graphdb.Path;
-import org.neo4j.graphdb.PathExpanders;
 import org.neo4j.graphdb.Relationship;
-import org.neo4j.graphdb.RelationshipType;
-import org.neo4j.graphdb.Transaction;
-import org.neo4j.graphdb.factory.GraphDatabaseFactory;
-import org.neo4j.tooling.GlobalGraphOperations;
-import org.neo4j.visualization.graphviz.GraphvizWriter;
-import org.neo4j.walk.Walker;
 
 /**
  * @author stefano
  *
  */
-public class BDD {
+public class BDD implements AutoCloseable {
+
+	/**
+	 * How {@link BDD#traverse(Evaluation)} computes the probability.
+	 * {@code MEMOIZED} visits every decision node once, bottom-up;
+	 * {@code ALL_PATHS} sums the products along every root-to-one path and
+	 * is only meant as a slow reference for cross-checking.
+	 */
+	public static enum Evaluation {
+		MEMOIZED, ALL_PATHS;
+	}
 
-	private static enum RelType implements RelationshipType {
-		HI_CHILD, LO_CHILD;
+	/**
+	 * Static variable orderings, applied to the relationships of a query
+	 * before any diagram is built. {@code INSERTION} keeps the iteration order
+	 * of the given relationship set, {@code FREQUENCY} puts the relationships
+	 * shared by most paths on top, {@code DISTANCE} sorts them by their
+	 * position along the paths (i.e. hops from the source) and
+	 * {@code APPEARANCE} follows the order in which they are met walking the
+	 * paths one after the other.
+	 */
+	public static enum Ordering {
+		INSERTION, FREQUENCY, DISTANCE, APPEARANCE;
 	}
 
-	// private static final String DB_PATH = "target/neo4j-side-db";
+	/**
+	 * The most probable explanations of a diagram, see
+	 * {@link BDD#mostProbableExplanation()}: the most probable set of
+	 * relationships that is enough on its own, i.e. the most probable path,
+	 * and the most probable world, i.e. the relationships present in the most
+	 * probable assignment of every relationship tested that satisfies the
+	 * diagram, each with its probability. Relationships are given by id, in
+	 * the order the diagram tests them rather than along the path.
+	 */
+	public static class Explanation {
+
+		private final long[] path;
+
+		private final double pathProbability;
+
+		private final long[] world;
+
+		private final double worldProbability;
+
+		private Explanation(long[] path, double pathProbability, long[] world, double worldProbability) {
+			this.path = path;
+			this.pathProbability = pathProbability;
+			this.world = world;
+			this.worldProbability = worldProbability;
+		}
+
+		public final long[] getPath() {
+			return path.clone();
+		}
+
+		public final double getPathProbability() {
+			return pathProbability;
+		}
+
+		public final long[] getWorld() {
+			return world.clone();
+		}
+
+		public final double getWorldProbability() {
+			return worldProbability;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("Explanation[path=%s (%s), world=%s (%s)]", Arrays.toString(path), pathProbability, Arrays.toString(world), worldProbability);
+		}
+
+	}
+
+	private static final String CHOICE = "choice";
+
+	private static final String CHOICES = "choices";
+
+	private static final String GROUP = "group";
 
 	private static final String PROB = "prob";
 
-	private static final String REFERENCE = "reference";
+	private boolean closed = false;
+
+	private int count = 0;
+
+	private final Manager manager;
+
+	private final Ordering ordering;
+
+	/**
+	 * The variables declared by the diagram, pinned in the manager until it
+	 * is closed.
+	 */
+	private int[] pinned = new int[8];
+
+	private int pins = 0;
+
+	private int[] ranks = new int[8];
 
-	private final GraphDatabaseService graph;
+	private int[] roots = new int[8];
 
-	private final int max;
+	private boolean sifted = false;
 
-	private final Node one, root, zero;
+	private int size = -1;
+
+	private int threshold;
 
 	private double value = -1.0;
 
+	private int variables = -1;
+
 	public BDD(Set<Set<Relationship>> expression, Set<Relationship> relationships) {
+		this(new Manager(), expression, relationships, Ordering.APPEARANCE, 0);
+	}
+
+	/**
+	 * Compiles the given paths in the given manager, declaring the
+	 * relationships it does not know yet in the given order. When
+	 * {@code threshold} is positive, variables are also sifted every time the
+	 * live nodes exceed it (and the threshold doubles).
+	 *
+	 * The diagram stays referenced in the manager until {@link #close()}.
+	 * Starting a diagram recycles the variables of those released, see
+	 * {@link Manager#recycle()}.
+	 */
+	public BDD(Manager manager, Set<Set<Relationship>> expression, Set<Relationship> relationships, Ordering ordering, int threshold) {
+		if (null == manager)
+			throw new IllegalArgumentException("Illegal 'manager' argument in BDD(Manager, Set<Set<Relationship>>, Set<Relationship>, Ordering, int): " + manager);
 		if (null == relationships)
-			throw new IllegalArgumentException("Illegal 'relationships' argument in BDD(Set<Set<Relationship>>, Set<Relationship>): " + relationships);
+			throw new IllegalArgumentException("Illegal 'relationships' argument in BDD(Manager, Set<Set<Relationship>>, Set<Relationship>, Ordering, int): " + relationships);
 		if (null == expression)
-			throw new IllegalArgumentException("Illegal 'paths' argument in BDD(Set<Set<Relationship>>, Set<Relationship>): " + expression);
+			throw new IllegalArgumentException("Illegal 'paths' argument in BDD(Manager, Set<Set<Relationship>>, Set<Relationship>, Ordering, int): " + expression);
+		if (null == ordering)
+			throw new IllegalArgumentException("Illegal 'ordering' argument in BDD(Manager, Set<Set<Relationship>>, Set<Relationship>, Ordering, int): " + ordering);
+		if (threshold < 0)
+			throw new IllegalArgumentException("Illegal 'threshold' argument in BDD(Manager, Set<Set<Relationship>>, Set<Relationship>, Ordering, int): " + threshold);
 
-		try {
-			File db = Files.createTempDirectory("neo4j_bdd").toFile();
-			db.deleteOnExit();
-			this.graph = new GraphDatabaseFactory().newEmbeddedDatabase(db.toString());
-			Runtime.getRuntime().addShutdownHook(new Thread() {
-				@Override
-				public void run() {
-					graph.shutdown();
-				}
-			});
-			try (Transaction tx = graph.beginTx()) {
-				for (Relationship relationship : GlobalGraphOperations.at(graph).getAllRelationships())
-					relationship.delete();
-				for (Node node : GlobalGraphOperations.at(graph).getAllNodes())
-					node.delete();
-				this.zero = graph.createNode();
-				this.zero.setProperty(REFERENCE, "0");
-				this.one = graph.createNode();
-				this.one.setProperty(REFERENCE, "1");
-				this.root = build(expression, relationships);
-				this.max = 1 + relationships.size();
-				tx.success();
-			}
-		} catch (IOException e) {
-			throw new IllegalArgumentException("Cannot create a temporary Neo4j db for BDDs...");
-		}
+		this.manager = manager;
+		this.ordering = ordering;
+		this.threshold = threshold;
+		manager.recycle();
+		declare(expression, relationships);
+		for (Set<Relationship> path : expression)
+			add(path);
+	}
+
+	/**
+	 * Starts an empty diagram in the given manager, whose relationships are to
+	 * be declared in the given order through
+	 * {@link #declare(Set, Set)} before its paths are added one at a time
+	 * through {@link #add(Iterable)}, which is what the constructor taking the
+	 * paths does at once.
+	 */
+	public BDD(Manager manager, Ordering ordering, int threshold) {
+		if (null == manager)
+			throw new IllegalArgumentException("Illegal 'manager' argument in BDD(Manager, Ordering, int): " + manager);
+		if (null == ordering)
+			throw new IllegalArgumentException("Illegal 'ordering' argument in BDD(Manager, Ordering, int): " + ordering);
+		if (threshold < 0)
+			throw new IllegalArgumentException("Illegal 'threshold' argument in BDD(Manager, Ordering, int): " + threshold);
+		this.manager = manager;
+		this.ordering = ordering;
+		this.threshold = threshold;
+		manager.recycle();
+	}
 
+	/**
+	 * Starts an empty diagram in the given manager, to be filled one path at a
+	 * time through {@link #add(Iterable)}; new relationships are declared in
+	 * the order they are met ({@link Ordering#APPEARANCE}).
+	 */
+	public BDD(Manager manager, int threshold) {
+		if (null == manager)
+			throw new IllegalArgumentException("Illegal 'manager' argument in BDD(Manager, int): " + manager);
+		if (threshold < 0)
+			throw new IllegalArgumentException("Illegal 'threshold' argument in BDD(Manager, int): " + threshold);
+		this.manager = manager;
+		this.ordering = Ordering.APPEARANCE;
+		this.threshold = threshold;
+		manager.recycle();
 	}
 
-	private Node build(Set<Set<Relationship>> expression, Set<Relationship> relationships) {
+	/**
+	 * Declares the relationships of the given paths that the manager does not
+	 * know yet, in the order of the diagram, and pins them until the diagram
+	 * is closed, see {@link Manager#pin(int)}, so that other diagrams sharing
+	 * the manager and started before the paths are added do not recycle them.
+	 */
+	public void declare(Set<Set<Relationship>> expression, Set<Relationship> relationships) {
 		if (null == expression)
-			throw new IllegalArgumentException("Illegal 'expression' argument in BDD.build(Set<Set<Relationship>>, Set<Relationship>): " + expression);
+			throw new IllegalArgumentException("Illegal 'expression' argument in BDD.declare(Set<Set<Relationship>>, Set<Relationship>): " + expression);
 		if (null == relationships)
-			throw new IllegalArgumentException("Illegal 'relationships' argument in BDD.build(Set<Set<Relationship>>, Set<Relationship>): " + relationships);
+			throw new IllegalArgumentException("Illegal 'relationships' argument in BDD.declare(Set<Set<Relationship>>, Set<Relationship>): " + relationships);
+		if (closed)
+			throw new IllegalStateException("BDD already closed");
+		for (Relationship relationship : order(expression, relationships, ordering)) {
+			int v;
+			if (relationship.hasProperty(GROUP))
+				v = widen(relationship);
+			else
+				v = manager.variable(relationship.getId(), (double) relationship.getProperty(PROB, 1.0));
+			manager.pin(v);
+			if (pins == pinned.length)
+				pinned = Arrays.copyOf(pinned, 2 * pins);
+			pinned[pins++] = v;
+		}
+	}
+
+	/**
+	 * OR-s the conjunction of the given relationships into the diagram. A
+	 * relationship with a {@code group} property stands for a choice of that
+	 * group rather than for a variable of its own, see
+	 * {@link Manager#choice(long, double, long, int, int)}.
+	 *
+	 * Partial disjunctions are kept as the digits of a binary counter: two of
+	 * the same rank are merged as soon as they meet, so paths are combined
+	 * pairwise while only a logarithmic number of partial diagrams (and no
+	 * path) is kept alive.
+	 */
+	public void add(Iterable<Relationship> path) {
+		if (null == path)
+			throw new IllegalArgumentException("Illegal 'path' argument in BDD.add(Iterable<Relationship>): " + path);
+		if (closed)
+			throw new IllegalStateException("BDD already closed");
+		for (Relationship relationship : path)
+			if (relationship.hasProperty(GROUP))
+				widen(relationship);
+		int i = 0;
+		int[] item = new int[8];
+		int choices = Manager.ONE;
+		for (Relationship relationship : path) {
+			if (relationship.hasProperty(GROUP)) {
+				choices = manager.and(choices, choice(relationship));
+				continue;
+			}
+			if (i == item.length)
+				item = Arrays.copyOf(item, 2 * i);
+			item[i++] = manager.variable(relationship.getId(), (double) relationship.getProperty(PROB, 1.0));
+		}
+		add(Arrays.copyOf(item, i), choices);
+	}
 
-		if (relationships.isEmpty())
-			return zero;
-		
-		Relationship relationship = relationships.iterator().next();
+	/**
+	 * Returns the function standing for the choice the given relationship
+	 * depends on; a relationship without the number of choices of its group
+	 * is taken to be the last one but the choice of none.
+	 */
+	private int choice(Relationship relationship) {
+		int choice = ((Number) relationship.getProperty(CHOICE, 1)).intValue();
+		int choices = ((Number) relationship.getProperty(CHOICES, choice + 1)).intValue();
+		long group = ((Number) relationship.getProperty(GROUP)).longValue();
+		return manager.choice(relationship.getId(), (double) relationship.getProperty(PROB, 1.0), group, choice, choices);
+	}
 
-		Set<Relationship> nextLo = new HashSet<>(relationships);
-		nextLo.remove(relationship);
-		Set<Relationship> nextHi = new HashSet<>(nextLo);
+	/**
+	 * Makes room in the manager for all the choices of the group the given
+	 * relationship depends on, before any node is built for it, see
+	 * {@link Manager#widen(long, int)}.
+	 */
+	private int widen(Relationship relationship) {
+		int choice = ((Number) relationship.getProperty(CHOICE, 1)).intValue();
+		int choices = ((Number) relationship.getProperty(CHOICES, choice + 1)).intValue();
+		return manager.widen(((Number) relationship.getProperty(GROUP)).longValue(), choices);
+	}
 
-		Set<Set<Relationship>> exprLo = new HashSet<>();
-		Set<Set<Relationship>> exprHi = new HashSet<>();
-		for (Set<Relationship> path : expression)
-			if (path.contains(relationship))
-				exprHi.add(path);
+	/**
+	 * OR-s the conjunction of the relationships with the given ids and
+	 * probabilities, none of which depends on a choice, into the diagram, see
+	 * {@link #add(Iterable)}.
+	 */
+	public void add(long[] relationships, double[] probs) {
+		if (null == relationships)
+			throw new IllegalArgumentException("Illegal 'relationships' argument in BDD.add(long[], double[]): " + relationships);
+		if (null == probs || probs.length != relationships.length)
+			throw new IllegalArgumentException("Illegal 'probs' argument in BDD.add(long[], double[]): " + Arrays.toString(probs));
+		if (closed)
+			throw new IllegalStateException("BDD already closed");
+		int[] item = new int[relationships.length];
+		for (int i = 0; i < relationships.length; i++)
+			item[i] = manager.variable(relationships[i], probs[i]);
+		add(item, Manager.ONE);
+	}
+
+	/**
+	 * OR-s the conjunction of the relationships of the given subgraph at the
+	 * given positions into the diagram, see {@link #add(Iterable)}.
+	 */
+	public void add(Subgraph subgraph, int[] edges) {
+		if (null == subgraph)
+			throw new IllegalArgumentException("Illegal 'subgraph' argument in BDD.add(Subgraph, int[]): " + subgraph);
+		if (null == edges)
+			throw new IllegalArgumentException("Illegal 'edges' argument in BDD.add(Subgraph, int[]): " + edges);
+		if (closed)
+			throw new IllegalStateException("BDD already closed");
+		for (int edge : edges) {
+			if (edge < 0 || edge >= subgraph.relationships.length)
+				throw new IllegalArgumentException("Illegal 'edges' argument in BDD.add(Subgraph, int[]): " + Arrays.toString(edges));
+			if (subgraph.groups[edge] >= 0)
+				manager.widen(subgraph.groups[edge], subgraph.widths[edge]);
+		}
+		int i = 0;
+		int[] item = new int[edges.length];
+		int choices = Manager.ONE;
+		for (int edge : edges) {
+			if (subgraph.groups[edge] >= 0)
+				choices = manager.and(choices, manager.choice(subgraph.relationships[edge], subgraph.probs[edge], subgraph.groups[edge], subgraph.choices[edge], subgraph.widths[edge]));
 			else
-				exprLo.add(path);
-
-		Node nodeLo;
-		if (exprLo.isEmpty())
-			nodeLo = zero;
-		else if (nextLo.isEmpty())
-			nodeLo = one;
-		else
-			nodeLo = build(exprLo, nextLo);
-
-		Node nodeHi;
-		if (exprHi.isEmpty())
-			nodeHi = one;
-		else if (nextHi.isEmpty())
-			nodeHi = one;
-		else
-			nodeHi = build(exprHi, nextHi);
-
-		return make(relationship, nodeLo, nodeHi);
-	}
-
-	private Node make(Relationship relationship, Node lo, Node hi) {
-		Node result = null;
-		if (lo.equals(hi))
-			return lo;
-		try (Transaction tx = graph.beginTx()) {
-			long id = relationship.getId();
-			Set<Node> nodes = new HashSet<>();
-			for (Relationship rel : lo.getRelationships(Direction.INCOMING, RelType.LO_CHILD)) {
-				Node node = rel.getStartNode();
-				if (node.getProperty(REFERENCE).equals(id))
-					nodes.add(node);
+				item[i++] = manager.variable(subgraph.relationships[edge], subgraph.probs[edge]);
+		}
+		add(Arrays.copyOf(item, i), choices);
+	}
+
+	private void add(int[] item, int choices) {
+		int node = manager.ref(manager.and(manager.cube(item), choices));
+		int rank = 0;
+		try {
+			while (count > 0 && ranks[count - 1] == rank) {
+				node = merge(roots[count - 1], node);
+				count -= 1;
+				rank += 1;
 			}
-			if (!nodes.isEmpty()) {
-				for (Relationship rel : hi.getRelationships(Direction.INCOMING, RelType.HI_CHILD)) {
-					Node node = rel.getStartNode();
-					if (node.getProperty(REFERENCE).equals(id) && nodes.contains(node))
-						return node;
-				}
+		} catch (RuntimeException e) {
+			manager.deref(node);
+			throw e;
+		}
+		if (count == roots.length) {
+			roots = Arrays.copyOf(roots, 2 * count);
+			ranks = Arrays.copyOf(ranks, 2 * count);
+		}
+		roots[count] = node;
+		ranks[count++] = rank;
+		value = -1.0;
+		size = -1;
+		variables = -1;
+	}
+
+	/**
+	 * Returns the (referenced) disjunction of two referenced diagrams, which
+	 * are released, sifting if the live nodes exceed the threshold. If the
+	 * manager gives up, both are left referenced.
+	 */
+	private int merge(int f, int g) {
+		int result = manager.ref(manager.or(f, g));
+		manager.deref(f);
+		manager.deref(g);
+		if (threshold > 0 && manager.live() > threshold) {
+			manager.sift();
+			sifted = true;
+			threshold = Math.max(threshold, 2 * manager.live());
+		} else
+			manager.checkpoint();
+		return result;
+	}
+
+	/**
+	 * Folds the partial disjunctions into one and returns it.
+	 */
+	private int root() {
+		if (closed)
+			throw new IllegalStateException("BDD already closed");
+		if (0 == count)
+			return Manager.ZERO;
+		while (count > 1) {
+			roots[count - 2] = merge(roots[count - 2], roots[count - 1]);
+			ranks[count - 2] += 1;
+			count -= 1;
+		}
+		return roots[0];
+	}
+
+	private static List<Relationship> order(Set<Set<Relationship>> expression, Set<Relationship> relationships, Ordering ordering) {
+		List<Relationship> result = new ArrayList<>(relationships);
+		final Map<Relationship, Integer> keys = new HashMap<>();
+		switch (ordering) {
+		case INSERTION:
+			return result;
+		case FREQUENCY:
+			for (Set<Relationship> path : expression)
+				for (Relationship relationship : path)
+					keys.merge(relationship, -1, Integer::sum);
+			break;
+		case DISTANCE:
+			for (Set<Relationship> path : expression) {
+				int i = 0;
+				for (Relationship relationship : path)
+					keys.merge(relationship, i++, Math::min);
 			}
-			double prob = (double) relationship.getProperty(PROB, 1.0);
-			result = graph.createNode();
-			result.setProperty(REFERENCE, id);
-			result.createRelationshipTo(lo, RelType.LO_CHILD).setProperty(PROB, 1.0 - prob);
-			result.createRelationshipTo(hi, RelType.HI_CHILD).setProperty(PROB, prob);
-			tx.success();
+			break;
+		case APPEARANCE:
+			for (Set<Relationship> path : expression)
+				for (Relationship relationship : path)
+					keys.putIfAbsent(relationship, keys.size());
+			break;
 		}
+		Collections.sort(result, (a, b) -> Integer.compare(keys.getOrDefault(a, Integer.MAX_VALUE), keys.getOrDefault(b, Integer.MAX_VALUE)));
 		return result;
 	}
 
+	/**
+	 * Releases the diagram, leaving its nodes to the next garbage collection
+	 * of the manager and its variables to the next recycling.
+	 */
+	@Override
+	public void close() {
+		if (!closed) {
+			for (int i = 0; i < count; i++)
+				manager.deref(roots[i]);
+			count = 0;
+			for (int i = 0; i < pins; i++)
+				manager.unpin(pinned[i]);
+			pins = 0;
+			closed = true;
+		}
+	}
+
+	/**
+	 * Returns the decision nodes reachable from the root, children before
+	 * parents, and fills {@code positions} with the index of each of them in
+	 * the result.
+	 */
+	private int[] nodes(IntMap positions) {
+		int root = root();
+		int[] result = new int[16];
+		int n = 0;
+		if (manager.isTerminal(root))
+			return new int[0];
+		int[] stack = new int[16];
+		int top = 0;
+		stack[top++] = root;
+		while (top > 0) {
+			int node = stack[top - 1];
+			if (positions.get(node, -1) >= 0) {
+				top -= 1;
+				continue;
+			}
+			boolean pending = false;
+			for (int child : new int[] { manager.lo(node), manager.hi(node) })
+				if (!manager.isTerminal(child) && positions.get(child, -1) < 0) {
+					if (top == stack.length)
+						stack = Arrays.copyOf(stack, 2 * top);
+					stack[top++] = child;
+					pending = true;
+				}
+			if (!pending) {
+				top -= 1;
+				if (n == result.length)
+					result = Arrays.copyOf(result, 2 * n);
+				positions.put(node, n);
+				result[n++] = node;
+			}
+		}
+		return Arrays.copyOf(result, n);
+	}
+
 	public void dump(String path) {
 		if (null == path || (path = path.trim()).isEmpty())
-			throw new IllegalArgumentException("Illegal 'path' argument in Problem.dump(String): " + path);
-		try (Transaction ignore = graph.beginTx()) {
-			try {
-				File file = new File(path);
-				OutputStream out = new FileOutputStream(file);
-				GraphvizWriter writer = new GraphvizWriter();
-				writer.emit(out, Walker.fullGraph(graph));
-			} catch (IOException e) {
-				throw new IllegalArgumentException("Illegal 'path' argument in Problem.dump(String): " + path);
+			throw new IllegalArgumentException("Illegal 'path' argument in BDD.dump(String): " + path);
+		try (PrintStream out = new PrintStream(path)) {
+			out.println("digraph BDD {");
+			out.println("  N0 [ label = \"0\", shape = box ]");
+			out.println("  N1 [ label = \"1\", shape = box ]");
+			for (int node : nodes(new IntMap())) {
+				int v = manager.var(node);
+				if (manager.group(v) >= 0) {
+					out.format("  N%d [ label = \"G%d\" ]%n", node, manager.id(v));
+					out.format("  N%d -> N%d [ style = dashed ]%n", node, manager.lo(node));
+					out.format("  N%d -> N%d%n", node, manager.hi(node));
+					continue;
+				}
+				double prob = manager.prob(v);
+				out.format("  N%d [ label = \"%d\" ]%n", node, manager.id(v));
+				out.format("  N%d -> N%d [ label = \"%s\", style = dashed ]%n", node, manager.lo(node), 1.0 - prob);
+				out.format("  N%d -> N%d [ label = \"%s\" ]%n", node, manager.hi(node), prob);
+			}
+			out.println("}");
+		} catch (FileNotFoundException e) {
+			throw new IllegalArgumentException("Illegal 'path' argument in BDD.dump(String): " + path);
+		}
+	}
+
+	/**
+	 * Writes the diagram in the compact format read by {@link Store}: the
+	 * number of variables followed by the id and probability of each, then
+	 * the number of decision nodes followed by the variable, lo and hi of each,
+	 * children first, and finally the root. Nodes are referred to as 0 for
+	 * false, 1 for true and 2 + i for the i-th node written.
+	 *
+	 * Returns the ids of the relationships the diagram depends on. Diagrams
+	 * testing choice groups cannot be written, since the format only knows
+	 * independent variables.
+	 */
+	long[] write(DataOutput out) throws IOException {
+		if (isGrouped())
+			throw new IllegalStateException("BDD over choice groups cannot be written");
+		IntMap positions = new IntMap();
+		int[] nodes = nodes(positions);
+		IntMap locals = new IntMap();
+		int[] vs = new int[nodes.length];
+		for (int node : nodes) {
+			int v = manager.var(node);
+			if (locals.get(v, -1) < 0) {
+				vs[locals.size()] = v;
+				locals.put(v, locals.size());
 			}
 		}
+		long[] result = new long[locals.size()];
+		out.writeInt(locals.size());
+		for (int i = 0; i < locals.size(); i++) {
+			result[i] = manager.id(vs[i]);
+			out.writeLong(result[i]);
+			out.writeDouble(manager.prob(vs[i]));
+		}
+		out.writeInt(nodes.length);
+		for (int node : nodes) {
+			out.writeInt(locals.get(manager.var(node), -1));
+			out.writeInt(manager.isTerminal(manager.lo(node)) ? manager.lo(node) : 2 + positions.get(manager.lo(node), -1));
+			out.writeInt(manager.isTerminal(manager.hi(node)) ? manager.hi(node) : 2 + positions.get(manager.hi(node), -1));
+		}
+		int root = root();
+		out.writeInt(manager.isTerminal(root) ? root : 1 + nodes.length);
+		return result;
+	}
+
+	/**
+	 * Returns the number of decision nodes reachable from the root.
+	 */
+	public int size() {
+		if (size < 0)
+			size = nodes(new IntMap()).length;
+		return size;
+	}
+
+	/**
+	 * Returns the ids of the relationships tested in the diagram, i.e. those
+	 * its probability depends on.
+	 */
+	public long[] relationships() {
+		IntMap seen = new IntMap();
+		IntMap groups = new IntMap();
+		long[] result = new long[8];
+		int n = 0;
+		for (int node : nodes(new IntMap())) {
+			int v = manager.var(node);
+			int group = manager.group(v);
+			if (group >= 0 ? groups.get(group, -1) >= 0 : seen.get(v, -1) >= 0)
+				continue;
+			long[] ids = group >= 0 ? manager.relationships(group) : new long[] { manager.id(v) };
+			if (group >= 0)
+				groups.put(group, 0);
+			else
+				seen.put(v, 0);
+			if (n + ids.length > result.length)
+				result = Arrays.copyOf(result, Math.max(2 * result.length, n + ids.length));
+			System.arraycopy(ids, 0, result, n, ids.length);
+			n += ids.length;
+		}
+		return Arrays.copyOf(result, n);
+	}
+
+	/**
+	 * Tells whether the diagram tests any choice group.
+	 */
+	public boolean isGrouped() {
+		for (int node : nodes(new IntMap()))
+			if (manager.group(manager.var(node)) >= 0)
+				return true;
+		return false;
+	}
+
+	/**
+	 * Returns the number of distinct variables tested in the diagram.
+	 */
+	public int variables() {
+		if (variables < 0)
+			variables = relationships().length;
+		return variables;
+	}
+
+	public final Ordering getOrdering() {
+		return ordering;
+	}
+
+	public final boolean isSifted() {
+		return sifted;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("BDD[ordering=%s%s, variables=%d, nodes=%d]", ordering, sifted ? "+sifting" : "", variables(), size());
 	}
 
 	public double traverse() {
-		if (null != root && value < 0.0) {
-			try (Transaction ignore = graph.beginTx()) {
-				value = 0.0;
-				PathFinder<Path> finder = GraphAlgoFactory.allPaths(
-						PathExpanders.forTypesAndDirections(RelType.LO_CHILD, Direction.OUTGOING, RelType.HI_CHILD, Direction.OUTGOING), max);
-				Iterable<Path> paths = finder.findAllPaths(root, one);
-				for (Path path : paths) {
-					double current = 1.0;
-					for (Relationship relationship : path.relationships()) {
-						current *= (double) relationship.getProperty(PROB, 1.0);
+		if (value < 0.0)
+			value = traverse(Evaluation.MEMOIZED);
+		return value;
+	}
+
+	public double traverse(Evaluation evaluation) {
+		if (null == evaluation)
+			throw new IllegalArgumentException("Illegal 'evaluation' argument in BDD.traverse(Evaluation): " + evaluation);
+		switch (evaluation) {
+		case MEMOIZED:
+			return probability();
+		case ALL_PATHS:
+			return paths(root(), 1.0);
+		default:
+			throw new IllegalArgumentException("Illegal 'evaluation' argument in BDD.traverse(Evaluation): " + evaluation);
+		}
+	}
+
+	private double probability() {
+		int root = root();
+		if (manager.isTerminal(root))
+			return Manager.ONE == root ? 1.0 : 0.0;
+		IntMap positions = new IntMap();
+		int[] nodes = nodes(positions);
+		size = nodes.length;
+		return values(nodes, positions)[nodes.length - 1];
+	}
+
+	/**
+	 * Returns the probability below each of the given nodes, children before
+	 * parents, whose positions are given.
+	 */
+	private double[] values(int[] nodes, IntMap positions) {
+		double[] values = new double[nodes.length];
+		for (int i = 0; i < nodes.length; i++) {
+			int node = nodes[i];
+			int group = manager.group(manager.var(node));
+			if (group >= 0) {
+				double rest = 1.0;
+				int absent = -1;
+				for (int code = 0; code < manager.codes(group); code++) {
+					double weight = manager.weight(group, code);
+					if (weight >= 0.0) {
+						values[i] += weight * value(manager.walk(node, group, code), positions, values);
+						rest -= weight;
+					} else if (absent < 0)
+						absent = code;
+				}
+				if (absent >= 0 && rest > 0.0)
+					values[i] += rest * value(manager.walk(node, group, absent), positions, values);
+				continue;
+			}
+			double prob = manager.prob(manager.var(node));
+			values[i] = prob * value(manager.hi(node), positions, values) + (1.0 - prob) * value(manager.lo(node), positions, values);
+		}
+		return values;
+	}
+
+	private double value(int node, IntMap positions, double[] values) {
+		if (manager.isTerminal(node))
+			return Manager.ONE == node ? 1.0 : 0.0;
+		return values[positions.get(node, -1)];
+	}
+
+	/**
+	 * Returns the derivative of the probability of the diagram with respect to
+	 * the probability of each relationship it tests, by id. A bottom-up pass
+	 * finds the probability below each node, as {@link #traverse()} does, and
+	 * a top-down one the probability of reaching it from the root; each node
+	 * then adds to the derivative of its relationship the probability of
+	 * reaching it times the difference between its hi and lo children. Both
+	 * passes visit every node once, so all the derivatives together cost about
+	 * as much as the probability alone.
+	 *
+	 * The choices of a group are followed from the node the group is entered
+	 * at to the node each of them leads to, and a relationship depending on a
+	 * choice takes the derivative of the probability of that choice, which
+	 * the choices with no relationship make up for.
+	 */
+	public LongDoubleMap gradient() {
+		LongDoubleMap result = new LongDoubleMap();
+		int root = root();
+		if (manager.isTerminal(root))
+			return result;
+		IntMap positions = new IntMap();
+		int[] nodes = nodes(positions);
+		double[] values = values(nodes, positions);
+		// children come before parents, so a node is reached in full once
+		// every node after it has been visited; nodes inside a group are
+		// skipped over, and only reached if the group can be entered there
+		double[] reach = new double[nodes.length];
+		reach[nodes.length - 1] = 1.0;
+		IntMap slots = new IntMap();
+		List<double[]> choices = new ArrayList<>();
+		for (int i = nodes.length - 1; i >= 0; i--) {
+			if (0.0 == reach[i])
+				continue;
+			int node = nodes[i];
+			int v = manager.var(node);
+			int group = manager.group(v);
+			if (group >= 0) {
+				int slot = slots.get(group, -1);
+				if (slot < 0) {
+					slot = choices.size();
+					slots.put(group, slot);
+					choices.add(new double[manager.codes(group)]);
+				}
+				double[] derivatives = choices.get(slot);
+				double rest = 1.0;
+				int absent = -1;
+				for (int code = 0; code < manager.codes(group); code++) {
+					double weight = manager.weight(group, code);
+					if (weight >= 0.0) {
+						int next = manager.walk(node, group, code);
+						derivatives[code] += reach[i] * value(next, positions, values);
+						reach(next, reach[i] * weight, positions, reach);
+						rest -= weight;
+					} else if (absent < 0)
+						absent = code;
+				}
+				if (absent >= 0) {
+					int next = manager.walk(node, group, absent);
+					double below = value(next, positions, values);
+					for (int code = 0; code < manager.codes(group); code++)
+						if (manager.weight(group, code) >= 0.0)
+							derivatives[code] -= reach[i] * below;
+					if (rest > 0.0)
+						reach(next, reach[i] * rest, positions, reach);
+				}
+				continue;
+			}
+			double prob = manager.prob(v);
+			result.add(manager.id(v), reach[i] * (value(manager.hi(node), positions, values) - value(manager.lo(node), positions, values)));
+			reach(manager.hi(node), reach[i] * prob, positions, reach);
+			reach(manager.lo(node), reach[i] * (1.0 - prob), positions, reach);
+		}
+		// relationships never reached still count, with no effect
+		IntMap done = new IntMap();
+		for (int node : nodes) {
+			int v = manager.var(node);
+			int group = manager.group(v);
+			if (group < 0)
+				result.add(manager.id(v), 0.0);
+			else if (done.get(group, -1) < 0) {
+				done.put(group, 0);
+				int slot = slots.get(group, -1);
+				for (long id : manager.relationships(group))
+					result.add(id, slot < 0 ? 0.0 : choices.get(slot)[manager.code(id)]);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the most probable path and world of the diagram, found by the
+	 * same bottom-up pass as {@link #traverse()} with sums turned into maxima
+	 * and then by following the best branch of each node from the root, so
+	 * that both cost one visit per node rather than a search of the graph.
+	 *
+	 * For the path, a relationship weighs its probability when taken and
+	 * nothing when not, so the best branch to one is the most probable set of
+	 * relationships implying the diagram; for the world, every relationship
+	 * weighs the probability of its value, and those skipped along the branch
+	 * take their likeliest one. A choice group weighs the probability of the
+	 * choice taken, or nothing in a path if it is a choice no relationship
+	 * depends on. Both are empty with probability 0 if the diagram is false.
+	 */
+	public Explanation mostProbableExplanation() {
+		int root = root();
+		if (Manager.ZERO == root)
+			return new Explanation(new long[0], 0.0, new long[0], 0.0);
+		IntMap positions = new IntMap();
+		int[] nodes = nodes(positions);
+		long[] buffer = new long[relationships().length];
+
+		int[] choices = new int[nodes.length];
+		best(nodes, positions, false, choices);
+		int n = 0;
+		double probability = 1.0;
+		for (int node = root; !manager.isTerminal(node);) {
+			int v = manager.var(node);
+			int choice = choices[positions.get(node, -1)];
+			int group = manager.group(v);
+			if (group >= 0) {
+				double weight = manager.weight(group, choice);
+				if (weight >= 0.0) {
+					n = choose(group, choice, buffer, n);
+					probability *= weight;
+				}
+				node = manager.walk(node, group, choice);
+			} else if (1 == choice) {
+				buffer[n++] = manager.id(v);
+				probability *= manager.prob(v);
+				node = manager.hi(node);
+			} else
+				node = manager.lo(node);
+		}
+		long[] path = Arrays.copyOf(buffer, n);
+		double pathProbability = probability;
+
+		best(nodes, positions, true, choices);
+		IntMap met = new IntMap();
+		IntMap groups = new IntMap();
+		n = 0;
+		probability = 1.0;
+		for (int node = root; !manager.isTerminal(node);) {
+			int v = manager.var(node);
+			int choice = choices[positions.get(node, -1)];
+			int group = manager.group(v);
+			if (group >= 0) {
+				groups.put(group, 0);
+				probability *= chance(group, choice);
+				if (manager.weight(group, choice) >= 0.0)
+					n = choose(group, choice, buffer, n);
+				node = manager.walk(node, group, choice);
+				continue;
+			}
+			met.put(v, 0);
+			double prob = manager.prob(v);
+			if (1 == choice) {
+				buffer[n++] = manager.id(v);
+				probability *= prob;
+				node = manager.hi(node);
+			} else {
+				probability *= 1.0 - prob;
+				node = manager.lo(node);
+			}
+		}
+		for (int node : nodes) {
+			int v = manager.var(node);
+			int group = manager.group(v);
+			if (group >= 0) {
+				if (groups.get(group, -1) >= 0)
+					continue;
+				groups.put(group, 0);
+				int choice = likeliest(group);
+				probability *= chance(group, choice);
+				if (manager.weight(group, choice) >= 0.0)
+					n = choose(group, choice, buffer, n);
+			} else if (met.get(v, -1) < 0) {
+				met.put(v, 0);
+				double prob = manager.prob(v);
+				if (prob > 0.5)
+					buffer[n++] = manager.id(v);
+				probability *= Math.max(prob, 1.0 - prob);
+			}
+		}
+		return new Explanation(path, pathProbability, Arrays.copyOf(buffer, n), probability);
+	}
+
+	/**
+	 * Fills {@code choices} with the best branch of each of the given nodes,
+	 * children before parents, whose positions are given, and returns the
+	 * weight of the best way to one below each of them. In a world, weights
+	 * are divided by the weight of the likeliest value of their relationship
+	 * or group, so that those skipped along a branch weigh nothing either.
+	 */
+	private double[] best(int[] nodes, IntMap positions, boolean world, int[] choices) {
+		double[] values = new double[nodes.length];
+		for (int i = 0; i < nodes.length; i++) {
+			int node = nodes[i];
+			int group = manager.group(manager.var(node));
+			if (group >= 0) {
+				double scale = world ? chance(group, likeliest(group)) : 1.0;
+				double rest = 1.0;
+				int absent = -1;
+				values[i] = -1.0;
+				for (int code = 0; code < manager.codes(group); code++) {
+					double weight = manager.weight(group, code);
+					if (weight >= 0.0) {
+						double value = weight / scale * value(manager.walk(node, group, code), positions, values);
+						if (value > values[i]) {
+							values[i] = value;
+							choices[i] = code;
+						}
+						rest -= weight;
+					} else if (absent < 0)
+						absent = code;
+				}
+				if (absent >= 0) {
+					double weight = world ? Math.max(0.0, rest) / scale : 1.0;
+					double value = weight * value(manager.walk(node, group, absent), positions, values);
+					if (value > values[i]) {
+						values[i] = value;
+						choices[i] = absent;
 					}
-					value += current;
 				}
+				continue;
 			}
+			double prob = manager.prob(manager.var(node));
+			double scale = world ? Math.max(prob, 1.0 - prob) : 1.0;
+			double hi = prob / scale * value(manager.hi(node), positions, values);
+			double lo = (world ? (1.0 - prob) / scale : 1.0) * value(manager.lo(node), positions, values);
+			values[i] = Math.max(hi, lo);
+			choices[i] = hi > lo ? 1 : 0;
 		}
-		return value;
+		return values;
+	}
+
+	/**
+	 * Returns the probability of the given choice of the given group, sharing
+	 * what the others leave if no relationship depends on it.
+	 */
+	private double chance(int group, int code) {
+		double weight = manager.weight(group, code);
+		if (weight >= 0.0)
+			return weight;
+		double rest = 1.0;
+		for (int other = 0; other < manager.codes(group); other++)
+			rest -= Math.max(0.0, manager.weight(group, other));
+		return Math.max(0.0, rest);
+	}
+
+	/**
+	 * Returns the most probable choice of the given group.
+	 */
+	private int likeliest(int group) {
+		int result = -1;
+		double best = -1.0;
+		double rest = 1.0;
+		int absent = -1;
+		for (int code = 0; code < manager.codes(group); code++) {
+			double weight = manager.weight(group, code);
+			if (weight >= 0.0) {
+				if (weight > best) {
+					best = weight;
+					result = code;
+				}
+				rest -= weight;
+			} else if (absent < 0)
+				absent = code;
+		}
+		return absent >= 0 && rest > best ? absent : result;
+	}
+
+	/**
+	 * Appends the ids of the relationships depending on the given choice of
+	 * the given group and returns the new length.
+	 */
+	private int choose(int group, int code, long[] buffer, int n) {
+		for (long id : manager.relationships(group))
+			if (manager.code(id) == code)
+				buffer[n++] = id;
+		return n;
+	}
+
+	private void reach(int node, double amount, IntMap positions, double[] reach) {
+		if (!manager.isTerminal(node))
+			reach[positions.get(node, -1)] += amount;
+	}
+
+	private double paths(int node, double current) {
+		if (Manager.ZERO == node)
+			return 0.0;
+		if (Manager.ONE == node)
+			return current;
+		int group = manager.group(manager.var(node));
+		if (group >= 0) {
+			double result = 0.0;
+			double rest = 1.0;
+			int absent = -1;
+			for (int code = 0; code < manager.codes(group); code++) {
+				double weight = manager.weight(group, code);
+				if (weight >= 0.0) {
+					result += paths(manager.walk(node, group, code), current * weight);
+					rest -= weight;
+				} else if (absent < 0)
+					absent = code;
+			}
+			if (absent >= 0 && rest > 0.0)
+				result += paths(manager.walk(node, group, absent), current * rest);
+			return result;
+		}
+		double prob = manager.prob(manager.var(node));
+		return paths(manager.lo(node), current * (1.0 - prob)) + paths(manager.hi(node), current * prob);
 	}
 
 }
@@ -0,0 +1,169 @@
+/**
+ *
+ */
+package applet;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.neo4j.graphdb.RelationshipType;
+
+/**
+ * Bounded LRU cache of query results.
+ *
+ * Each entry records the ids of the relationships its result depends on, so
+ * that a change to one relationship only evicts the entries that used it.
+ * Every method locks the cache, except for the counters, which are striped.
+ *
+ * @author stefano
+ *
+ */
+public class Cache {
+
+	private static class Entry {
+
+		private final long[] relationships;
+
+		private final double value;
+
+		private Entry(double value, long[] relationships) {
+			this.value = value;
+			this.relationships = relationships;
+		}
+
+	}
+
+	private final int capacity;
+
+	private final Map<Long, Set<Query>> dependants;
+
+	private final LinkedHashMap<Query, Entry> entries;
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	public Cache(int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("Illegal 'capacity' argument in Cache(int): " + capacity);
+		this.capacity = capacity;
+		this.dependants = new HashMap<>();
+		this.entries = new LinkedHashMap<Query, Entry>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Query, Cache.Entry> eldest) {
+				if (size() <= Cache.this.capacity)
+					return false;
+				unindex(eldest.getKey(), eldest.getValue());
+				return true;
+			}
+
+		};
+	}
+
+	/**
+	 * Returns the cached result of the given query, or {@code NaN} if there is
+	 * none.
+	 */
+	public synchronized double get(Query query) {
+		if (null == query)
+			throw new IllegalArgumentException("Illegal 'query' argument in Cache.get(Query): " + query);
+		Entry entry = entries.get(query);
+		if (null == entry) {
+			misses.increment();
+			return Double.NaN;
+		}
+		hits.increment();
+		return entry.value;
+	}
+
+	public synchronized void put(Query query, double value, long[] relationships) {
+		if (null == query)
+			throw new IllegalArgumentException("Illegal 'query' argument in Cache.put(Query, double, long[]): " + query);
+		if (value < 0.0 || value > 1.0)
+			throw new IllegalArgumentException("Illegal 'value' argument in Cache.put(Query, double, long[]): " + value);
+		if (null == relationships)
+			throw new IllegalArgumentException("Illegal 'relationships' argument in Cache.put(Query, double, long[]): " + relationships);
+		remove(query);
+		Entry entry = new Entry(value, relationships.clone());
+		for (long relationship : entry.relationships) {
+			Set<Query> queries = dependants.get(relationship);
+			if (null == queries) {
+				queries = new HashSet<>();
+				dependants.put(relationship, queries);
+			}
+			queries.add(query);
+		}
+		entries.put(query, entry);
+	}
+
+	/**
+	 * Evicts every entry whose paths may use relationships of the given type.
+	 */
+	public synchronized void invalidate(RelationshipType type) {
+		if (null == type)
+			throw new IllegalArgumentException("Illegal 'type' argument in Cache.invalidate(RelationshipType): " + type);
+		Set<Query> queries = new HashSet<>();
+		for (Query query : entries.keySet())
+			if (query.involves(type))
+				queries.add(query);
+		for (Query query : queries)
+			remove(query);
+	}
+
+	/**
+	 * Evicts every entry depending on the relationship with the given id.
+	 */
+	public synchronized void invalidate(long relationship) {
+		Set<Query> queries = dependants.get(relationship);
+		if (null != queries)
+			for (Query query : new HashSet<>(queries))
+				remove(query);
+	}
+
+	/**
+	 * Evicts every entry.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		dependants.clear();
+	}
+
+	private void remove(Query query) {
+		Entry entry = entries.remove(query);
+		if (null != entry)
+			unindex(query, entry);
+	}
+
+	private void unindex(Query query, Entry entry) {
+		for (long relationship : entry.relationships) {
+			Set<Query> queries = dependants.get(relationship);
+			queries.remove(query);
+			if (queries.isEmpty())
+				dependants.remove(relationship);
+		}
+	}
+
+	public final int getCapacity() {
+		return capacity;
+	}
+
+	public final long getHits() {
+		return hits.sum();
+	}
+
+	public final long getMisses() {
+		return misses.sum();
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+}
@@ -0,0 +1,142 @@
+/**
+ *
+ */
+package applet;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing set of undirected weighted edges, each given by the
+ * non-negative ids of its end nodes, in either order, its integer weight and
+ * the choice of a group it depends on, if any, used to drop duplicate edges
+ * while loading without boxing. Edges that only differ in the choice they
+ * depend on stand for different events, so they are all kept.
+ *
+ * @author stefano
+ *
+ */
+public class EdgeSet {
+
+	private static final long EMPTY = -1L;
+
+	private int[] choices;
+
+	private long[] groups;
+
+	private long[] heads, tails;
+
+	private int[] weights;
+
+	private int size;
+
+	public EdgeSet() {
+		this(16);
+	}
+
+	public EdgeSet(int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("Illegal 'capacity' argument in EdgeSet(int): " + capacity);
+		int length = Integer.highestOneBit(Math.max(2, 2 * capacity - 1)) << 1;
+		this.tails = new long[length];
+		this.heads = new long[length];
+		this.weights = new int[length];
+		this.groups = new long[length];
+		this.choices = new int[length];
+		Arrays.fill(tails, EMPTY);
+		this.size = 0;
+	}
+
+	/**
+	 * Adds the given edge, depending on no choice, unless already there, in
+	 * which case returns false.
+	 */
+	public boolean add(long tail, long head, int weight) {
+		return add(tail, head, weight, -1L, 0);
+	}
+
+	/**
+	 * Adds the given edge, depending on the given choice of the given group
+	 * (or on none if the group is negative), unless already there, in which
+	 * case returns false.
+	 */
+	public boolean add(long tail, long head, int weight, long group, int choice) {
+		if (tail < 0)
+			throw new IllegalArgumentException("Illegal 'tail' argument in EdgeSet.add(long, long, int, long, int): " + tail);
+		if (head < 0)
+			throw new IllegalArgumentException("Illegal 'head' argument in EdgeSet.add(long, long, int, long, int): " + head);
+		if (group < 0) {
+			group = -1L;
+			choice = 0;
+		}
+		if (tail > head) {
+			long swap = tail;
+			tail = head;
+			head = swap;
+		}
+		int mask = tails.length - 1;
+		int slot = hash(tail, head, weight, group, choice) & mask;
+		for (; tails[slot] != EMPTY; slot = (slot + 1) & mask)
+			if (tails[slot] == tail && heads[slot] == head && weights[slot] == weight && groups[slot] == group && choices[slot] == choice)
+				return false;
+		tails[slot] = tail;
+		heads[slot] = head;
+		weights[slot] = weight;
+		groups[slot] = group;
+		choices[slot] = choice;
+		size += 1;
+		if (2 * size > tails.length)
+			grow();
+		return true;
+	}
+
+	public boolean contains(long tail, long head, int weight) {
+		return contains(tail, head, weight, -1L, 0);
+	}
+
+	public boolean contains(long tail, long head, int weight, long group, int choice) {
+		if (group < 0) {
+			group = -1L;
+			choice = 0;
+		}
+		if (tail > head) {
+			long swap = tail;
+			tail = head;
+			head = swap;
+		}
+		int mask = tails.length - 1;
+		for (int slot = hash(tail, head, weight, group, choice) & mask; tails[slot] != EMPTY; slot = (slot + 1) & mask)
+			if (tails[slot] == tail && heads[slot] == head && weights[slot] == weight && groups[slot] == group && choices[slot] == choice)
+				return true;
+		return false;
+	}
+
+	private void grow() {
+		long[] oldTails = tails;
+		long[] oldHeads = heads;
+		int[] oldWeights = weights;
+		long[] oldGroups = groups;
+		int[] oldChoices = choices;
+		tails = new long[2 * oldTails.length];
+		heads = new long[2 * oldHeads.length];
+		weights = new int[2 * oldWeights.length];
+		groups = new long[2 * oldGroups.length];
+		choices = new int[2 * oldChoices.length];
+		Arrays.fill(tails, EMPTY);
+		size = 0;
+		for (int slot = 0; slot < oldTails.length; slot++)
+			if (oldTails[slot] != EMPTY)
+				add(oldTails[slot], oldHeads[slot], oldWeights[slot], oldGroups[slot], oldChoices[slot]);
+	}
+
+	private static int hash(long tail, long head, int weight, long group, int choice) {
+		long result = (tail * 0x9E3779B97F4A7C15L + head) * 0x9E3779B97F4A7C15L + weight;
+		result = (result * 0x9E3779B97F4A7C15L + group) * 0x9E3779B97F4A7C15L + choice;
+		result *= 0xBF58476D1CE4E5B9L;
+		return (int) (result ^ (result >>> 32));
+	}
+
+	public int size() {
+		return size;
+	}
+
+}
@@ -0,0 +1,431 @@
+/**
+ *
+ */
+package applet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.Semaphore;
+
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+
+/**
+ * Parallel enumeration of the simple paths answering a {@link Query}.
+ *
+ * The graph is first narrowed down to the {@link Subgraph} of the nodes lying
+ * between the source and the target, read in a single transaction, so that
+ * the search never expands a dead end. The search tree is then split at the
+ * first {@link #SPLIT} hops from the source into fork/join tasks, one per
+ * prefix, which the pool balances by work stealing; below that depth each
+ * task walks its subtree depth-first, keeping the nodes on its stack in a
+ * bitset. Tasks collect the paths they find as arrays of relationship ids,
+ * which are concatenated in the order of the prefixes when the tasks are
+ * joined, so the result does not depend on the scheduling. Alternatively,
+ * {@link #stream(Query)} hands the paths over through a bounded queue as soon
+ * as they are found, so that they can be consumed while the search goes on
+ * and never all kept in memory; tasks waiting for room in the queue tell the
+ * pool through {@link ForkJoinPool#managedBlock(ForkJoinPool.ManagedBlocker)},
+ * so that it can make up for them, and the consumer waits on the queue
+ * itself until the search is over. Queries sharing their source are answered
+ * together by {@link #paths(List)}, with a single search whose paths are
+ * reported to whichever target they reach. Given a {@link Snapshot}, the
+ * subgraph is cut out of it instead of the graph.
+ *
+ * @author stefano
+ *
+ */
+public class Enumerator {
+
+	private static final int CAPACITY = 1 << 10;
+
+	private static final int SPLIT = 2;
+
+	private final GraphDatabaseService graph;
+
+	private final ForkJoinPool pool;
+
+	private final Snapshot snapshot;
+
+	public Enumerator(GraphDatabaseService graph, ForkJoinPool pool) {
+		this(graph, pool, null);
+	}
+
+	/**
+	 * Builds an enumerator searching the given snapshot of the graph, unless
+	 * {@code null}; the graph is then only read to resolve the paths found.
+	 */
+	public Enumerator(GraphDatabaseService graph, ForkJoinPool pool, Snapshot snapshot) {
+		if (null == graph)
+			throw new IllegalArgumentException("Illegal 'graph' argument in Enumerator(GraphDatabaseService, ForkJoinPool, Snapshot): " + graph);
+		if (null == pool)
+			throw new IllegalArgumentException("Illegal 'pool' argument in Enumerator(GraphDatabaseService, ForkJoinPool, Snapshot): " + pool);
+		this.graph = graph;
+		this.pool = pool;
+		this.snapshot = snapshot;
+	}
+
+	/**
+	 * Returns every simple path from the source to the target of the given
+	 * query as the ids of its relationships, in order.
+	 */
+	public List<long[]> paths(Query query) {
+		if (null == query)
+			throw new IllegalArgumentException("Illegal 'query' argument in Enumerator.paths(Query): " + query);
+		if (query.getSource() == query.getTarget())
+			return new ArrayList<>();
+		return paths(Collections.singletonList(query)).get(0);
+	}
+
+	/**
+	 * Returns the paths of each of the given queries, which must share their
+	 * source and relationship types and directions but not their targets, in
+	 * the same order. A single subgraph is built and a single search is run
+	 * for all of them, reporting each path to the target it ends at.
+	 */
+	public List<List<long[]>> paths(List<Query> queries) {
+		if (null == queries || queries.isEmpty())
+			throw new IllegalArgumentException("Illegal 'queries' argument in Enumerator.paths(List<Query>): " + queries);
+		Query first = queries.get(0);
+		Set<Long> targets = new HashSet<>();
+		for (Query query : queries)
+			if (null == query || query.getSource() != first.getSource() || query.getSource() == query.getTarget() || !targets.add(query.getTarget())
+					|| !Arrays.equals(query.getTypes(), first.getTypes()) || !Arrays.equals(query.getDirections(), first.getDirections()))
+				throw new IllegalArgumentException("Illegal 'queries' argument in Enumerator.paths(List<Query>): " + queries);
+		return pool.invoke(new Task(subgraph(queries), null));
+	}
+
+	/**
+	 * Starts enumerating the paths of the given query in the background and
+	 * returns them as they are found, in no particular order; closing the
+	 * result stops the search. A thread interrupted while waiting for paths
+	 * gets an {@link IllegalStateException}, so that a stream cut short is
+	 * never taken for a complete one.
+	 */
+	public Paths stream(Query query) {
+		if (null == query)
+			throw new IllegalArgumentException("Illegal 'query' argument in Enumerator.stream(Query): " + query);
+		Paths result = new Paths();
+		if (query.getSource() == query.getTarget())
+			result.closed = true;
+		else
+			result.task = pool.submit(new Task(subgraph(Collections.singletonList(query)), result));
+		return result;
+	}
+
+	/**
+	 * Returns the relationships with the given ids, looking them up in the
+	 * given map first and adding them to it otherwise; must be called inside a
+	 * transaction.
+	 */
+	public List<Relationship> resolve(long[] path, Map<Long, Relationship> relationships) {
+		if (null == path)
+			throw new IllegalArgumentException("Illegal 'path' argument in Enumerator.resolve(long[], Map<Long, Relationship>): " + path);
+		if (null == relationships)
+			throw new IllegalArgumentException("Illegal 'relationships' argument in Enumerator.resolve(long[], Map<Long, Relationship>): " + relationships);
+		List<Relationship> result = new ArrayList<>(path.length);
+		for (long id : path) {
+			Relationship relationship = relationships.get(id);
+			if (null == relationship) {
+				relationship = graph.getRelationshipById(id);
+				relationships.put(id, relationship);
+			}
+			result.add(relationship);
+		}
+		return result;
+	}
+
+	private Subgraph subgraph(List<Query> queries) {
+		Query query = queries.get(0);
+		if (null != snapshot) {
+			long[] targets = new long[queries.size()];
+			for (int i = 0; i < targets.length; i++)
+				targets[i] = queries.get(i).getTarget();
+			return new Subgraph(snapshot, query.getSource(), targets, query.getTypes(), query.getDirections());
+		}
+		String[] names = query.getTypes();
+		RelationshipType[] types = new RelationshipType[names.length];
+		for (int i = 0; i < names.length; i++)
+			types[i] = DynamicRelationshipType.withName(names[i]);
+		try (Transaction ignore = graph.beginTx()) {
+			Node[] targets = new Node[queries.size()];
+			for (int i = 0; i < targets.length; i++)
+				targets[i] = graph.getNodeById(queries.get(i).getTarget());
+			return new Subgraph(graph.getNodeById(query.getSource()), targets, types, query.getDirections());
+		}
+	}
+
+	/**
+	 * Paths handed over by the tasks of {@link Enumerator#stream(Query)}. The
+	 * queue holds at most {@link Enumerator#CAPACITY} paths, one per permit
+	 * taken by the tasks, followed by {@link #END} once the search is over.
+	 */
+	public static class Paths implements Iterable<long[]>, AutoCloseable {
+
+		private static final long[] END = new long[0];
+
+		private volatile boolean closed = false;
+
+		private long[] next = null;
+
+		private final Semaphore permits = new Semaphore(CAPACITY);
+
+		private final BlockingQueue<long[]> queue = new LinkedBlockingQueue<>();
+
+		private ForkJoinTask<List<List<long[]>>> task = null;
+
+		private Paths() {
+		}
+
+		/**
+		 * Stops the search, letting go of the tasks waiting for room.
+		 */
+		@Override
+		public synchronized void close() {
+			if (closed)
+				return;
+			closed = true;
+			queue.clear();
+			permits.release(Integer.MAX_VALUE - CAPACITY);
+		}
+
+		@Override
+		public Iterator<long[]> iterator() {
+			return new Iterator<long[]>() {
+
+				@Override
+				public boolean hasNext() {
+					try {
+						if (null == next && !closed) {
+							next = queue.take();
+							if (END == next) {
+								next = null;
+								// lets go of any task left waiting if the search
+								// failed, and rethrows whatever stopped it
+								close();
+								task.join();
+							} else
+								permits.release();
+						}
+					} catch (InterruptedException e) {
+						// a stream cut short must not pass for a complete one
+						Thread.currentThread().interrupt();
+						close();
+						throw new IllegalStateException("Interrupted in Enumerator.Paths.hasNext()");
+					}
+					return null != next;
+				}
+
+				@Override
+				public long[] next() {
+					if (!hasNext())
+						throw new NoSuchElementException();
+					long[] result = next;
+					next = null;
+					return result;
+				}
+
+			};
+		}
+
+		/**
+		 * Waits until there is room for the given path, unless the stream is
+		 * closed first, telling the pool that the calling worker is blocked.
+		 */
+		private void put(long[] path) {
+			try {
+				ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+
+					@Override
+					public boolean block() throws InterruptedException {
+						permits.acquire();
+						return true;
+					}
+
+					@Override
+					public boolean isReleasable() {
+						return permits.tryAcquire();
+					}
+
+				});
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			if (!closed)
+				queue.add(path);
+		}
+
+		/**
+		 * Tells the consumer that the search is over, however it ended.
+		 */
+		private void finish() {
+			queue.add(END);
+		}
+
+	}
+
+	private static class Task extends RecursiveTask<List<List<long[]>>> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int[] edges, nodes;
+
+		private final Paths paths;
+
+		private final Subgraph subgraph;
+
+		private Task(Subgraph subgraph, Paths paths) {
+			this(subgraph, paths, new int[] { Subgraph.SOURCE }, new int[0]);
+		}
+
+		/**
+		 * Enumerates the paths starting with the given edges of the subgraph,
+		 * which visit the given nodes, the last of which is where the search
+		 * continues.
+		 */
+		private Task(Subgraph subgraph, Paths paths, int[] nodes, int[] edges) {
+			this.subgraph = subgraph;
+			this.paths = paths;
+			this.nodes = nodes;
+			this.edges = edges;
+		}
+
+		@Override
+		protected List<List<long[]>> compute() {
+			if (null == paths || edges.length > 0)
+				return split();
+			try {
+				return split();
+			} finally {
+				paths.finish();
+			}
+		}
+
+		/**
+		 * Forks a task per edge leaving the prefix, unless deep enough to
+		 * search the subtree below it.
+		 */
+		private List<List<long[]>> split() {
+			if (edges.length >= SPLIT)
+				return search();
+			List<List<long[]>> result = results();
+			List<Task> tasks = new ArrayList<>();
+			int node = nodes[nodes.length - 1];
+			for (int edge = subgraph.offsets[node]; edge < subgraph.offsets[node + 1]; edge++) {
+				int other = subgraph.neighbours[edge];
+				if (contains(nodes, other))
+					continue;
+				int[] prefix = append(edges, edge);
+				if (subgraph.isTarget(other))
+					emit(other, ids(prefix, prefix.length), result);
+				if (subgraph.offsets[other] < subgraph.offsets[other + 1])
+					tasks.add(new Task(subgraph, paths, append(nodes, other), prefix));
+			}
+			for (Task task : invokeAll(tasks)) {
+				List<List<long[]>> found = task.join();
+				for (int i = 0; i < result.size(); i++)
+					result.get(i).addAll(found.get(i));
+			}
+			return result;
+		}
+
+		/**
+		 * Walks the subtree below the prefix depth-first.
+		 */
+		private List<List<long[]>> search() {
+			List<List<long[]>> result = results();
+			long[] visited = new long[(subgraph.size() + 63) >>> 6];
+			for (int node : nodes)
+				visited[node >>> 6] |= 1L << node;
+			int[] stack = new int[16];
+			int[] cursors = new int[16];
+			int[] path = Arrays.copyOf(edges, edges.length + 16);
+			int depth = 0;
+			stack[0] = nodes[nodes.length - 1];
+			cursors[0] = subgraph.offsets[stack[0]];
+			while (depth >= 0 && (null == paths || !paths.closed)) {
+				int node = stack[depth];
+				if (cursors[depth] == subgraph.offsets[node + 1]) {
+					if (depth > 0)
+						visited[node >>> 6] &= ~(1L << node);
+					depth -= 1;
+					continue;
+				}
+				int edge = cursors[depth]++;
+				int other = subgraph.neighbours[edge];
+				if (0 != (visited[other >>> 6] & (1L << other)))
+					continue;
+				int length = edges.length + depth;
+				if (length == path.length)
+					path = Arrays.copyOf(path, 2 * length);
+				path[length] = edge;
+				if (subgraph.isTarget(other))
+					emit(other, ids(path, length + 1), result);
+				if (subgraph.offsets[other] < subgraph.offsets[other + 1]) {
+					depth += 1;
+					if (depth == stack.length) {
+						stack = Arrays.copyOf(stack, 2 * depth);
+						cursors = Arrays.copyOf(cursors, 2 * depth);
+					}
+					stack[depth] = other;
+					cursors[depth] = subgraph.offsets[other];
+					visited[other >>> 6] |= 1L << other;
+				}
+			}
+			return result;
+		}
+
+		private long[] ids(int[] path, int length) {
+			long[] result = new long[length];
+			for (int i = 0; i < length; i++)
+				result[i] = subgraph.relationships[path[i]];
+			return result;
+		}
+
+		private void emit(int target, long[] path, List<List<long[]>> result) {
+			if (null == paths)
+				result.get(target - Subgraph.TARGET).add(path);
+			else
+				paths.put(path);
+		}
+
+		private List<List<long[]>> results() {
+			List<List<long[]>> result = new ArrayList<>(subgraph.targets);
+			for (int i = 0; i < subgraph.targets; i++)
+				result.add(new ArrayList<>());
+			return result;
+		}
+
+	}
+
+	private static int[] append(int[] array, int value) {
+		int[] result = Arrays.copyOf(array, array.length + 1);
+		result[array.length] = value;
+		return result;
+	}
+
+	private static boolean contains(int[] array, int value) {
+		for (int item : array)
+			if (item == value)
+				return true;
+		return false;
+	}
+
+}
@@ -0,0 +1,108 @@
+/**
+ *
+ */
+package applet;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Java Flight Recorder events of the queries answered from scratch, committed
+ * by {@link Metrics.Record}: one for the whole query and one for each phase,
+ * all carrying the signature of the query (see {@link Query#toString()}, and
+ * joined by {@code ;} for a batch), so that a slow query can be found in a
+ * recording and set against the GC and I/O activity around it.
+ *
+ * Events cost next to nothing until a recording enables them, e.g. with
+ * {@code -XX:StartFlightRecording:settings=default}; they need a runtime
+ * with Flight Recorder, i.e. Java 11 or Java 8 from update 272.
+ *
+ * @author stefano
+ *
+ */
+public final class Events {
+
+	@Name("applet.Query")
+	@Label("Query")
+	@Category("NeoDD")
+	@Description("A query answered from scratch")
+	static class QueryEvent extends Event {
+
+		@Label("Query")
+		String query;
+
+		@Label("Paths")
+		long paths;
+
+		@Label("Variables")
+		long variables;
+
+		@Label("Nodes")
+		long nodes;
+
+		@Label("Peak Nodes")
+		int peak;
+
+		@Label("Failed")
+		boolean failed;
+
+	}
+
+	@Name("applet.Enumeration")
+	@Label("Enumeration")
+	@Category("NeoDD")
+	@Description("The paths of a query being enumerated")
+	static class EnumerationEvent extends Event {
+
+		@Label("Query")
+		String query;
+
+		@Label("Paths")
+		long paths;
+
+	}
+
+	@Name("applet.Compilation")
+	@Label("Compilation")
+	@Category("NeoDD")
+	@Description("The paths of a query being compiled into a diagram, and enumerated too in streaming mode")
+	static class CompilationEvent extends Event {
+
+		@Label("Query")
+		String query;
+
+		@Label("Paths")
+		long paths;
+
+		@Label("Variables")
+		int variables;
+
+		@Label("Nodes")
+		int nodes;
+
+	}
+
+	@Name("applet.Evaluation")
+	@Label("Evaluation")
+	@Category("NeoDD")
+	@Description("The diagram of a query being evaluated")
+	static class EvaluationEvent extends Event {
+
+		@Label("Query")
+		String query;
+
+		@Label("Nodes")
+		int nodes;
+
+		@Label("Probability")
+		double probability;
+
+	}
+
+	private Events() {
+	}
+
+}
@@ -0,0 +1,324 @@
+/**
+ *
+ */
+package applet;
+
+import java.util.SplittableRandom;
+
+/**
+ * Seeded generator of synthetic probabilistic graphs, written through a
+ * {@link Loader} so that they can be queried by {@link Kimmig} (see
+ * {@link Kimmig#getLoader()}) or by a {@link Problem} (see
+ * {@link Problem#getGraph()}) alike.
+ *
+ * Nodes are named {@code n0}, {@code n1} and so on; the suggested query goes
+ * from {@link #getSource()} to {@link #getTarget()}, which are as far apart as
+ * the topology allows. Edges are drawn as follows:
+ *
+ * <ul>
+ * <li>{@code ERDOS_RENYI}: {@code degree * n / 2} edges between nodes chosen
+ * uniformly at random;</li>
+ * <li>{@code POWER_LAW}: preferential attachment, each new node linking to
+ * {@code degree / 2} nodes chosen with probability proportional to their
+ * degree;</li>
+ * <li>{@code GRID}: a square lattice of about {@code n} nodes, each linked to
+ * its right and lower neighbours;</li>
+ * <li>{@code LAYERED}: layers of {@code degree} nodes each, as in biomine
+ * where genes link to proteins, proteins to articles and so on, with each
+ * node linked to two random nodes of the next layer.</li>
+ * </ul>
+ *
+ * Probabilities are drawn from the given {@link Distribution} between
+ * {@code low} and {@code high}, and rounded to the {@code logp} integers the
+ * loader takes. When groups are requested, edges are gathered into annotated
+ * disjunctions of up to that many mutually exclusive choices, whose
+ * probabilities are rescaled so as to add up to at most one.
+ *
+ * The same seed and settings always yield the same graph.
+ *
+ * @author stefano
+ *
+ */
+public class Generator {
+
+	/**
+	 * How edge probabilities are drawn within {@code [low, high]}:
+	 * {@code UNIFORM}ly, {@code SKEWED} towards {@code low} (the square of a
+	 * uniform draw) as in biomine, or {@code BIMODAL}, near either end.
+	 */
+	public static enum Distribution {
+		UNIFORM, SKEWED, BIMODAL;
+	}
+
+	public static enum Topology {
+		ERDOS_RENYI, POWER_LAW, GRID, LAYERED;
+	}
+
+	private static final String PREFIX = "n";
+
+	private Distribution distribution = Distribution.UNIFORM;
+
+	private int groups = 0;
+
+	private double high = 0.9;
+
+	private double low = 0.1;
+
+	private SplittableRandom random;
+
+	private final long seed;
+
+	private int source = 0;
+
+	private int target = 0;
+
+	public Generator(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Writes a graph of about {@code n} nodes with the given topology and
+	 * average degree to the given loader, which is flushed, and returns the
+	 * number of edges drawn.
+	 */
+	public long generate(Loader loader, Topology topology, int n, int degree) {
+		if (null == loader)
+			throw new IllegalArgumentException("Illegal 'loader' argument in Generator.generate(Loader, Topology, int, int): " + loader);
+		if (null == topology)
+			throw new IllegalArgumentException("Illegal 'topology' argument in Generator.generate(Loader, Topology, int, int): " + topology);
+		if (n < 2)
+			throw new IllegalArgumentException("Illegal 'n' argument in Generator.generate(Loader, Topology, int, int): " + n);
+		if (degree < 1)
+			throw new IllegalArgumentException("Illegal 'degree' argument in Generator.generate(Loader, Topology, int, int): " + degree);
+		random = new SplittableRandom(seed);
+		Sink sink = new Sink(loader);
+		switch (topology) {
+		case ERDOS_RENYI:
+			erdosRenyi(sink, n, degree);
+			break;
+		case POWER_LAW:
+			powerLaw(sink, n, degree);
+			break;
+		case GRID:
+			grid(sink, n);
+			break;
+		case LAYERED:
+			layered(sink, n, degree);
+			break;
+		default:
+			throw new IllegalArgumentException("Illegal 'topology' argument in Generator.generate(Loader, Topology, int, int): " + topology);
+		}
+		sink.close();
+		loader.flush();
+		return sink.edges;
+	}
+
+	private void erdosRenyi(Sink sink, int n, int degree) {
+		long edges = (long) degree * n / 2;
+		for (long i = 0; i < edges; i++) {
+			int tail = random.nextInt(n);
+			int head = random.nextInt(n - 1);
+			sink.add(tail, head < tail ? head : head + 1);
+		}
+		source = 0;
+		target = n - 1;
+	}
+
+	private void powerLaw(Sink sink, int n, int degree) {
+		int m = Math.max(1, degree / 2);
+		// every end of every edge so far, so that a uniform draw among them
+		// picks a node with probability proportional to its degree
+		int[] ends = new int[2 * m * n];
+		int size = 0;
+		for (int node = 1; node < n; node++)
+			for (int i = 0; i < Math.min(m, node); i++) {
+				int other = 0 == size ? 0 : ends[random.nextInt(size)];
+				if (other == node)
+					continue;
+				sink.add(node, other);
+				ends[size++] = node;
+				ends[size++] = other;
+			}
+		source = 0;
+		target = n - 1;
+	}
+
+	private void grid(Sink sink, int n) {
+		int side = (int) Math.ceil(Math.sqrt(n));
+		for (int row = 0; row < side; row++)
+			for (int column = 0; column < side; column++) {
+				int node = row * side + column;
+				if (column + 1 < side)
+					sink.add(node, node + 1);
+				if (row + 1 < side)
+					sink.add(node, node + side);
+			}
+		source = 0;
+		target = side * side - 1;
+	}
+
+	private void layered(Sink sink, int n, int width) {
+		int layers = Math.max(2, (n + width - 1) / width);
+		int last = 1 + layers * width;
+		// a single node at either end, linked to its whole layer
+		for (int i = 0; i < width; i++)
+			sink.add(0, 1 + i);
+		for (int layer = 0; layer + 1 < layers; layer++)
+			for (int i = 0; i < width; i++) {
+				int node = 1 + layer * width + i;
+				sink.add(node, 1 + (layer + 1) * width + random.nextInt(width));
+				sink.add(node, 1 + (layer + 1) * width + random.nextInt(width));
+			}
+		for (int i = 0; i < width; i++)
+			sink.add(1 + (layers - 1) * width + i, last);
+		source = 0;
+		target = last;
+	}
+
+	private double probability() {
+		double draw = random.nextDouble();
+		switch (distribution) {
+		case SKEWED:
+			draw *= draw;
+			break;
+		case BIMODAL:
+			draw = random.nextBoolean() ? draw * draw / 4.0 : 1.0 - draw * draw / 4.0;
+			break;
+		default:
+			break;
+		}
+		return low + (high - low) * draw;
+	}
+
+	private static int logp(double prob) {
+		return (int) Math.round(-1000.0 * Math.log(prob));
+	}
+
+	public static String name(int node) {
+		return PREFIX + node;
+	}
+
+	public final Distribution getDistribution() {
+		return distribution;
+	}
+
+	public final int getGroups() {
+		return groups;
+	}
+
+	public final double getHigh() {
+		return high;
+	}
+
+	public final double getLow() {
+		return low;
+	}
+
+	public final long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * Returns the name of the suggested source of the last graph generated.
+	 */
+	public final String getSource() {
+		return name(source);
+	}
+
+	/**
+	 * Returns the name of the suggested target of the last graph generated.
+	 */
+	public final String getTarget() {
+		return name(target);
+	}
+
+	public final void setDistribution(Distribution distribution) {
+		if (null == distribution)
+			throw new IllegalArgumentException("Illegal 'distribution' argument in Generator.setDistribution(Distribution): " + distribution);
+		this.distribution = distribution;
+	}
+
+	/**
+	 * Gathers the edges into annotated disjunctions of up to the given number
+	 * of choices; 0 keeps them independent.
+	 */
+	public final void setGroups(int groups) {
+		if (groups < 0 || 1 == groups)
+			throw new IllegalArgumentException("Illegal 'groups' argument in Generator.setGroups(int): " + groups);
+		this.groups = groups;
+	}
+
+	public final void setProbabilities(double low, double high) {
+		if (low <= 0.0 || low > high || high > 1.0)
+			throw new IllegalArgumentException("Illegal 'low' and 'high' arguments in Generator.setProbabilities(double, double): " + low + ", " + high);
+		this.low = low;
+		this.high = high;
+	}
+
+	/**
+	 * Hands the edges over to the loader, either one by one or, when grouped,
+	 * once every choice of their group is known.
+	 */
+	private class Sink {
+
+		private long edges = 0;
+
+		private int group = 0;
+
+		private final int[] heads;
+
+		private final Loader loader;
+
+		private final double[] probs;
+
+		private int size = 0;
+
+		private final int[] tails;
+
+		private Sink(Loader loader) {
+			this.loader = loader;
+			this.tails = new int[groups];
+			this.heads = new int[groups];
+			this.probs = new double[groups];
+		}
+
+		private void add(int tail, int head) {
+			edges += 1;
+			double prob = probability();
+			if (0 == groups) {
+				loader.add(name(tail), name(head), logp(prob));
+				return;
+			}
+			tails[size] = tail;
+			heads[size] = head;
+			probs[size++] = prob;
+			if (size == groups)
+				close();
+		}
+
+		private void close() {
+			if (0 == size)
+				return;
+			double sum = 0.0;
+			for (int i = 0; i < size; i++)
+				sum += probs[i];
+			double scale = sum > 1.0 ? 1.0 / sum : 1.0;
+			int[] logps = new int[size];
+			double total = 0.0;
+			for (int i = 0; i < size; i++) {
+				// rounded towards lower probabilities, so that they still add
+				// up to at most one
+				logps[i] = (int) Math.ceil(-1000.0 * Math.log(probs[i] * scale));
+				total += Math.exp(logps[i] / -1000.0);
+			}
+			// one more choice, that of none, unless the others add up to one
+			int choices = total < 1.0 - 1e-6 ? size + 1 : size;
+			for (int i = 0; i < size; i++)
+				loader.add(name(tails[i]), name(heads[i]), logps[i], group, i + 1, choices);
+			group += 1;
+			size = 0;
+		}
+
+	}
+
+}
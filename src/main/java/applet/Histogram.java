@@ -0,0 +1,119 @@
+/**
+ *
+ */
+package applet;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of non-negative longs with log-linear buckets, in the
+ * manner of HdrHistogram: values below {@code 2^BITS} have a bucket each,
+ * while above that every power of two is split into {@code 2^BITS} buckets of
+ * equal width, so that any value is known within about 3% of itself. The
+ * buckets cover every long in a fixed array, so recording is a shift and an
+ * atomic increment and never allocates.
+ *
+ * @author stefano
+ *
+ */
+public class Histogram {
+
+	private static final int BITS = 5;
+
+	private static final int SUB = 1 << BITS;
+
+	private final AtomicLongArray counts = new AtomicLongArray((64 - BITS) * SUB);
+
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	private final LongAdder sum = new LongAdder();
+
+	private final LongAdder total = new LongAdder();
+
+	public void record(long value) {
+		if (value < 0)
+			throw new IllegalArgumentException("Illegal 'value' argument in Histogram.record(long): " + value);
+		counts.incrementAndGet(bucket(value));
+		max.accumulate(value);
+		sum.add(value);
+		total.increment();
+	}
+
+	private static int bucket(long value) {
+		if (value < SUB)
+			return (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		return (exponent - BITS + 1) * SUB + (int) (value >>> (exponent - BITS)) - SUB;
+	}
+
+	/**
+	 * Returns the largest value falling in the given bucket.
+	 */
+	private static long highest(int bucket) {
+		if (bucket < SUB)
+			return bucket;
+		int shift = bucket / SUB - 1;
+		long lowest = (long) (bucket % SUB + SUB) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+
+	/**
+	 * Returns the value below which the given fraction of the recorded values
+	 * lie, rounded up to the end of its bucket, or 0 if none was recorded.
+	 */
+	public long percentile(double fraction) {
+		if (fraction < 0.0 || fraction > 1.0)
+			throw new IllegalArgumentException("Illegal 'fraction' argument in Histogram.percentile(double): " + fraction);
+		long count = 0;
+		for (int i = 0; i < counts.length(); i++)
+			count += counts.get(i);
+		if (0 == count)
+			return 0;
+		long rank = Math.max(1, (long) Math.ceil(fraction * count));
+		long seen = 0;
+		for (int i = 0; i < counts.length(); i++)
+			if ((seen += counts.get(i)) >= rank)
+				return Math.min(highest(i), max.get());
+		return max.get();
+	}
+
+	public long count() {
+		return total.sum();
+	}
+
+	public long max() {
+		return max.get();
+	}
+
+	public long sum() {
+		return sum.sum();
+	}
+
+	public double mean() {
+		long count = total.sum();
+		return 0 == count ? 0.0 : (double) sum.sum() / count;
+	}
+
+	/**
+	 * Returns the mean, median, 99th percentile and maximum, in this order,
+	 * each multiplied by the given scale.
+	 */
+	public double[] summary(double scale) {
+		return new double[] { scale * mean(), scale * percentile(0.5), scale * percentile(0.99), scale * max() };
+	}
+
+	/**
+	 * Forgets every value recorded; values recorded meanwhile may be partly
+	 * kept.
+	 */
+	public void reset() {
+		for (int i = 0; i < counts.length(); i++)
+			counts.set(i, 0);
+		max.reset();
+		sum.reset();
+		total.reset();
+	}
+
+}
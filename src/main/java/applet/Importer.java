@@ -0,0 +1,445 @@
+/**
+ *
+ */
+package applet;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Importer of probabilistic facts written as in {@code source.txt}:
+ *
+ * <pre>
+ * edge(a,b) :- choice(12,1,103).
+ * edge(b,a) :- choice(12,1,X).
+ * 1 { choice(12,1,103), choice(12,2,2324) } 1.
+ * </pre>
+ *
+ * Each edge holds when the given choice is made in the given group, whose
+ * choices are mutually exclusive and have probability
+ * {@code exp(-logp / 1000)}; when an edge names a variable rather than a
+ * weight, the weight comes from the annotated disjunction of the group, which
+ * may come later in the file. Edges are passed on to a {@link Loader} with
+ * their group, choice and number of choices (counting that of none when the
+ * declared ones add up to less than one) as soon as the disjunction of their
+ * group is met, so that all the edges of a group agree on its number of
+ * choices; the edges of a group without one wait until the end of the file,
+ * where the choices they give a weight to make up its disjunction. Comments
+ * starting with {@code %} and any other clause are skipped.
+ *
+ * The file is read through a window of at most {@link #WINDOW} bytes mapped in
+ * memory, which moves on as clauses are parsed, so that it is never held in the
+ * heap however large. Clauses are scanned in place, byte by byte; node names
+ * are interned, so that a name met before costs no allocation, and the edges
+ * still waiting for the weight of their group are kept in arrays, chained into
+ * one list per group so that a declaration only visits its own edges.
+ *
+ * @author stefano
+ *
+ */
+public class Importer {
+
+	/**
+	 * The largest choice of a group, one less than the choices the manager
+	 * can encode, which leaves room for the choice of none.
+	 */
+	private static final int CHOICE = Manager.CHOICES - 1;
+
+	private static final int CLAUSE = 1 << 16;
+
+	private static final int WINDOW = 1 << 30;
+
+	private MappedByteBuffer buffer;
+
+	private final Map<Long, int[]> groups = new HashMap<>();
+
+	private final Loader loader;
+
+	private final Names names = new Names();
+
+	private int free = -1;
+
+	private int pending = 0;
+
+	private int[] pendingChoices = new int[16];
+
+	private String[] pendingHeads = new String[16];
+
+	private long[] pendingLogps = new long[16];
+
+	private int[] pendingNext = new int[16];
+
+	private String[] pendingTails = new String[16];
+
+	private int slots = 0;
+
+	private final Map<Long, int[]> waiting = new HashMap<>();
+
+	private int position;
+
+	private long read = 0;
+
+	public Importer(Loader loader) {
+		if (null == loader)
+			throw new IllegalArgumentException("Illegal 'loader' argument in Importer(Loader): " + loader);
+		this.loader = loader;
+	}
+
+	/**
+	 * Imports the given file and returns the number of edges read, duplicates
+	 * included; the loader is flushed at the end.
+	 */
+	public long load(String path) {
+		if (null == path || (path = path.trim()).isEmpty())
+			throw new IllegalArgumentException("Illegal 'path' argument in Importer.load(String): " + path);
+		long before = read;
+		try (RandomAccessFile file = new RandomAccessFile(path, "r"); FileChannel channel = file.getChannel()) {
+			long size = channel.size();
+			long base = 0;
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, base, Math.min(WINDOW, size));
+			position = 0;
+			while (true) {
+				skip();
+				if (buffer.limit() - position < CLAUSE && base + buffer.limit() < size) {
+					base += position;
+					buffer = channel.map(FileChannel.MapMode.READ_ONLY, base, Math.min(WINDOW, size - base));
+					position = 0;
+					continue;
+				}
+				if (position == buffer.limit())
+					break;
+				int start = position;
+				if (!clause())
+					throw new IllegalArgumentException("Illegal clause at byte " + (base + start) + " in Importer.load(String): " + path);
+			}
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Illegal 'path' argument in Importer.load(String): " + path);
+		} finally {
+			buffer = null;
+		}
+		settle();
+		if (pending > 0)
+			throw new IllegalArgumentException("Illegal 'path' argument in Importer.load(String), group " + waiting.keySet().iterator().next() + " is never declared: " + path);
+		loader.flush();
+		return read - before;
+	}
+
+	/**
+	 * Parses the clause at the current position, skipping it if neither an edge
+	 * nor an annotated disjunction; returns false if malformed.
+	 */
+	private boolean clause() {
+		int start = position;
+		if (literal("edge(")) {
+			String tail = name();
+			if (null == tail || !literal(","))
+				return false;
+			String head = name();
+			if (null == head || !literal(")") || !literal(":-") || !literal("choice("))
+				return false;
+			long group = number();
+			if (group < 0 || !literal(","))
+				return false;
+			long choice = number();
+			if (choice < 1 || choice > CHOICE || !literal(","))
+				return false;
+			long logp = number();
+			if (logp < 0 && !variable())
+				return false;
+			if (!literal(")") || !literal("."))
+				return false;
+			edge(tail, head, logp, group, (int) choice);
+			return true;
+		}
+		position = start;
+		if (number() >= 0 && literal("{"))
+			return disjunction();
+		position = start;
+		while (position < buffer.limit() && !end())
+			position += 1;
+		if (position == buffer.limit())
+			return false;
+		position += 1;
+		return true;
+	}
+
+	/**
+	 * Parses the body and the closing of an annotated disjunction, declaring
+	 * the weights of its group.
+	 */
+	private boolean disjunction() {
+		long group = -1;
+		int[] weights = new int[0];
+		do {
+			if (!literal("choice("))
+				return false;
+			long id = number();
+			if (id < 0 || (group >= 0 && id != group) || !literal(","))
+				return false;
+			group = id;
+			long choice = number();
+			if (choice < 1 || choice > CHOICE || !literal(","))
+				return false;
+			long logp = number();
+			if (logp < 0 || logp > Integer.MAX_VALUE || !literal(")"))
+				return false;
+			if (choice > weights.length) {
+				int length = weights.length;
+				weights = Arrays.copyOf(weights, (int) choice);
+				Arrays.fill(weights, length, weights.length, -1);
+			}
+			weights[(int) choice - 1] = (int) logp;
+		} while (literal(","));
+		if (!literal("}") || number() < 0 || !literal("."))
+			return false;
+		declare(group, weights);
+		return true;
+	}
+
+	/**
+	 * Records the weights of the given group and loads the edges waiting for
+	 * them.
+	 */
+	private void declare(long group, int[] weights) {
+		groups.put(group, weights);
+		int[] list = waiting.remove(group);
+		for (int i = null == list ? -1 : list[0], next; i >= 0; i = next) {
+			String tail = pendingTails[i];
+			String head = pendingHeads[i];
+			long logp = pendingLogps[i];
+			int choice = pendingChoices[i];
+			next = pendingNext[i];
+			pendingTails[i] = pendingHeads[i] = null;
+			pendingNext[i] = free;
+			free = i;
+			pending -= 1;
+			edge(tail, head, logp, group, choice);
+		}
+	}
+
+	/**
+	 * Declares the groups met without a disjunction as if closed by one of the
+	 * choices their edges give a weight to, unless some edge waits for the
+	 * weight of a choice.
+	 */
+	private void settle() {
+		Map<Long, int[]> found = new HashMap<>();
+		next: for (Map.Entry<Long, int[]> list : waiting.entrySet()) {
+			int[] weights = null;
+			for (int i = list.getValue()[0]; i >= 0; i = pendingNext[i]) {
+				if (pendingLogps[i] < 0)
+					continue next;
+				if (null == weights || pendingChoices[i] > weights.length) {
+					int length = null == weights ? 0 : weights.length;
+					weights = null == weights ? new int[pendingChoices[i]] : Arrays.copyOf(weights, pendingChoices[i]);
+					Arrays.fill(weights, length, weights.length, -1);
+				}
+				weights[pendingChoices[i] - 1] = (int) pendingLogps[i];
+			}
+			found.put(list.getKey(), weights);
+		}
+		for (Map.Entry<Long, int[]> group : found.entrySet())
+			declare(group.getKey(), group.getValue());
+	}
+
+	/**
+	 * Loads the given edge, looking its weight up in the declaration of its
+	 * group if negative, or keeps it until the group is declared.
+	 */
+	private void edge(String tail, String head, long logp, long group, int choice) {
+		int[] weights = groups.get(group);
+		if (null == weights) {
+			int slot = free;
+			if (slot >= 0)
+				free = pendingNext[slot];
+			else {
+				if (slots == pendingTails.length) {
+					pendingTails = Arrays.copyOf(pendingTails, 2 * slots);
+					pendingHeads = Arrays.copyOf(pendingHeads, 2 * slots);
+					pendingLogps = Arrays.copyOf(pendingLogps, 2 * slots);
+					pendingChoices = Arrays.copyOf(pendingChoices, 2 * slots);
+					pendingNext = Arrays.copyOf(pendingNext, 2 * slots);
+				}
+				slot = slots++;
+			}
+			pendingTails[slot] = tail;
+			pendingHeads[slot] = head;
+			pendingLogps[slot] = logp;
+			pendingChoices[slot] = choice;
+			pendingNext[slot] = -1;
+			pending += 1;
+			int[] list = waiting.get(group);
+			if (null == list)
+				waiting.put(group, new int[] { slot, slot });
+			else {
+				pendingNext[list[1]] = slot;
+				list[1] = slot;
+			}
+			return;
+		}
+		if (choice > weights.length || (logp < 0 && weights[choice - 1] < 0))
+			throw new IllegalArgumentException("Illegal choice " + choice + " of group " + group + " in Importer.load(String)");
+		if (logp < 0)
+			logp = weights[choice - 1];
+		if (logp > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Illegal weight " + logp + " of group " + group + " in Importer.load(String)");
+		read += 1;
+		loader.add(tail, head, (int) logp, group, choice, choices(weights));
+	}
+
+	/**
+	 * Returns the number of choices of a group with the given weights, one
+	 * more than declared if they leave room for the choice of none.
+	 */
+	private static int choices(int[] weights) {
+		double sum = 0.0;
+		for (int weight : weights)
+			if (weight >= 0)
+				sum += Math.exp(weight / -1000.0);
+		return weights.length + (sum < 1.0 - 1e-6 ? 1 : 0);
+	}
+
+	/**
+	 * Tells whether the current position ends a clause, that is a dot followed
+	 * by a blank or the end of the file.
+	 */
+	private boolean end() {
+		return '.' == buffer.get(position) && (position + 1 == buffer.limit() || buffer.get(position + 1) <= ' ');
+	}
+
+	/**
+	 * Consumes the given text, after any blanks, if it comes next.
+	 */
+	private boolean literal(String text) {
+		skip();
+		if (buffer.limit() - position < text.length())
+			return false;
+		for (int i = 0; i < text.length(); i++)
+			if (buffer.get(position + i) != text.charAt(i))
+				return false;
+		position += text.length();
+		return true;
+	}
+
+	/**
+	 * Consumes a name, after any blanks, and returns it interned; returns
+	 * {@code null} if there is none.
+	 */
+	private String name() {
+		skip();
+		int start = position;
+		for (byte b; position < buffer.limit() && (b = buffer.get(position)) > ' ' && ',' != b && '(' != b && ')' != b; position++)
+			;
+		return position == start ? null : names.get(buffer, start, position);
+	}
+
+	/**
+	 * Consumes a non-negative integer, after any blanks, and returns it;
+	 * returns -1 if there is none.
+	 */
+	private long number() {
+		skip();
+		long result = -1;
+		for (byte b; position < buffer.limit() && (b = buffer.get(position)) >= '0' && b <= '9' && result < Long.MAX_VALUE / 10; position++)
+			result = 10 * Math.max(0, result) + (b - '0');
+		return result;
+	}
+
+	/**
+	 * Skips blanks and comments.
+	 */
+	private void skip() {
+		while (position < buffer.limit()) {
+			byte b = buffer.get(position);
+			if ('%' == b)
+				while (position < buffer.limit() && '\n' != buffer.get(position))
+					position += 1;
+			else if (b <= ' ')
+				position += 1;
+			else
+				break;
+		}
+	}
+
+	/**
+	 * Consumes a variable, that is a name starting with an upper case letter or
+	 * an underscore.
+	 */
+	private boolean variable() {
+		skip();
+		if (position == buffer.limit())
+			return false;
+		byte b = buffer.get(position);
+		if ('_' != b && (b < 'A' || b > 'Z'))
+			return false;
+		return null != name();
+	}
+
+	/**
+	 * Open-addressing table of the names met so far, looked up by their bytes.
+	 */
+	private static class Names {
+
+		private byte[][] bytes = new byte[1 << 10][];
+
+		private int size = 0;
+
+		private String[] strings = new String[1 << 10];
+
+		private String get(MappedByteBuffer buffer, int start, int end) {
+			int hash = 0;
+			for (int i = start; i < end; i++)
+				hash = 31 * hash + buffer.get(i);
+			int mask = bytes.length - 1;
+			int slot = (hash ^ (hash >>> 16)) & mask;
+			for (; null != bytes[slot]; slot = (slot + 1) & mask)
+				if (equals(bytes[slot], buffer, start, end))
+					return strings[slot];
+			byte[] name = new byte[end - start];
+			for (int i = start; i < end; i++)
+				name[i - start] = buffer.get(i);
+			String result = new String(name, StandardCharsets.UTF_8);
+			bytes[slot] = name;
+			strings[slot] = result;
+			if (2 * ++size > bytes.length)
+				grow();
+			return result;
+		}
+
+		private static boolean equals(byte[] name, MappedByteBuffer buffer, int start, int end) {
+			if (name.length != end - start)
+				return false;
+			for (int i = 0; i < name.length; i++)
+				if (name[i] != buffer.get(start + i))
+					return false;
+			return true;
+		}
+
+		private void grow() {
+			byte[][] oldBytes = bytes;
+			String[] oldStrings = strings;
+			bytes = new byte[2 * oldBytes.length][];
+			strings = new String[2 * oldStrings.length];
+			int mask = bytes.length - 1;
+			for (int i = 0; i < oldBytes.length; i++)
+				if (null != oldBytes[i]) {
+					int hash = 0;
+					for (byte b : oldBytes[i])
+						hash = 31 * hash + b;
+					int slot = (hash ^ (hash >>> 16)) & mask;
+					while (null != bytes[slot])
+						slot = (slot + 1) & mask;
+					bytes[slot] = oldBytes[i];
+					strings[slot] = oldStrings[i];
+				}
+		}
+
+	}
+
+}
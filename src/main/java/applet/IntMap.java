@@ -0,0 +1,82 @@
+/**
+ *
+ */
+package applet;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing map from non-negative ints to ints, used to index BDD nodes
+ * without boxing.
+ *
+ * @author stefano
+ *
+ */
+public class IntMap {
+
+	private static final int EMPTY = -1;
+
+	private int[] keys, values;
+
+	private int size;
+
+	public IntMap() {
+		this(16);
+	}
+
+	public IntMap(int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("Illegal 'capacity' argument in IntMap(int): " + capacity);
+		int length = Integer.highestOneBit(Math.max(2, 2 * capacity - 1)) << 1;
+		this.keys = new int[length];
+		this.values = new int[length];
+		Arrays.fill(keys, EMPTY);
+		this.size = 0;
+	}
+
+	public int get(int key, int otherwise) {
+		int mask = keys.length - 1;
+		for (int slot = hash(key) & mask; keys[slot] != EMPTY; slot = (slot + 1) & mask)
+			if (keys[slot] == key)
+				return values[slot];
+		return otherwise;
+	}
+
+	public void put(int key, int value) {
+		if (key < 0)
+			throw new IllegalArgumentException("Illegal 'key' argument in IntMap.put(int, int): " + key);
+		int mask = keys.length - 1;
+		int slot = hash(key) & mask;
+		while (keys[slot] != EMPTY && keys[slot] != key)
+			slot = (slot + 1) & mask;
+		if (keys[slot] == EMPTY) {
+			keys[slot] = key;
+			size += 1;
+		}
+		values[slot] = value;
+		if (2 * size > keys.length)
+			grow();
+	}
+
+	private void grow() {
+		int[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new int[2 * oldKeys.length];
+		values = new int[2 * oldValues.length];
+		Arrays.fill(keys, EMPTY);
+		size = 0;
+		for (int slot = 0; slot < oldKeys.length; slot++)
+			if (oldKeys[slot] != EMPTY)
+				put(oldKeys[slot], oldValues[slot]);
+	}
+
+	private static int hash(int key) {
+		int result = key * 0x9E3779B1;
+		return result ^ (result >>> 16);
+	}
+
+	public int size() {
+		return size;
+	}
+
+}
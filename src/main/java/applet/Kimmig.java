@@ -7,20 +7,25 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
-import org.neo4j.graphalgo.GraphAlgoFactory;
-import org.neo4j.graphalgo.PathFinder;
 import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
-import org.neo4j.graphdb.Path;
-import org.neo4j.graphdb.PathExpander;
-import org.neo4j.graphdb.PathExpanders;
 import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.RelationshipType;
 import org.neo4j.graphdb.Transaction;
@@ -29,23 +34,57 @@ import org.neo4j.visualization.graphviz.GraphvizWriter;
 import org.neo4j.walk.Walker;
 
 /**
+ * Safe for many threads adding and querying at once. Edges added are queued
+ * without locking and written by whichever thread flushes them, one writer
+ * at a time, since the transaction of the {@link Loader} is bound to its
+ * thread; queries commit the queued edges first unless a writer is busy, in
+ * which case they go on with the edges committed so far rather than wait.
+ * Nodes are found in a concurrent index and settings in one immutable
+ * {@link Parameters} object, and the {@link Snapshot} is replaced rather than
+ * refreshed in place; only compiling and evaluating diagrams take turns,
+ * since the {@link Manager} is shared, a few paths per turn.
+ *
  * @author stefano
  *
  */
-public class Kimmig {
+public class Kimmig implements AutoCloseable {
 
 	private static enum RelType implements RelationshipType {
 		EDGE;
 	}
 
+	/**
+	 * The number of paths added to a diagram per hold of the lock of the
+	 * manager.
+	 */
+	private static final int CHUNK = 64;
+
 	private static final String DB_PATH = "target/neo4j-domain-db";
 
+	private static class Edge {
+
+		private final String head;
+
+		private final int logp;
+
+		private final String tail;
+
+		private Edge(String tail, String head, int logp) {
+			this.tail = tail;
+			this.head = head;
+			this.logp = logp;
+		}
+
+	}
+
 	private GraphDatabaseService graph;
 
 	public Kimmig() {
 		Utils.delete(DB_PATH);
 		this.graph = new GraphDatabaseFactory().newEmbeddedDatabase(DB_PATH);
-		this.nodes = new HashMap<>();
+		this.nodes = new ConcurrentHashMap<>();
+		this.loader = new Loader(graph, RelType.EDGE, nodes);
+		metrics.register(new File(DB_PATH).getAbsolutePath());
 		Runtime.getRuntime().addShutdownHook(new Thread() {
 			@Override
 			public void run() {
@@ -54,9 +93,33 @@ public class Kimmig {
 		});
 	}
 
+	private final ReentrantLock ingest = new ReentrantLock();
+
 	private Map<String, Node> nodes;
 
-	private int maxdepth = 1;
+	/**
+	 * The diagram of the last query of each thread, see {@link #getLast()};
+	 * guarded by the lock of the manager.
+	 */
+	private final Map<Thread, BDD> lasts = new HashMap<>();
+
+	private final Loader loader;
+
+	private final ForkJoinPool pool = new ForkJoinPool();
+
+	private final Manager manager = new Manager();
+
+	private final Metrics metrics = new Metrics();
+
+	private volatile Parameters parameters = Parameters.DEFAULT;
+
+	private final ConcurrentLinkedQueue<Edge> queue = new ConcurrentLinkedQueue<>();
+
+	private final AtomicInteger queued = new AtomicInteger();
+
+	private final Sampler sampler = new Sampler(Runtime.getRuntime().availableProcessors());
+
+	private volatile Snapshot snapshot = null;
 
 	public void add(String tail, String head, int logp) {
 		if (null == tail || (tail = tail.trim()).isEmpty())
@@ -72,41 +135,76 @@ public class Kimmig {
 					"Illegal 'logp' argument in Kimmig.add(String, String, int): "
 							+ logp);
 
-		try (Transaction tx = graph.beginTx()) {
-
-			Node start = nodes.get(tail);
-			if (null == start) {
-				start = graph.createNode();
-				start.setProperty("name", tail);
-				nodes.put(tail, start);
-			}
+		queue.add(new Edge(tail, head, logp));
+		if (queued.incrementAndGet() >= loader.getBatch())
+			flush();
+	}
 
-			Node end = nodes.get(head);
-			if (null == end) {
-				end = graph.createNode();
-				end.setProperty("name", head);
-				nodes.put(head, end);
+	/**
+	 * Imports the edges in the given file of facts, see {@link Importer}, and
+	 * returns how many were read.
+	 */
+	public long load(String path) {
+		if (null == path || (path = path.trim()).isEmpty())
+			throw new IllegalArgumentException("Illegal 'path' argument in Kimmig.load(String): " + path);
+		ingest.lock();
+		try {
+			drain();
+			return new Importer(loader).load(path);
+		} finally {
+			try {
+				loader.flush();
+			} finally {
+				ingest.unlock();
 			}
+		}
+	}
 
-			double prob = Math.exp(logp / -1000.0);
+	/**
+	 * Commits the edges added so far, which is done anyway before any query
+	 * unless another thread is writing.
+	 */
+	public void flush() {
+		ingest.lock();
+		try {
+			drain();
+		} finally {
+			ingest.unlock();
+		}
+	}
 
-			boolean found = false;
-			Iterator<Relationship> iterator = end.getRelationships(
-					Direction.OUTGOING, RelType.EDGE).iterator();
-			while (iterator.hasNext() && !found) {
-				Relationship rel = iterator.next();
-				found = rel.getEndNode().equals(start)
-						&& rel.getProperty("prob").equals(prob);
-			}
-			if (!found) {
-				Relationship rel = start
-						.createRelationshipTo(end, RelType.EDGE);
-				rel.setProperty("prob", prob);
-				maxdepth += 1;
+	/**
+	 * Commits the edges added so far, unless another thread is writing, in
+	 * which case queries go on with the edges committed.
+	 */
+	private void publish() {
+		if (queued.get() > 0 && ingest.tryLock())
+			try {
+				drain();
+			} finally {
+				ingest.unlock();
 			}
+	}
 
-			tx.success();
+	/**
+	 * Writes the queued edges and commits them; must be called holding the
+	 * ingest lock.
+	 */
+	private void drain() {
+		for (Edge edge; null != (edge = queue.poll());) {
+			queued.decrementAndGet();
+			loader.add(edge.tail, edge.head, edge.logp);
 		}
+		loader.flush();
+	}
+
+	/**
+	 * Returns the loader behind {@link #add(String, String, int)}, which can
+	 * report its progress; it must only be written to while no other thread
+	 * adds edges.
+	 */
+	public final Loader getLoader() {
+		return loader;
 	}
 
 	public double path(String source, String target) {
@@ -118,42 +216,350 @@ public class Kimmig {
 			throw new IllegalArgumentException(
 					"Illegal 'target' argument in Kimmig.path(String, String): "
 							+ target);
-		if (!nodes.containsKey(source) || !nodes.containsKey(target))
-			return 0.0;
+		publish();
 		Node start = nodes.get(source);
 		Node end = nodes.get(target);
+		if (null == start || null == end)
+			return 0.0;
 		if (start.equals(end))
 			return 1.0;
 		
+		Parameters parameters = this.parameters;
+		long deadline = parameters.deadline();
+		Query query = new Query(start, end, RelType.EDGE, Direction.BOTH);
+		Metrics.Record record = metrics.start(manager, query);
+		boolean failed = true;
 		try (Transaction ignore = graph.beginTx()) {
-			PathExpander<Object> expander = PathExpanders.forTypeAndDirection(
-					RelType.EDGE, Direction.BOTH);
-			PathFinder<Path> finder = GraphAlgoFactory.allPaths(expander,
-					maxdepth);
-			Iterable<Path> paths = finder.findAllPaths(start, end);
-			if (!paths.iterator().hasNext())
-				return -1.0;
-			
-			Set<Relationship> relationships = new HashSet<>();
-			Set<Set<Relationship>> expression = new HashSet<>();
-			for (Path path : paths) {
-				Set<Relationship> item = new HashSet<>();
-				for (Relationship relationship : path.relationships()) {
-					relationships.add(relationship);
-					item.add(relationship);
+			Enumerator enumerator = new Enumerator(graph, pool, snapshot);
+			BDD bdd;
+			if (parameters.streaming)
+				try (Enumerator.Paths paths = enumerator.stream(query)) {
+					bdd = compile(query, paths, enumerator, parameters, deadline, record);
+				}
+			else {
+				List<long[]> paths = enumerator.paths(query);
+				record.enumerated(paths.size());
+				bdd = compile(query, paths, enumerator, parameters, deadline, record);
+			}
+			double result = -1.0;
+			if (null != bdd)
+				synchronized (manager) {
+					result = solve(query, bdd, record);
+				}
+			failed = false;
+			return result;
+		} finally {
+			metrics.stop(record, failed);
+		}
+	}
+
+	/**
+	 * Compiles the disjunction of the given paths, either one path at a time or
+	 * all at once, see {@link #setStreaming(boolean)}, giving up with an
+	 * {@link IllegalStateException} once the given deadline passes; returns
+	 * {@code null} if there is no path at all. Must be called inside a
+	 * transaction. Paths are enumerated and resolved outside the lock of the
+	 * manager, which is only taken to add {@link #CHUNK} of them at a time.
+	 */
+	private BDD compile(Query query, Iterable<long[]> paths, Enumerator enumerator, Parameters parameters, long deadline, Metrics.Record record) {
+		Map<Long, Relationship> relationships = new HashMap<>();
+		List<Set<Relationship>> chunk = new ArrayList<>();
+		long count = 0;
+		BDD result;
+		synchronized (manager) {
+			result = new BDD(manager, parameters.streaming ? BDD.Ordering.APPEARANCE : parameters.ordering, parameters.threshold);
+		}
+		try {
+			if (parameters.streaming)
+				for (long[] path : paths) {
+					chunk.add(new LinkedHashSet<>(enumerator.resolve(path, relationships)));
+					count += 1;
+					if (CHUNK == chunk.size())
+						add(result, chunk, deadline);
+				}
+			else {
+				Set<Set<Relationship>> expression = new HashSet<>();
+				for (long[] path : paths) {
+					expression.add(new LinkedHashSet<>(enumerator.resolve(path, relationships)));
+					count += 1;
+				}
+				synchronized (manager) {
+					result.declare(expression, new HashSet<>(relationships.values()));
 				}
-				expression.add(item);
+				for (Set<Relationship> path : expression) {
+					chunk.add(path);
+					if (CHUNK == chunk.size())
+						add(result, chunk, deadline);
+				}
+			}
+			add(result, chunk, deadline);
+		} catch (RuntimeException e) {
+			synchronized (manager) {
+				result.close();
+			}
+			throw e;
+		}
+		synchronized (manager) {
+			record.compiled(query, result, count, relationships.size());
+			if (0 == count) {
+				result.close();
+				return null;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Adds the given paths to the given diagram, holding the lock of the
+	 * manager, and clears them.
+	 */
+	private void add(BDD bdd, List<Set<Relationship>> paths, long deadline) {
+		synchronized (manager) {
+			manager.setDeadline(deadline);
+			try {
+				for (Set<Relationship> path : paths) {
+					if (System.nanoTime() > deadline)
+						throw new IllegalStateException("Deadline passed in Kimmig.add(BDD, List<Set<Relationship>>, long)");
+					bdd.add(path);
+				}
+			} finally {
+				manager.setDeadline(Long.MAX_VALUE);
 			}
+		}
+		paths.clear();
+	}
 
-			BDD bdd = new BDD(expression, relationships);
-			// bdd.dump("bdd.gv");
-			return bdd.traverse();
+	/**
+	 * Evaluates the given diagram of the given query and keeps it as the last
+	 * one of the calling thread; must be called holding the lock of the
+	 * manager.
+	 */
+	private double solve(Query query, BDD bdd, Metrics.Record record) {
+		BDD previous = lasts.put(Thread.currentThread(), bdd);
+		if (null != previous)
+			previous.close();
+		// the diagrams of the threads gone are never asked for again
+		for (Iterator<Map.Entry<Thread, BDD>> i = lasts.entrySet().iterator(); i.hasNext();) {
+			Map.Entry<Thread, BDD> entry = i.next();
+			if (!entry.getKey().isAlive()) {
+				entry.getValue().close();
+				i.remove();
+			}
 		}
+		double result = bdd.traverse();
+		// toString() only reports what is computed here, so it needs no lock
+		bdd.size();
+		bdd.variables();
+		record.evaluated(query, bdd, result);
+		return result;
+	}
+
+	/**
+	 * Batch version of {@link #path(String, String)} returning the result of
+	 * each of the given pairs, in the same order; pairs are grouped by source
+	 * and each group is answered by {@link #path(String, String[])}.
+	 */
+	public double[] pathAll(List<Pair<String>> pairs) {
+		if (null == pairs || pairs.contains(null))
+			throw new IllegalArgumentException("Illegal 'pairs' argument in Kimmig.pathAll(List<Pair<String>>): " + pairs);
+		Map<String, List<Integer>> groups = new LinkedHashMap<>();
+		for (int i = 0; i < pairs.size(); i++) {
+			String source = pairs.get(i).getSource().trim();
+			List<Integer> group = groups.get(source);
+			if (null == group) {
+				group = new ArrayList<>();
+				groups.put(source, group);
+			}
+			group.add(i);
+		}
+		double[] result = new double[pairs.size()];
+		for (Map.Entry<String, List<Integer>> entry : groups.entrySet()) {
+			List<Integer> group = entry.getValue();
+			String[] targets = new String[group.size()];
+			for (int i = 0; i < targets.length; i++)
+				targets[i] = pairs.get(group.get(i)).getTarget();
+			double[] values = path(entry.getKey(), targets);
+			for (int i = 0; i < targets.length; i++)
+				result[group.get(i)] = values[i];
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the result of {@link #path(String, String)} from the given
+	 * source to each of the given targets, in the same order, enumerating the
+	 * paths to all of them at once, see {@link Enumerator#paths(List)}.
+	 */
+	public double[] path(String source, String[] targets) {
+		if (null == source || (source = source.trim()).isEmpty())
+			throw new IllegalArgumentException("Illegal 'source' argument in Kimmig.path(String, String[]): " + source);
+		if (null == targets)
+			throw new IllegalArgumentException("Illegal 'targets' argument in Kimmig.path(String, String[]): " + targets);
+		for (String target : targets)
+			if (null == target || target.trim().isEmpty())
+				throw new IllegalArgumentException("Illegal 'targets' argument in Kimmig.path(String, String[]): " + Arrays.toString(targets));
+		double[] result = new double[targets.length];
+		publish();
+		Node start = nodes.get(source);
+		if (null == start)
+			return result;
+		List<Query> queries = new ArrayList<>();
+		Map<Node, Integer> pending = new HashMap<>();
+		int[] indices = new int[targets.length];
+		for (int i = 0; i < targets.length; i++) {
+			indices[i] = -1;
+			Node end = nodes.get(targets[i].trim());
+			if (null == end)
+				result[i] = 0.0;
+			else if (start.equals(end))
+				result[i] = 1.0;
+			else if (pending.containsKey(end))
+				indices[i] = pending.get(end);
+			else {
+				indices[i] = queries.size();
+				pending.put(end, queries.size());
+				queries.add(new Query(start, end, RelType.EDGE, Direction.BOTH));
+			}
+		}
+		if (queries.isEmpty())
+			return result;
+		Parameters parameters = this.parameters;
+		long deadline = parameters.deadline();
+		Metrics.Record record = metrics.start(manager, queries.toArray(new Query[queries.size()]));
+		double[] values = new double[queries.size()];
+		boolean failed = true;
+		try {
+			Enumerator enumerator = new Enumerator(graph, pool, snapshot);
+			List<List<long[]>> paths = enumerator.paths(queries);
+			long count = 0;
+			for (List<long[]> list : paths)
+				count += list.size();
+			record.enumerated(count);
+			try (Transaction ignore = graph.beginTx()) {
+				for (int i = 0; i < values.length; i++) {
+					if (paths.get(i).isEmpty()) {
+						values[i] = -1.0;
+						continue;
+					}
+					BDD bdd = compile(queries.get(i), paths.get(i), enumerator, parameters, deadline, record);
+					synchronized (manager) {
+						values[i] = solve(queries.get(i), bdd, record);
+					}
+				}
+			}
+			failed = false;
+		} finally {
+			metrics.stop(record, failed);
+		}
+		for (int i = 0; i < targets.length; i++)
+			if (indices[i] >= 0)
+				result[i] = values[indices[i]];
+		return result;
+	}
+
+	/**
+	 * Anytime version of {@link #path(String, String)}: returns the lower and
+	 * upper bounds on the probability reached when they are at most
+	 * {@code tolerance} apart or after about {@code millis} milliseconds, see
+	 * {@link Approximation}.
+	 */
+	public double[] path(String source, String target, long millis, double tolerance) {
+		if (null == source || (source = source.trim()).isEmpty())
+			throw new IllegalArgumentException("Illegal 'source' argument in Kimmig.path(String, String, long, double): " + source);
+		if (null == target || (target = target.trim()).isEmpty())
+			throw new IllegalArgumentException("Illegal 'target' argument in Kimmig.path(String, String, long, double): " + target);
+		if (millis < 0)
+			throw new IllegalArgumentException("Illegal 'millis' argument in Kimmig.path(String, String, long, double): " + millis);
+		if (tolerance < 0.0 || tolerance > 1.0)
+			throw new IllegalArgumentException("Illegal 'tolerance' argument in Kimmig.path(String, String, long, double): " + tolerance);
+		publish();
+		Node start = nodes.get(source);
+		Node end = nodes.get(target);
+		if (null == start || null == end)
+			return new double[] { 0.0, 0.0 };
+		if (source.equals(target))
+			return new double[] { 1.0, 1.0 };
+		Snapshot snapshot = this.snapshot;
+		if (null != snapshot)
+			return new Approximation(manager, RelType.EDGE, Direction.BOTH).bounds(subgraph(snapshot, start, end), millis, tolerance);
+		try (Transaction ignore = graph.beginTx()) {
+			return new Approximation(manager, RelType.EDGE, Direction.BOTH).bounds(start, end, millis, tolerance);
+		}
+	}
+
+	/**
+	 * Sampling version of {@link #path(String, String)}: returns the
+	 * estimated probability followed by the bounds of its 95% confidence
+	 * interval, see {@link Sampler}.
+	 */
+	public double[] sample(String source, String target, double error) {
+		if (null == source || (source = source.trim()).isEmpty())
+			throw new IllegalArgumentException("Illegal 'source' argument in Kimmig.sample(String, String, double): " + source);
+		if (null == target || (target = target.trim()).isEmpty())
+			throw new IllegalArgumentException("Illegal 'target' argument in Kimmig.sample(String, String, double): " + target);
+		if (error <= 0.0 || error >= 1.0)
+			throw new IllegalArgumentException("Illegal 'error' argument in Kimmig.sample(String, String, double): " + error);
+		publish();
+		Node start = nodes.get(source);
+		Node end = nodes.get(target);
+		if (null == start || null == end)
+			return new double[] { 0.0, 0.0, 0.0 };
+		if (source.equals(target))
+			return new double[] { 1.0, 1.0, 1.0 };
+		Snapshot snapshot = this.snapshot;
+		if (null != snapshot)
+			return sampler.estimate(subgraph(snapshot, start, end), error);
+		try (Transaction ignore = graph.beginTx()) {
+			return sampler.estimate(start, end, error, RelType.EDGE, Direction.BOTH);
+		}
+	}
+
+	private static Subgraph subgraph(Snapshot snapshot, Node source, Node target) {
+		long[] targets = { target.getId() };
+		return new Subgraph(snapshot, source.getId(), targets, new String[] { RelType.EDGE.name() }, new Direction[] { Direction.BOTH });
+	}
+
+	/**
+	 * Commits the edges added so far and takes a new {@link Snapshot} of the
+	 * graph, which replaces the previous one once complete, so that queries
+	 * running meanwhile finish on the old one; from then on, queries search
+	 * the snapshot rather than the graph, so it must be refreshed again after
+	 * more edges are added.
+	 */
+	public void refresh() {
+		flush();
+		snapshot = new Snapshot(graph);
+	}
+
+	/**
+	 * Commits the edges added so far and shuts the graph down, along with the
+	 * threads of the enumerator and of the sampler, so that another instance
+	 * can be created in its place.
+	 */
+	@Override
+	public void close() {
+		ingest.lock();
+		try {
+			drain();
+			loader.close();
+		} finally {
+			ingest.unlock();
+		}
+		synchronized (manager) {
+			for (BDD bdd : lasts.values())
+				bdd.close();
+			lasts.clear();
+		}
+		sampler.close();
+		pool.shutdown();
+		metrics.unregister();
+		graph.shutdown();
 	}
 
 	public void dump(String path) {
 		if (null == path || (path = path.trim()).isEmpty())
 			throw new IllegalArgumentException("Illegal 'path' argument in Kimmig.dump(String): " + path);
+		flush();
 		try (Transaction ignore = graph.beginTx()) {
 			try {
 				File file = new File(path);
@@ -166,28 +572,91 @@ public class Kimmig {
 		}
 	}
 	
+	/**
+	 * Returns the diagram compiled by the last query of the calling thread,
+	 * which reports the ordering it used and its size, or {@code null} if
+	 * none; it stays open until the next query of the same thread, so other
+	 * threads never close it, but since the manager is shared, it must be
+	 * traversed or dumped while no other thread queries.
+	 */
+	public final BDD getLast() {
+		synchronized (manager) {
+			return lasts.get(Thread.currentThread());
+		}
+	}
+
+	/**
+	 * Returns the metrics of the queries answered, which are also registered
+	 * over JMX under the absolute path of the database.
+	 */
+	public final Metrics getMetrics() {
+		return metrics;
+	}
+
+	public final BDD.Ordering getOrdering() {
+		return parameters.ordering;
+	}
+
+	public final Sampler getSampler() {
+		return sampler;
+	}
+
+	public final int getThreshold() {
+		return parameters.threshold;
+	}
+
+	public final long getTimeout() {
+		return parameters.timeout;
+	}
+
+	public final boolean isStreaming() {
+		return parameters.streaming;
+	}
+
+	public final synchronized void setOrdering(BDD.Ordering ordering) {
+		if (null == ordering)
+			throw new IllegalArgumentException("Illegal 'ordering' argument in Kimmig.setOrdering(BDD.Ordering): " + ordering);
+		parameters = parameters.ordering(ordering);
+	}
+
+	/**
+	 * In streaming mode every path found is OR-ed into the diagram as soon as
+	 * it is enumerated and then dropped, so memory is bounded by the diagram
+	 * rather than by the number of paths; relationships are then ordered as
+	 * they are met, regardless of {@link #setOrdering(BDD.Ordering)}.
+	 */
+	public final synchronized void setStreaming(boolean streaming) {
+		parameters = parameters.streaming(streaming);
+	}
+
+	/**
+	 * Sets the number of live BDD nodes above which variables are sifted while
+	 * compiling; 0 disables sifting.
+	 */
+	public final synchronized void setThreshold(int threshold) {
+		if (threshold < 0)
+			throw new IllegalArgumentException("Illegal 'threshold' argument in Kimmig.setThreshold(int): " + threshold);
+		parameters = parameters.threshold(threshold);
+	}
+
+	/**
+	 * Sets the milliseconds after which a query still compiling gives up with
+	 * an {@link IllegalStateException}; 0, the default, waits forever.
+	 */
+	public final synchronized void setTimeout(long timeout) {
+		if (timeout < 0)
+			throw new IllegalArgumentException("Illegal 'timeout' argument in Kimmig.setTimeout(long): " + timeout);
+		parameters = parameters.timeout(timeout);
+	}
+
 	/**
 	 * @param args
 	 */
 	public static void main(String[] args) {
 		long loading = System.nanoTime();
 		Kimmig kimmig = new Kimmig();
-		kimmig.add("hgnc_620", "entrezprotein_33339674", 663);
-		kimmig.add("hgnc_9165", "pubmed_15214843", 504);
-		kimmig.add("hgnc_621", "entrezprotein_3342564", 435);
-		kimmig.add("uniprot_o00213", "go_go_0001540", 672);
-		kimmig.add("hgnc_983", "pubmed_2322535", 103);
-		kimmig.add("hgnc_620", "pubmed_9136074", 843);
-		kimmig.add("uniprot_o75882", "pubmed_14760718", 747);
-		kimmig.add("hgnc_2313", "pubmed_14760718", 627);
-		kimmig.add("hgnc_1358", "pubmed_14760718", 749);
-		kimmig.add("hgnc_5394", "entrezprotein_182607", 395);
-
-		kimmig.add("hgnc_9087", "pubmed_7622043", 347);
-		kimmig.add("hgnc_983", "pubmed_1769657", 103);
-		kimmig.add("hgnc_620", "pubmed_2507928", 103);
-
-		kimmig.add("hgnc_2313", "entrezprotein_27769064", 297);
+		kimmig.load(args.length > 0 ? args[0] : "source.txt");
+		kimmig.refresh();
 
 		loading = System.nanoTime() - loading;
 		kimmig.dump("kimmig.gv");
@@ -197,6 +666,12 @@ public class Kimmig {
 		solving = System.nanoTime() - solving;
 		System.out.format("%d,%.3f,%.3f,%.3f\n", 1, loading / 1_000_000_000.0,
 				solving / 1_000_000_000.0, prob);
+		double[] bounds = kimmig.path("hgnc_620", "hgnc_983", 1000, 0.001);
+		System.out.format("Bounds: [%.3f, %.3f]\n", bounds[0], bounds[1]);
+		double[] estimate = kimmig.sample("hgnc_620", "hgnc_983", 0.005);
+		System.out.format("Estimate: %.3f [%.3f, %.3f]\n", estimate[0], estimate[1], estimate[2]);
+		double[] batch = kimmig.path("hgnc_620", new String[] { "hgnc_983", "hgnc_2313", "hgnc_9087" });
+		System.out.format("Batch: %s\n", Arrays.toString(batch));
 		System.out.println("Done.");
 	}
 }
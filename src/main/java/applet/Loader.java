@@ -0,0 +1,233 @@
+/**
+ *
+ */
+package applet;
+
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+
+/**
+ * Bulk loader of weighted edges between named nodes.
+ *
+ * Edges are written in transactions of {@link #getBatch()} edges each rather
+ * than one at a time; the one still open is committed by {@link #flush()},
+ * which must be called before the graph is read by other means. Nodes are
+ * looked up by name in the given map, where the new ones are added once
+ * committed (so that the map may be read by other threads meanwhile), and
+ * duplicate edges are dropped by looking up their ends, in either direction,
+ * their weight and the choice they depend on, if any, in an {@link EdgeSet}
+ * instead of walking the relationships of their nodes; only the edges added
+ * through the loader are known to it.
+ * Progress may be reported every so many edges.
+ *
+ * A loader must only be used from the thread that created it, since the
+ * transaction it keeps open is bound to it.
+ *
+ * @author stefano
+ *
+ */
+public class Loader implements AutoCloseable {
+
+	public static final int BATCH = 10_000;
+
+	public static final String CHOICE = "choice";
+
+	public static final String CHOICES = "choices";
+
+	public static final String GROUP = "group";
+
+	private static final String NAME = "name";
+
+	private static final String PROB = "prob";
+
+	private final int batch;
+
+	private long duplicates = 0;
+
+	private final EdgeSet edges = new EdgeSet();
+
+	private long every = 0;
+
+	private final GraphDatabaseService graph;
+
+	private long loaded = 0;
+
+	private final Map<String, Node> fresh = new HashMap<>();
+
+	private final Map<String, Node> nodes;
+
+	private PrintStream out = null;
+
+	private int pending = 0;
+
+	private final long start = System.nanoTime();
+
+	private Transaction tx = null;
+
+	private final RelationshipType type;
+
+	public Loader(GraphDatabaseService graph, RelationshipType type, Map<String, Node> nodes) {
+		this(graph, type, nodes, BATCH);
+	}
+
+	public Loader(GraphDatabaseService graph, RelationshipType type, Map<String, Node> nodes, int batch) {
+		if (null == graph)
+			throw new IllegalArgumentException("Illegal 'graph' argument in Loader(GraphDatabaseService, RelationshipType, Map<String, Node>, int): " + graph);
+		if (null == type)
+			throw new IllegalArgumentException("Illegal 'type' argument in Loader(GraphDatabaseService, RelationshipType, Map<String, Node>, int): " + type);
+		if (null == nodes)
+			throw new IllegalArgumentException("Illegal 'nodes' argument in Loader(GraphDatabaseService, RelationshipType, Map<String, Node>, int): " + nodes);
+		if (batch < 1)
+			throw new IllegalArgumentException("Illegal 'batch' argument in Loader(GraphDatabaseService, RelationshipType, Map<String, Node>, int): " + batch);
+		this.graph = graph;
+		this.type = type;
+		this.nodes = nodes;
+		this.batch = batch;
+	}
+
+	/**
+	 * Adds an edge from the given tail to the given head with probability
+	 * {@code exp(-logp / 1000)}, creating the nodes as needed, unless the same
+	 * edge was already added in either direction; returns the relationship or
+	 * {@code null} if it was a duplicate.
+	 */
+	public Relationship add(String tail, String head, int logp) {
+		if (null == tail || (tail = tail.trim()).isEmpty())
+			throw new IllegalArgumentException("Illegal 'tail' argument in Loader.add(String, String, int): " + tail);
+		if (null == head || (head = head.trim()).isEmpty())
+			throw new IllegalArgumentException("Illegal 'head' argument in Loader.add(String, String, int): " + head);
+		if (logp < 0)
+			throw new IllegalArgumentException("Illegal 'logp' argument in Loader.add(String, String, int): " + logp);
+		return insert(tail, head, logp, -1L, 0, 0);
+	}
+
+	/**
+	 * Adds an edge as {@link #add(String, String, int)} does, recording that
+	 * it holds when the given choice is made in the given group of mutually
+	 * exclusive and exhaustive choices, of which the edge takes the
+	 * probability; it is only a duplicate of an edge depending on the same
+	 * choice.
+	 */
+	public Relationship add(String tail, String head, int logp, long group, int choice, int choices) {
+		if (null == tail || (tail = tail.trim()).isEmpty())
+			throw new IllegalArgumentException("Illegal 'tail' argument in Loader.add(String, String, int, long, int, int): " + tail);
+		if (null == head || (head = head.trim()).isEmpty())
+			throw new IllegalArgumentException("Illegal 'head' argument in Loader.add(String, String, int, long, int, int): " + head);
+		if (logp < 0)
+			throw new IllegalArgumentException("Illegal 'logp' argument in Loader.add(String, String, int, long, int, int): " + logp);
+		if (group < 0)
+			throw new IllegalArgumentException("Illegal 'group' argument in Loader.add(String, String, int, long, int, int): " + group);
+		if (choice < 1 || choice > choices)
+			throw new IllegalArgumentException("Illegal 'choice' argument in Loader.add(String, String, int, long, int, int): " + choice);
+		return insert(tail, head, logp, group, choice, choices);
+	}
+
+	private Relationship insert(String tail, String head, int logp, long group, int choice, int choices) {
+		if (null == tx)
+			tx = graph.beginTx();
+		Node start = node(tail);
+		Node end = node(head);
+		Relationship result = null;
+		if (edges.add(start.getId(), end.getId(), logp, group, choice)) {
+			result = start.createRelationshipTo(end, type);
+			result.setProperty(PROB, Math.exp(logp / -1000.0));
+			if (group >= 0) {
+				result.setProperty(GROUP, group);
+				result.setProperty(CHOICE, choice);
+				result.setProperty(CHOICES, choices);
+			}
+			loaded += 1;
+			if (++pending == batch)
+				flush();
+		} else
+			duplicates += 1;
+		if (null != out && 0 == (loaded + duplicates) % every)
+			report();
+		return result;
+	}
+
+	private Node node(String name) {
+		Node result = nodes.get(name);
+		if (null == result)
+			result = fresh.get(name);
+		if (null == result) {
+			result = graph.createNode();
+			result.setProperty(NAME, name);
+			fresh.put(name, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Commits the edges added since the last commit, and adds the nodes they
+	 * created to the map.
+	 */
+	public void flush() {
+		if (null != tx) {
+			try {
+				tx.success();
+			} finally {
+				tx.close();
+				tx = null;
+				pending = 0;
+			}
+			nodes.putAll(fresh);
+			fresh.clear();
+		}
+	}
+
+	@Override
+	public void close() {
+		flush();
+		if (null != out)
+			report();
+	}
+
+	/**
+	 * Prints the number of edges loaded and dropped so far and the rate at
+	 * which they were read.
+	 */
+	private void report() {
+		out.format("%d edges loaded, %d duplicates, %.0f edges/s\n", loaded, duplicates, getRate());
+	}
+
+	public final int getBatch() {
+		return batch;
+	}
+
+	public final long getDuplicates() {
+		return duplicates;
+	}
+
+	public final long getLoaded() {
+		return loaded;
+	}
+
+	/**
+	 * Returns the number of edges, duplicates included, read per second since
+	 * the loader was created.
+	 */
+	public final double getRate() {
+		double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+		return seconds > 0.0 ? (loaded + duplicates) / seconds : 0.0;
+	}
+
+	/**
+	 * Reports the progress on the given stream every so many edges read;
+	 * {@code null} stops reporting.
+	 */
+	public final void setProgress(PrintStream out, long every) {
+		if (null != out && every < 1)
+			throw new IllegalArgumentException("Illegal 'every' argument in Loader.setProgress(PrintStream, long): " + every);
+		this.out = out;
+		this.every = every;
+	}
+
+}
@@ -0,0 +1,131 @@
+/**
+ *
+ */
+package applet;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing map from non-negative longs to doubles, used to report a
+ * value for each relationship id without boxing.
+ *
+ * @author stefano
+ *
+ */
+public class LongDoubleMap {
+
+	private static final long EMPTY = -1L;
+
+	private long[] keys;
+
+	private int size;
+
+	private double[] values;
+
+	public LongDoubleMap() {
+		this(16);
+	}
+
+	public LongDoubleMap(int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("Illegal 'capacity' argument in LongDoubleMap(int): " + capacity);
+		int length = Integer.highestOneBit(Math.max(2, 2 * capacity - 1)) << 1;
+		this.keys = new long[length];
+		this.values = new double[length];
+		Arrays.fill(keys, EMPTY);
+		this.size = 0;
+	}
+
+	public boolean containsKey(long key) {
+		return key >= 0 && keys[slot(key)] == key;
+	}
+
+	public double get(long key, double otherwise) {
+		if (key < 0)
+			return otherwise;
+		int slot = slot(key);
+		return keys[slot] == key ? values[slot] : otherwise;
+	}
+
+	public void put(long key, double value) {
+		if (key < 0)
+			throw new IllegalArgumentException("Illegal 'key' argument in LongDoubleMap.put(long, double): " + key);
+		int slot = slot(key);
+		if (keys[slot] == EMPTY) {
+			keys[slot] = key;
+			size += 1;
+		}
+		values[slot] = value;
+		if (2 * size > keys.length)
+			grow();
+	}
+
+	/**
+	 * Adds the given amount to the value of the given key, taken as 0 if
+	 * missing.
+	 */
+	public void add(long key, double amount) {
+		if (key < 0)
+			throw new IllegalArgumentException("Illegal 'key' argument in LongDoubleMap.add(long, double): " + key);
+		int slot = slot(key);
+		if (keys[slot] == key)
+			values[slot] += amount;
+		else
+			put(key, amount);
+	}
+
+	/**
+	 * Returns the slot holding the given key, or the empty one where it
+	 * would go.
+	 */
+	private int slot(long key) {
+		int mask = keys.length - 1;
+		int slot = hash(key) & mask;
+		while (keys[slot] != EMPTY && keys[slot] != key)
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	private void grow() {
+		long[] oldKeys = keys;
+		double[] oldValues = values;
+		keys = new long[2 * oldKeys.length];
+		values = new double[2 * oldValues.length];
+		Arrays.fill(keys, EMPTY);
+		size = 0;
+		for (int slot = 0; slot < oldKeys.length; slot++)
+			if (oldKeys[slot] != EMPTY)
+				put(oldKeys[slot], oldValues[slot]);
+	}
+
+	private static int hash(long key) {
+		long result = key * 0x9E3779B97F4A7C15L;
+		return (int) (result ^ (result >>> 32));
+	}
+
+	/**
+	 * Returns the keys, in no particular order.
+	 */
+	public long[] keys() {
+		long[] result = new long[size];
+		int n = 0;
+		for (long key : keys)
+			if (key != EMPTY)
+				result[n++] = key;
+		return result;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder("{");
+		for (int slot = 0; slot < keys.length; slot++)
+			if (keys[slot] != EMPTY)
+				(result.length() > 1 ? result.append(", ") : result).append(keys[slot]).append('=').append(values[slot]);
+		return result.append('}').toString();
+	}
+
+}
@@ -0,0 +1,1048 @@
+/**
+ *
+ */
+package applet;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * In-heap store of BDD decision nodes.
+ *
+ * Nodes are plain int indices into parallel arrays ({@code var}, {@code lo},
+ * {@code hi}); {@link #ZERO} and {@link #ONE} are the two terminals. Every
+ * decision node is hash-consed through a chained unique table, so two calls
+ * to {@link #make(int, int, int)} with the same triple always return the same
+ * index.
+ *
+ * Boolean connectives are compiled through {@link #ite(int, int, int)}, whose
+ * results are memoized in a direct-mapped computed table that is allowed to
+ * overwrite colliding entries.
+ *
+ * Variables are placed on levels in the order they are declared; the order
+ * can later be improved in place by {@link #sift()}, which keeps every live
+ * node index bound to the same function. Variables that no live node tests
+ * any more are returned to a pool by {@link #recycle()}, so that a manager
+ * only keeps those of the diagrams still alive. A group of mutually exclusive choices
+ * is a multi-valued variable, encoded in binary by a block of variables on
+ * adjacent levels, see {@link #choice(long, double, long, int, int)}.
+ *
+ * A manager is meant to be long-lived and shared by many diagrams. Each node
+ * counts the nodes pointing to it plus the external references taken with
+ * {@link #ref(int)}; nodes whose count drops to zero are only reclaimed by
+ * {@link #gc()}, which {@link #checkpoint()} runs whenever the live nodes have
+ * doubled since the last collection.
+ *
+ * @author stefano
+ *
+ */
+public class Manager {
+
+	public static final int ZERO = 0;
+
+	public static final int ONE = 1;
+
+	/**
+	 * The largest number of choices of a group, whose weights are kept in an
+	 * array as long as the power of two its codes take.
+	 */
+	public static final int CHOICES = 1 << 30;
+
+	private static final int TERMINAL = Integer.MAX_VALUE;
+
+	private static final int FREE = -1;
+
+	private static final double MAX_GROWTH = 1.2;
+
+	private static final double SLACK = 1e-3;
+
+	private static final int HORIZON = 256;
+
+	private static final int UNUSED = -2;
+
+	private int[] var, lo, hi, next, ref;
+
+	private int[] buckets;
+
+	private int[] cache;
+
+	private int nodes, live, peak, free, limit;
+
+	private long lookups, found, probes, hits;
+
+	private long deadline = Long.MAX_VALUE;
+
+	private int calls;
+
+	private long[] ids;
+
+	private double[] probs;
+
+	private int[] levels, order;
+
+	private int[] pins;
+
+	private int variables, used, horizon;
+
+	private final Map<Long, Integer> index;
+
+	private int[] groups, bits;
+
+	private int count;
+
+	private long[] groupIds;
+
+	private int[][] groupVars;
+
+	private double[][] weights;
+
+	private double[] sums;
+
+	private long[][] groupRelationships;
+
+	private int[] sizes;
+
+	private final Map<Long, Integer> groupIndex;
+
+	private int[] spare;
+
+	private int spares;
+
+	private final Map<Long, int[]> events;
+
+	private int[][] members;
+
+	private int[] counts, created, marks;
+
+	private int fresh, stamp;
+
+	public Manager() {
+		this(1 << 10);
+	}
+
+	public Manager(int capacity) {
+		if (capacity < 2)
+			throw new IllegalArgumentException("Illegal 'capacity' argument in Manager(int): " + capacity);
+		this.var = new int[capacity];
+		this.lo = new int[capacity];
+		this.hi = new int[capacity];
+		this.next = new int[capacity];
+		this.ref = new int[capacity];
+		this.buckets = new int[Integer.highestOneBit(capacity - 1) << 1];
+		Arrays.fill(buckets, -1);
+		this.cache = new int[4 * buckets.length];
+		Arrays.fill(cache, -1);
+		this.ids = new long[16];
+		this.probs = new double[16];
+		this.levels = new int[16];
+		this.order = new int[16];
+		this.pins = new int[16];
+		this.variables = 0;
+		this.used = 0;
+		this.horizon = HORIZON;
+		this.index = new HashMap<>();
+		this.groups = new int[16];
+		this.bits = new int[16];
+		this.count = 0;
+		this.groupIds = new long[16];
+		this.groupVars = new int[16][];
+		this.weights = new double[16][];
+		this.sums = new double[16];
+		this.groupRelationships = new long[16][];
+		this.sizes = new int[16];
+		this.groupIndex = new HashMap<>();
+		this.spare = new int[16];
+		this.spares = 0;
+		this.events = new HashMap<>();
+		for (int terminal = ZERO; terminal <= ONE; terminal++) {
+			var[terminal] = TERMINAL;
+			lo[terminal] = terminal;
+			hi[terminal] = terminal;
+			next[terminal] = -1;
+		}
+		this.nodes = 2;
+		this.live = 0;
+		this.free = -1;
+		this.limit = Math.max(capacity, 1 << 14);
+	}
+
+	/**
+	 * Returns the variable standing for the relationship with the given id,
+	 * declaring it with the given probability on first use. New variables are
+	 * placed below all the existing ones.
+	 */
+	public int variable(long id, double prob) {
+		if (prob < 0.0 || prob > 1.0)
+			throw new IllegalArgumentException("Illegal 'prob' argument in Manager.variable(long, double): " + prob);
+		Integer result = index.get(id);
+		if (null == result) {
+			result = declare(id, prob, -1, 0);
+			index.put(id, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the function that holds when the given choice, out of the given
+	 * number of mutually exclusive and exhaustive ones, is made in the given
+	 * group, which the relationship with the given id depends on with the
+	 * given probability.
+	 *
+	 * On first use, a group is declared as {@code ceil(log2(n))} variables on
+	 * adjacent levels below all the existing ones, which encode choice
+	 * {@code k} as the binary digits of {@code k - 1}, so that a group costs
+	 * a logarithmic number of levels rather than one per choice and its
+	 * choices exclude each other without any further constraint. A group
+	 * that turns out to have more choices is widened if no node tests it,
+	 * see {@link #widen(long, int)}.
+	 */
+	public int choice(long id, double prob, long group, int choice, int choices) {
+		if (prob < 0.0 || prob > 1.0)
+			throw new IllegalArgumentException("Illegal 'prob' argument in Manager.choice(long, double, long, int, int): " + prob);
+		if (choices < 1 || choices > CHOICES)
+			throw new IllegalArgumentException("Illegal 'choices' argument in Manager.choice(long, double, long, int, int): " + choices);
+		if (choice < 1 || choice > choices)
+			throw new IllegalArgumentException("Illegal 'choice' argument in Manager.choice(long, double, long, int, int): " + choice);
+		int width = 32 - Integer.numberOfLeadingZeros(choices - 1);
+		Integer g = groupIndex.get(group);
+		if (null == g)
+			g = declare(group, width);
+		else if (width > groupVars[g].length && !widen(g, width))
+			throw new IllegalStateException("Group " + group + " in use in Manager.choice(long, double, long, int, int): " + choices);
+		int code = choice - 1;
+		int[] known = events.get(id);
+		if (null == known) {
+			if (sizes[g] == groupRelationships[g].length)
+				groupRelationships[g] = Arrays.copyOf(groupRelationships[g], 2 * sizes[g]);
+			groupRelationships[g][sizes[g]++] = id;
+			events.put(id, new int[] { g, code });
+		} else if (known[0] != g || known[1] != code)
+			throw new IllegalArgumentException("Illegal 'id' argument in Manager.choice(long, double, long, int, int): " + id);
+		if (!weigh(g, code, prob))
+			throw new IllegalArgumentException("Illegal 'prob' argument in Manager.choice(long, double, long, int, int): " + prob);
+		int result = ONE;
+		int[] vs = groupVars[g];
+		int[] sorted = new int[vs.length];
+		for (int bit = 0; bit < vs.length; bit++)
+			sorted[bit] = levels[vs[bit]];
+		Arrays.sort(sorted);
+		for (int i = sorted.length - 1; i >= 0; i--) {
+			int v = order[sorted[i]];
+			result = 0 != (code >>> bits[v] & 1) ? make(v, ZERO, result) : make(v, result, ZERO);
+		}
+		return result;
+	}
+
+	/**
+	 * Declares the given group, if new, or widens it, so that it has room for
+	 * the given number of choices. A group is widened by moving its variables
+	 * below all those in use and declaring the new digits below them, so that
+	 * its codes so far keep their digits; since the diagrams built on it would
+	 * not rule out the new codes, this is only done if no node tests the group,
+	 * collecting the unreferenced ones first if needed. Only to be called
+	 * between operations, see {@link #checkpoint()}.
+	 *
+	 * Returns one of the variables of the group, which stands for all of them
+	 * in {@link #pin(int)}.
+	 */
+	public int widen(long group, int choices) {
+		if (choices < 1 || choices > CHOICES)
+			throw new IllegalArgumentException("Illegal 'choices' argument in Manager.widen(long, int): " + choices);
+		int width = 32 - Integer.numberOfLeadingZeros(choices - 1);
+		Integer g = groupIndex.get(group);
+		if (null == g)
+			g = declare(group, width);
+		else if (width > groupVars[g].length && !widen(g, width)) {
+			gc();
+			if (!widen(g, width))
+				throw new IllegalStateException("Group " + group + " in use in Manager.widen(long, int): " + choices);
+		}
+		return groupVars[g][0];
+	}
+
+	/**
+	 * Declares the given group on the given number of variables below all
+	 * those in use, and returns its index.
+	 */
+	private int declare(long group, int width) {
+		int result;
+		if (spares > 0)
+			result = spare[--spares];
+		else {
+			if (count == groupIds.length) {
+				groupIds = Arrays.copyOf(groupIds, 2 * count);
+				groupVars = Arrays.copyOf(groupVars, 2 * count);
+				weights = Arrays.copyOf(weights, 2 * count);
+				sums = Arrays.copyOf(sums, 2 * count);
+				groupRelationships = Arrays.copyOf(groupRelationships, 2 * count);
+				sizes = Arrays.copyOf(sizes, 2 * count);
+			}
+			result = count++;
+		}
+		groupIds[result] = group;
+		groupVars[result] = new int[width];
+		for (int bit = width - 1; bit >= 0; bit--)
+			groupVars[result][bit] = declare(group, Double.NaN, result, bit);
+		weights[result] = new double[1 << width];
+		Arrays.fill(weights[result], -1.0);
+		sums[result] = 0.0;
+		groupRelationships[result] = new long[2];
+		sizes[result] = 0;
+		groupIndex.put(group, result);
+		return result;
+	}
+
+	/**
+	 * Widens the given group to the given number of variables, see
+	 * {@link #widen(long, int)}, unless some node, even unreferenced, tests
+	 * it; returns whether it did.
+	 */
+	private boolean widen(int g, int width) {
+		for (int node = 2; node < nodes; node++)
+			if (FREE != var[node] && groups[var[node]] == g)
+				return false;
+		int[] vs = Arrays.copyOf(groupVars[g], width);
+		int[] block = new int[groupVars[g].length];
+		int n = 0;
+		int k = 0;
+		for (int level = 0; level < used; level++) {
+			int v = order[level];
+			if (groups[v] == g)
+				block[k++] = v;
+			else
+				order[n++] = v;
+		}
+		for (int v : block)
+			order[n++] = v;
+		for (int level = 0; level < used; level++)
+			levels[order[level]] = level;
+		for (int bit = width - 1; bit >= block.length; bit--)
+			vs[bit] = declare(groupIds[g], Double.NaN, g, bit);
+		groupVars[g] = vs;
+		int codes = weights[g].length;
+		weights[g] = Arrays.copyOf(weights[g], 1 << width);
+		Arrays.fill(weights[g], codes, weights[g].length, -1.0);
+		return true;
+	}
+
+	/**
+	 * Sets the probability of the given choice of the given group unless the
+	 * choices of the group would add up to more than one, give or take the
+	 * rounding of weights given as integer logarithms.
+	 */
+	private boolean weigh(int g, int code, double prob) {
+		double sum = prob;
+		for (int other = 0; other < weights[g].length; other++)
+			if (other != code)
+				sum += Math.max(0.0, weights[g][other]);
+		if (sum > 1.0 + SLACK)
+			return false;
+		weights[g][code] = prob;
+		sums[g] = sum;
+		return true;
+	}
+
+	/**
+	 * Declares a variable on the level below all those in use, taking it from
+	 * the pool if any is there.
+	 */
+	private int declare(long id, double prob, int group, int bit) {
+		int result;
+		if (used < variables)
+			result = order[used];
+		else {
+			if (variables == ids.length) {
+				ids = Arrays.copyOf(ids, 2 * variables);
+				probs = Arrays.copyOf(probs, 2 * variables);
+				levels = Arrays.copyOf(levels, 2 * variables);
+				order = Arrays.copyOf(order, 2 * variables);
+				groups = Arrays.copyOf(groups, 2 * variables);
+				bits = Arrays.copyOf(bits, 2 * variables);
+				pins = Arrays.copyOf(pins, 2 * variables);
+			}
+			result = variables++;
+			levels[result] = result;
+			order[result] = result;
+		}
+		used += 1;
+		ids[result] = id;
+		probs[result] = prob;
+		groups[result] = group;
+		bits[result] = bit;
+		return result;
+	}
+
+	/**
+	 * Changes the probability of the variable standing for the relationship
+	 * with the given id, if any.
+	 */
+	public void update(long id, double prob) {
+		if (prob < 0.0 || prob > 1.0)
+			throw new IllegalArgumentException("Illegal 'prob' argument in Manager.update(long, double): " + prob);
+		Integer v = index.get(id);
+		if (null != v)
+			probs[v] = prob;
+		int[] event = events.get(id);
+		if (null != event && !weigh(event[0], event[1], prob))
+			throw new IllegalArgumentException("Illegal 'prob' argument in Manager.update(long, double): " + prob);
+	}
+
+	public int make(int v, int l, int h) {
+		if (v < 0 || v >= variables || UNUSED == groups[v])
+			throw new IllegalArgumentException("Illegal 'v' argument in Manager.make(int, int, int): " + v);
+		if (l == h)
+			return l;
+		lookups += 1;
+		int bucket = hash(v, l, h) & (buckets.length - 1);
+		for (int node = buckets[bucket]; node >= 0; node = next[node])
+			if (var[node] == v && lo[node] == l && hi[node] == h) {
+				found += 1;
+				return node;
+			}
+		int result;
+		if (free >= 0) {
+			result = free;
+			free = next[free];
+		} else {
+			if (nodes == var.length) {
+				grow();
+				bucket = hash(v, l, h) & (buckets.length - 1);
+			}
+			result = nodes++;
+		}
+		var[result] = v;
+		lo[result] = l;
+		hi[result] = h;
+		ref[result] = 0;
+		ref[l] += 1;
+		ref[h] += 1;
+		next[result] = buckets[bucket];
+		buckets[bucket] = result;
+		if (++live > peak)
+			peak = live;
+		if (null != members) {
+			if (fresh == created.length)
+				created = Arrays.copyOf(created, 2 * fresh);
+			created[fresh++] = result;
+		}
+		return result;
+	}
+
+	private void grow() {
+		int capacity = 2 * var.length;
+		var = Arrays.copyOf(var, capacity);
+		lo = Arrays.copyOf(lo, capacity);
+		hi = Arrays.copyOf(hi, capacity);
+		next = Arrays.copyOf(next, capacity);
+		ref = Arrays.copyOf(ref, capacity);
+		buckets = new int[2 * buckets.length];
+		int[] old = cache;
+		cache = new int[4 * buckets.length];
+		Arrays.fill(cache, -1);
+		for (int entry = 0; entry < old.length; entry += 4)
+			if (old[entry] >= 0) {
+				int slot = slot(old[entry], old[entry + 1], old[entry + 2]);
+				System.arraycopy(old, entry, cache, slot, 4);
+			}
+		rehash();
+	}
+
+	private void rehash() {
+		Arrays.fill(buckets, -1);
+		for (int node = 2; node < nodes; node++)
+			if (FREE != var[node]) {
+				int bucket = hash(var[node], lo[node], hi[node]) & (buckets.length - 1);
+				next[node] = buckets[bucket];
+				buckets[bucket] = node;
+			}
+	}
+
+	private void unlink(int node) {
+		int bucket = hash(var[node], lo[node], hi[node]) & (buckets.length - 1);
+		if (buckets[bucket] == node)
+			buckets[bucket] = next[node];
+		else {
+			int previous = buckets[bucket];
+			while (next[previous] != node)
+				previous = next[previous];
+			next[previous] = next[node];
+		}
+	}
+
+	private void link(int node) {
+		int bucket = hash(var[node], lo[node], hi[node]) & (buckets.length - 1);
+		next[node] = buckets[bucket];
+		buckets[bucket] = node;
+	}
+
+	/**
+	 * If-then-else: the function that is {@code g} where {@code f} holds and
+	 * {@code h} elsewhere.
+	 */
+	public int ite(int f, int g, int h) {
+		if (ONE == f)
+			return g;
+		if (ZERO == f)
+			return h;
+		if (g == h)
+			return g;
+		if (ONE == g && ZERO == h)
+			return f;
+		int slot = slot(f, g, h);
+		probes += 1;
+		if (cache[slot] == f && cache[slot + 1] == g && cache[slot + 2] == h) {
+			hits += 1;
+			return cache[slot + 3];
+		}
+		if (0 == (++calls & 0x3FF) && System.nanoTime() > deadline)
+			throw new IllegalStateException("Deadline passed in Manager.ite(int, int, int)");
+		int v = order[Math.min(level(f), Math.min(level(g), level(h)))];
+		int t = ite(cofactor(f, v, true), cofactor(g, v, true), cofactor(h, v, true));
+		int e = ite(cofactor(f, v, false), cofactor(g, v, false), cofactor(h, v, false));
+		int result = make(v, e, t);
+		slot = slot(f, g, h);
+		cache[slot] = f;
+		cache[slot + 1] = g;
+		cache[slot + 2] = h;
+		cache[slot + 3] = result;
+		return result;
+	}
+
+	public int and(int f, int g) {
+		return ite(f, g, ZERO);
+	}
+
+	public int or(int f, int g) {
+		return ite(f, ONE, g);
+	}
+
+	/**
+	 * Returns the conjunction of the given variables, built directly as a
+	 * chain of decision nodes.
+	 */
+	public int cube(int... vs) {
+		if (null == vs)
+			throw new IllegalArgumentException("Illegal 'vs' argument in Manager.cube(int...): " + vs);
+		int[] sorted = new int[vs.length];
+		for (int i = 0; i < vs.length; i++)
+			sorted[i] = levels[vs[i]];
+		Arrays.sort(sorted);
+		int result = ONE;
+		for (int i = sorted.length - 1; i >= 0; i--)
+			if (i == sorted.length - 1 || sorted[i] != sorted[i + 1])
+				result = make(order[sorted[i]], ZERO, result);
+		return result;
+	}
+
+	private int cofactor(int node, int v, boolean positive) {
+		if (var[node] != v)
+			return node;
+		return positive ? hi[node] : lo[node];
+	}
+
+	/**
+	 * Takes an external reference to the given node, which protects it (and
+	 * everything below it) from {@link #gc()}.
+	 */
+	public int ref(int node) {
+		ref[node] += 1;
+		return node;
+	}
+
+	public void deref(int node) {
+		if (!isTerminal(node) && ref[node] <= 0)
+			throw new IllegalArgumentException("Illegal 'node' argument in Manager.deref(int): " + node);
+		ref[node] -= 1;
+	}
+
+	/**
+	 * Reclaims every decision node that is neither referenced externally nor
+	 * reachable from a referenced node, and empties the computed table.
+	 */
+	public void gc() {
+		for (int node = 2; node < nodes; node++)
+			if (FREE != var[node] && 0 == ref[node])
+				kill(node);
+		Arrays.fill(cache, -1);
+	}
+
+	/**
+	 * Makes {@link #ite(int, int, int)} give up with an
+	 * {@link IllegalStateException} once {@link System#nanoTime()} passes the
+	 * given instant, leaving the nodes built so far to the next {@link #gc()};
+	 * {@link Long#MAX_VALUE}, the default, never expires.
+	 */
+	public void setDeadline(long deadline) {
+		this.deadline = deadline;
+	}
+
+	/**
+	 * Garbage collects if the live nodes have doubled since the last
+	 * collection; only to be called between operations, when every partial
+	 * result worth keeping is referenced.
+	 */
+	public void checkpoint() {
+		if (live > limit) {
+			gc();
+			limit = Math.max(limit, 2 * live);
+		}
+	}
+
+	/**
+	 * Keeps the given variable, along with the rest of its group if any, from
+	 * being recycled until as many calls to {@link #unpin(int)}, so that the
+	 * variables declared by a diagram keep their levels until it uses them,
+	 * even if other diagrams are started meanwhile.
+	 */
+	public void pin(int v) {
+		if (v < 0 || v >= variables || UNUSED == groups[v])
+			throw new IllegalArgumentException("Illegal 'v' argument in Manager.pin(int): " + v);
+		pins[v] += 1;
+	}
+
+	public void unpin(int v) {
+		if (v < 0 || v >= variables || pins[v] <= 0)
+			throw new IllegalArgumentException("Illegal 'v' argument in Manager.unpin(int): " + v);
+		pins[v] -= 1;
+	}
+
+	/**
+	 * Collects the unreferenced nodes and, once the variables in use have
+	 * doubled since the last time, returns to the pool those that no live node
+	 * tests and no diagram pins, see {@link #pin(int)}, forgetting their
+	 * relationships and groups, which are declared afresh if met again. Only
+	 * to be called between operations, see {@link #checkpoint()}.
+	 */
+	public void recycle() {
+		if (used <= horizon)
+			return;
+		gc();
+		boolean[] active = tested();
+		for (int v = 0; v < variables; v++)
+			if (pins[v] > 0)
+				active[v] = true;
+		int top = arrange(active);
+		for (int level = top; level < used; level++) {
+			int v = order[level];
+			int group = groups[v];
+			if (group < 0)
+				index.remove(ids[v]);
+			else if (0 == bits[v]) {
+				groupIndex.remove(groupIds[group]);
+				for (int i = 0; i < sizes[group]; i++)
+					events.remove(groupRelationships[group][i]);
+				groupVars[group] = null;
+				weights[group] = null;
+				groupRelationships[group] = null;
+				if (spares == spare.length)
+					spare = Arrays.copyOf(spare, 2 * spares);
+				spare[spares++] = group;
+			}
+		}
+		for (int level = top; level < used; level++)
+			groups[order[level]] = UNUSED;
+		used = top;
+		horizon = Math.max(HORIZON, 2 * used);
+	}
+
+	/**
+	 * Tells which variables some live node tests.
+	 */
+	private boolean[] tested() {
+		boolean[] result = new boolean[variables];
+		for (int node = 2; node < nodes; node++)
+			if (FREE != var[node])
+				result[var[node]] = true;
+		return result;
+	}
+
+	/**
+	 * Moves the variables in use that are active, or whose group has an
+	 * active one, above the others, keeping the order of both, and returns
+	 * the number of levels they take. No live node tests an inactive
+	 * variable, so every node keeps its children below it.
+	 */
+	private int arrange(boolean[] active) {
+		int[] result = new int[used];
+		int n = 0;
+		int top = 0;
+		for (int pass = 0; pass < 2; pass++)
+			for (int level = 0, width; level < used; level += width) {
+				int v = order[level];
+				width = groups[v] < 0 ? 1 : groupVars[groups[v]].length;
+				boolean on = false;
+				for (int i = 0; i < width; i++)
+					on |= active[order[level + i]];
+				if (on != (0 == pass))
+					continue;
+				for (int i = 0; i < width; i++)
+					result[n++] = order[level + i];
+				if (on)
+					top += width;
+			}
+		for (int level = 0; level < used; level++) {
+			order[level] = result[level];
+			levels[result[level]] = level;
+		}
+		return top;
+	}
+
+	/**
+	 * Reorders the variables with Rudell's sifting: each variable tested by a
+	 * live node in turn is moved through the levels of all such variables by
+	 * adjacent swaps and left where the number of live nodes was smallest; the
+	 * variables of a group are moved as a block, so that they always lie on
+	 * adjacent levels. Unreferenced nodes are collected first and the other
+	 * variables are set aside below, so the cost only depends on the diagrams
+	 * alive; the indices of the live nodes keep denoting the same functions.
+	 */
+	public void sift() {
+		gc();
+		int top = arrange(tested());
+		members = new int[variables][];
+		counts = new int[variables];
+		created = new int[16];
+		marks = new int[nodes];
+		stamp = 0;
+		for (int level = 0; level < top; level++)
+			members[order[level]] = new int[4];
+		for (int node = 2; node < nodes; node++)
+			if (FREE != var[node]) {
+				int v = var[node];
+				if (counts[v] == members[v].length)
+					members[v] = Arrays.copyOf(members[v], 2 * counts[v]);
+				members[v][counts[v]++] = node;
+			}
+		int[][] units = units(top);
+		int[] sequence = new int[units.length];
+		int[] positions = new int[units.length];
+		Integer[] us = new Integer[units.length];
+		final int[] totals = new int[units.length];
+		for (int u = 0; u < units.length; u++) {
+			sequence[u] = u;
+			positions[u] = u;
+			us[u] = u;
+			for (int v : units[u])
+				totals[u] += counts[v];
+		}
+		Arrays.sort(us, (a, b) -> Integer.compare(totals[b], totals[a]));
+		for (int u : us) {
+			int best = live;
+			int target = positions[u];
+			while (positions[u] < units.length - 1 && live <= MAX_GROWTH * best) {
+				exchange(units, sequence, positions, positions[u]);
+				if (live < best) {
+					best = live;
+					target = positions[u];
+				}
+			}
+			while (positions[u] > 0 && live <= MAX_GROWTH * best) {
+				exchange(units, sequence, positions, positions[u] - 1);
+				if (live < best) {
+					best = live;
+					target = positions[u];
+				}
+			}
+			while (positions[u] < target)
+				exchange(units, sequence, positions, positions[u]);
+			while (positions[u] > target)
+				exchange(units, sequence, positions, positions[u] - 1);
+		}
+		members = null;
+		counts = null;
+		created = null;
+		marks = null;
+		Arrays.fill(cache, -1);
+	}
+
+	/**
+	 * Returns the units moved by {@link #sift()} from the top level down to the
+	 * given one, excluded: each variable on its own, but the variables of a
+	 * group together, top first.
+	 */
+	private int[][] units(int top) {
+		int[][] result = new int[top][];
+		int n = 0;
+		for (int level = 0; level < top; level++) {
+			int v = order[level];
+			if (groups[v] < 0)
+				result[n++] = new int[] { v };
+			else {
+				int[] unit = new int[groupVars[groups[v]].length];
+				for (int i = 0; i < unit.length; i++)
+					unit[i] = order[level + i];
+				result[n++] = unit;
+				level += unit.length - 1;
+			}
+		}
+		return Arrays.copyOf(result, n);
+	}
+
+	/**
+	 * Exchanges the unit at the given position of the sequence with the one
+	 * below it, moving each variable of the former, bottom first, through all
+	 * the levels of the latter.
+	 */
+	private void exchange(int[][] units, int[] sequence, int[] positions, int position) {
+		int[] above = units[sequence[position]];
+		int[] below = units[sequence[position + 1]];
+		int top = levels[above[0]];
+		for (int i = above.length - 1; i >= 0; i--)
+			for (int j = 0; j < below.length; j++)
+				swap(top + i + j);
+		int u = sequence[position];
+		sequence[position] = sequence[position + 1];
+		sequence[position + 1] = u;
+		positions[sequence[position]] = position;
+		positions[u] = position + 1;
+	}
+
+	/**
+	 * Exchanges the variables on the given level and on the one below it.
+	 */
+	private void swap(int level) {
+		int x = order[level];
+		int y = order[level + 1];
+		int[] xs = members[x];
+		int[] kept = new int[counts[x]];
+		int[] moved = new int[counts[x]];
+		int k = 0;
+		int m = 0;
+		fresh = 0;
+		for (int i = 0, n = counts[x]; i < n; i++) {
+			int f = xs[i];
+			if (var[f] != x)
+				continue;
+			int f0 = lo[f];
+			int f1 = hi[f];
+			if (var[f0] != y && var[f1] != y) {
+				kept[k++] = f;
+				continue;
+			}
+			int f00 = var[f0] == y ? lo[f0] : f0;
+			int f01 = var[f0] == y ? hi[f0] : f0;
+			int f10 = var[f1] == y ? lo[f1] : f1;
+			int f11 = var[f1] == y ? hi[f1] : f1;
+			int l = make(x, f00, f10);
+			ref[l] += 1;
+			int h = make(x, f01, f11);
+			ref[h] += 1;
+			unlink(f);
+			var[f] = y;
+			lo[f] = l;
+			hi[f] = h;
+			link(f);
+			release(f0);
+			release(f1);
+			moved[m++] = f;
+		}
+		if (marks.length < nodes)
+			marks = Arrays.copyOf(marks, var.length);
+		stamp += 1;
+		counts[x] = 0;
+		members[x] = new int[k + fresh + 1];
+		enlist(x, kept, k);
+		enlist(x, created, fresh);
+		int[] ys = members[y];
+		int n = counts[y];
+		counts[y] = 0;
+		members[y] = new int[n + m + 1];
+		enlist(y, ys, n);
+		enlist(y, moved, m);
+		order[level] = y;
+		order[level + 1] = x;
+		levels[y] = level;
+		levels[x] = level + 1;
+	}
+
+	/**
+	 * Appends to the members of the given variable the nodes among the given
+	 * ones that are still labelled by it and were not listed yet in this swap.
+	 */
+	private void enlist(int v, int[] candidates, int n) {
+		for (int i = 0; i < n; i++) {
+			int node = candidates[i];
+			if (var[node] == v && marks[node] != stamp) {
+				marks[node] = stamp;
+				members[v][counts[v]++] = node;
+			}
+		}
+	}
+
+	private void release(int node) {
+		ref[node] -= 1;
+		if (0 == ref[node] && !isTerminal(node))
+			kill(node);
+	}
+
+	private void kill(int node) {
+		unlink(node);
+		var[node] = FREE;
+		live -= 1;
+		next[node] = free;
+		free = node;
+		release(lo[node]);
+		release(hi[node]);
+	}
+
+	private int level(int node) {
+		return isTerminal(node) ? TERMINAL : levels[var[node]];
+	}
+
+	private int slot(int f, int g, int h) {
+		return (hash(f, g, h) & (buckets.length - 1)) << 2;
+	}
+
+	private static int hash(int v, int l, int h) {
+		int result = v * 0x9E3779B1 + l;
+		result = result * 0x85EBCA6B + h;
+		return result ^ (result >>> 16);
+	}
+
+	public boolean isTerminal(int node) {
+		return node == ZERO || node == ONE;
+	}
+
+	public int var(int node) {
+		return var[node];
+	}
+
+	public int lo(int node) {
+		return lo[node];
+	}
+
+	public int hi(int node) {
+		return hi[node];
+	}
+
+	public long id(int v) {
+		return ids[v];
+	}
+
+	public double prob(int v) {
+		return probs[v];
+	}
+
+	/**
+	 * Returns the group the given variable encodes a digit of, or -1 if it
+	 * stands for a single relationship.
+	 */
+	public int group(int v) {
+		return groups[v];
+	}
+
+	/**
+	 * Returns the number of choices of the given group that the encoding can
+	 * tell apart, i.e. two to the number of its variables.
+	 */
+	public int codes(int group) {
+		return weights[group].length;
+	}
+
+	/**
+	 * Returns the probability of the choice encoded as the given code in the
+	 * given group, or -1 if no relationship depends on it: all such choices
+	 * lead any diagram to the same node, and share whatever probability the
+	 * others leave. Choices adding up to slightly more than one are scaled
+	 * down, so that the result does not depend on the shape of the diagram.
+	 */
+	public double weight(int group, int code) {
+		double result = weights[group][code];
+		return result < 0.0 ? result : result / Math.max(1.0, sums[group]);
+	}
+
+	/**
+	 * Returns the ids of the relationships depending on a choice of the given
+	 * group.
+	 */
+	public long[] relationships(int group) {
+		return Arrays.copyOf(groupRelationships[group], sizes[group]);
+	}
+
+	/**
+	 * Returns the code of the choice the relationship with the given id
+	 * depends on, or -1 if it depends on no choice.
+	 */
+	public int code(long id) {
+		int[] event = events.get(id);
+		return null == event ? -1 : event[1];
+	}
+
+	/**
+	 * Follows the given code down from the given node through the variables
+	 * of the given group and returns the first node below them.
+	 */
+	public int walk(int node, int group, int code) {
+		while (!isTerminal(node) && groups[var[node]] == group)
+			node = 0 != (code >>> bits[var[node]] & 1) ? hi[node] : lo[node];
+		return node;
+	}
+
+	/**
+	 * Returns the number of node slots allocated so far, a bound on every
+	 * node index.
+	 */
+	public int size() {
+		return nodes;
+	}
+
+	/**
+	 * Returns the number of decision nodes currently alive.
+	 */
+	public int live() {
+		return live;
+	}
+
+	/**
+	 * Returns the number of variables in use, i.e. not in the pool.
+	 */
+	public int variables() {
+		return used;
+	}
+
+	/**
+	 * Returns the largest number of decision nodes alive at once since the
+	 * manager was created or {@link #resetPeak()} was last called.
+	 */
+	public int peak() {
+		return peak;
+	}
+
+	public void resetPeak() {
+		peak = live;
+	}
+
+	/**
+	 * Returns the number of lookups of the unique table, i.e. of the calls to
+	 * {@link #make(int, int, int)} with distinct children.
+	 */
+	public long lookups() {
+		return lookups;
+	}
+
+	/**
+	 * Returns the number of lookups of the unique table that found the node
+	 * already there.
+	 */
+	public long found() {
+		return found;
+	}
+
+	/**
+	 * Returns the number of lookups of the computed table, i.e. of the calls
+	 * to {@link #ite(int, int, int)} that are not trivial.
+	 */
+	public long probes() {
+		return probes;
+	}
+
+	/**
+	 * Returns the number of lookups of the computed table that found the
+	 * result already there.
+	 */
+	public long hits() {
+		return hits;
+	}
+
+}
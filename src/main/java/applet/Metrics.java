@@ -0,0 +1,372 @@
+/**
+ *
+ */
+package applet;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Running totals and distributions of the queries answered from scratch,
+ * exposed over JMX as {@code applet:type=Metrics,name=...}.
+ *
+ * Each query is followed by a {@link Record}, which times its phases and
+ * reads the counters of the {@link Manager} before and after, and is added
+ * to the totals once done: paths enumerated, distinct relationships met, peak
+ * live nodes of the manager, nodes of the diagram, hits of the unique and
+ * computed tables and the wall time of each phase. Queries that fail, for
+ * instance past their timeout, are only counted apart, along with the work of
+ * the manager, so that they do not skew the distributions. The counters are read
+ * holding the lock of the manager, but they are shared, so queries running
+ * at once also count the work of one another, and the peak is the highest
+ * since the latest start of any of them. Totals are striped
+ * {@link LongAdder}s and distributions are {@link Histogram}s, so recording
+ * takes no lock of its own and never allocates, and can be left on. Records
+ * also commit the flight recorder {@link Events} of each query.
+ *
+ * @author stefano
+ *
+ */
+public class Metrics implements MetricsMBean {
+
+	/**
+	 * The phases of a query; in streaming mode, paths are compiled as they are
+	 * enumerated and both phases are timed as {@code COMPILATION}, while
+	 * {@code EVALUATION} includes saving the diagram, if any.
+	 */
+	public static enum Phase {
+		ENUMERATION, COMPILATION, EVALUATION;
+	}
+
+	private static final double MILLIS = 1e-6;
+
+	private final LongAdder computedHits = new LongAdder();
+
+	private final LongAdder computedLookups = new LongAdder();
+
+	private final LongAdder failures = new LongAdder();
+
+	private final Histogram nodes = new Histogram();
+
+	private final Histogram paths = new Histogram();
+
+	private final Histogram peaks = new Histogram();
+
+	private final Histogram[] phases = new Histogram[Phase.values().length];
+
+	private final Histogram queries = new Histogram();
+
+	private ObjectName registered = null;
+
+	private final LongAdder uniqueHits = new LongAdder();
+
+	private final LongAdder uniqueLookups = new LongAdder();
+
+	private final Histogram variables = new Histogram();
+
+	public Metrics() {
+		for (int i = 0; i < phases.length; i++)
+			phases[i] = new Histogram();
+	}
+
+	/**
+	 * Starts following the given queries, a batch if more than one, compiled
+	 * by the given manager.
+	 */
+	public Record start(Manager manager, Query... queries) {
+		if (null == manager)
+			throw new IllegalArgumentException("Illegal 'manager' argument in Metrics.start(Manager, Query...): " + manager);
+		if (null == queries || 0 == queries.length)
+			throw new IllegalArgumentException("Illegal 'queries' argument in Metrics.start(Manager, Query...): " + queries);
+		StringBuilder signature = new StringBuilder();
+		for (Query query : queries)
+			(signature.length() > 0 ? signature.append(';') : signature).append(query);
+		return new Record(manager, signature.toString());
+	}
+
+	/**
+	 * Adds the given query, which is done, to the totals, or only counts it
+	 * if it failed; meant to be called in a {@code finally} block.
+	 */
+	public void stop(Record record, boolean failed) {
+		if (null == record)
+			throw new IllegalArgumentException("Illegal 'record' argument in Metrics.stop(Record, boolean): " + record);
+		Manager manager = record.manager;
+		if (failed)
+			failures.increment();
+		else {
+			queries.record(System.nanoTime() - record.start);
+			for (int i = 0; i < phases.length; i++)
+				phases[i].record(record.nanos[i]);
+			paths.record(record.paths);
+			variables.record(record.variables);
+			nodes.record(record.nodes);
+		}
+		int peak;
+		synchronized (manager) {
+			peak = manager.peak();
+			uniqueLookups.add(manager.lookups() - record.lookups);
+			uniqueHits.add(manager.found() - record.found);
+			computedLookups.add(manager.probes() - record.probes);
+			computedHits.add(manager.hits() - record.hits);
+		}
+		if (!failed)
+			peaks.record(peak);
+		Events.QueryEvent event = record.event;
+		event.end();
+		if (event.shouldCommit()) {
+			event.query = record.signature;
+			event.failed = failed;
+			event.paths = record.paths;
+			event.variables = record.variables;
+			event.nodes = record.nodes;
+			event.peak = peak;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server under the given
+	 * name, replacing whatever was registered there.
+	 */
+	public void register(String name) {
+		if (null == name || (name = name.trim()).isEmpty())
+			throw new IllegalArgumentException("Illegal 'name' argument in Metrics.register(String): " + name);
+		unregister();
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName object = new ObjectName("applet:type=Metrics,name=" + ObjectName.quote(name));
+			if (server.isRegistered(object))
+				server.unregisterMBean(object);
+			server.registerMBean(this, object);
+			registered = object;
+		} catch (JMException e) {
+			throw new IllegalStateException("Failed in Metrics.register(String): " + e);
+		}
+	}
+
+	public void unregister() {
+		if (null == registered)
+			return;
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(registered);
+		} catch (JMException e) {
+			// already replaced by another instance
+		}
+		registered = null;
+	}
+
+	@Override
+	public long getQueries() {
+		return queries.count();
+	}
+
+	@Override
+	public long getFailures() {
+		return failures.sum();
+	}
+
+	@Override
+	public long getPaths() {
+		return paths.sum();
+	}
+
+	@Override
+	public long getVariables() {
+		return variables.sum();
+	}
+
+	@Override
+	public double[] getPathsPerQuery() {
+		return paths.summary(1.0);
+	}
+
+	@Override
+	public double[] getVariablesPerQuery() {
+		return variables.summary(1.0);
+	}
+
+	@Override
+	public double[] getPeakNodes() {
+		return peaks.summary(1.0);
+	}
+
+	@Override
+	public double[] getNodes() {
+		return nodes.summary(1.0);
+	}
+
+	@Override
+	public double getUniqueHitRate() {
+		long lookups = uniqueLookups.sum();
+		return 0 == lookups ? 0.0 : (double) uniqueHits.sum() / lookups;
+	}
+
+	@Override
+	public double getComputedHitRate() {
+		long lookups = computedLookups.sum();
+		return 0 == lookups ? 0.0 : (double) computedHits.sum() / lookups;
+	}
+
+	@Override
+	public double[] getEnumerationMillis() {
+		return phases[Phase.ENUMERATION.ordinal()].summary(MILLIS);
+	}
+
+	@Override
+	public double[] getCompilationMillis() {
+		return phases[Phase.COMPILATION.ordinal()].summary(MILLIS);
+	}
+
+	@Override
+	public double[] getEvaluationMillis() {
+		return phases[Phase.EVALUATION.ordinal()].summary(MILLIS);
+	}
+
+	@Override
+	public double[] getQueryMillis() {
+		return queries.summary(MILLIS);
+	}
+
+	@Override
+	public void reset() {
+		for (Histogram phase : phases)
+			phase.reset();
+		queries.reset();
+		paths.reset();
+		variables.reset();
+		nodes.reset();
+		peaks.reset();
+		uniqueLookups.reset();
+		uniqueHits.reset();
+		computedLookups.reset();
+		computedHits.reset();
+		failures.reset();
+	}
+
+	/**
+	 * A query being followed, meant for a single thread. Each phase ends by
+	 * calling the method named after it, and lasts from the end of the
+	 * previous one, or from the start; a batch of queries sharing a record
+	 * adds up the counts of all of them. The counts of the manager include
+	 * the work of any query compiled by it meanwhile.
+	 */
+	public static class Record {
+
+		private Events.CompilationEvent compilation;
+
+		private Events.EnumerationEvent enumeration;
+
+		private Events.EvaluationEvent evaluation;
+
+		private final Events.QueryEvent event;
+
+		private final long found, hits, lookups, probes;
+
+		private final Manager manager;
+
+		private long mark;
+
+		private final long[] nanos = new long[Phase.values().length];
+
+		private long nodes = 0;
+
+		private long paths = 0;
+
+		private final String signature;
+
+		private final long start;
+
+		private long variables = 0;
+
+		private Record(Manager manager, String signature) {
+			this.manager = manager;
+			this.signature = signature;
+			synchronized (manager) {
+				this.lookups = manager.lookups();
+				this.found = manager.found();
+				this.probes = manager.probes();
+				this.hits = manager.hits();
+				manager.resetPeak();
+			}
+			this.event = new Events.QueryEvent();
+			event.begin();
+			this.enumeration = new Events.EnumerationEvent();
+			enumeration.begin();
+			this.compilation = new Events.CompilationEvent();
+			compilation.begin();
+			this.start = this.mark = System.nanoTime();
+		}
+
+		/**
+		 * Charges the time since the previous phase, or since the start, to
+		 * the given phase.
+		 */
+		private void lap(Phase phase) {
+			long now = System.nanoTime();
+			nanos[phase.ordinal()] += now - mark;
+			mark = now;
+		}
+
+		/**
+		 * Ends the enumeration of the given number of paths.
+		 */
+		public void enumerated(long paths) {
+			lap(Phase.ENUMERATION);
+			enumeration.end();
+			if (enumeration.shouldCommit()) {
+				enumeration.query = signature;
+				enumeration.paths = paths;
+				enumeration.commit();
+			}
+			compilation = new Events.CompilationEvent();
+			compilation.begin();
+		}
+
+		/**
+		 * Ends the compilation of the given diagram of the given query out of
+		 * the given number of paths over the given number of distinct
+		 * relationships.
+		 */
+		public void compiled(Query query, BDD bdd, long paths, int variables) {
+			this.paths += paths;
+			this.variables += variables;
+			lap(Phase.COMPILATION);
+			compilation.end();
+			if (compilation.shouldCommit()) {
+				compilation.query = query.toString();
+				compilation.paths = paths;
+				compilation.variables = variables;
+				compilation.nodes = bdd.size();
+				compilation.commit();
+			}
+			evaluation = new Events.EvaluationEvent();
+			evaluation.begin();
+		}
+
+		/**
+		 * Ends the evaluation of the given diagram of the given query, whose
+		 * probability was found to be the given one.
+		 */
+		public void evaluated(Query query, BDD bdd, double probability) {
+			int size = bdd.size();
+			this.nodes += size;
+			lap(Phase.EVALUATION);
+			evaluation.end();
+			if (evaluation.shouldCommit()) {
+				evaluation.query = query.toString();
+				evaluation.nodes = size;
+				evaluation.probability = probability;
+				evaluation.commit();
+			}
+			compilation = new Events.CompilationEvent();
+			compilation.begin();
+		}
+
+	}
+
+}
@@ -0,0 +1,45 @@
+/**
+ *
+ */
+package applet;
+
+/**
+ * Management interface of {@link Metrics}. Distributions are given as their
+ * mean, median, 99th percentile and maximum, in this order.
+ *
+ * @author stefano
+ *
+ */
+public interface MetricsMBean {
+
+	public long getQueries();
+
+	public long getFailures();
+
+	public long getPaths();
+
+	public long getVariables();
+
+	public double[] getPathsPerQuery();
+
+	public double[] getVariablesPerQuery();
+
+	public double[] getPeakNodes();
+
+	public double[] getNodes();
+
+	public double getUniqueHitRate();
+
+	public double getComputedHitRate();
+
+	public double[] getEnumerationMillis();
+
+	public double[] getCompilationMillis();
+
+	public double[] getEvaluationMillis();
+
+	public double[] getQueryMillis();
+
+	public void reset();
+
+}
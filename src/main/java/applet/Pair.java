@@ -0,0 +1,55 @@
+/**
+ *
+ */
+package applet;
+
+/**
+ * The source and target of a query answered in a batch.
+ *
+ * @author stefano
+ *
+ */
+public class Pair<T> {
+
+	private final T source;
+
+	private final T target;
+
+	public Pair(T source, T target) {
+		if (null == source)
+			throw new IllegalArgumentException("Illegal 'source' argument in Pair(T, T): " + source);
+		if (null == target)
+			throw new IllegalArgumentException("Illegal 'target' argument in Pair(T, T): " + target);
+		this.source = source;
+		this.target = target;
+	}
+
+	@Override
+	public boolean equals(Object object) {
+		if (this == object)
+			return true;
+		if (!(object instanceof Pair))
+			return false;
+		Pair<?> other = (Pair<?>) object;
+		return source.equals(other.source) && target.equals(other.target);
+	}
+
+	public final T getSource() {
+		return source;
+	}
+
+	public final T getTarget() {
+		return target;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * source.hashCode() + target.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return "(" + source + ", " + target + ")";
+	}
+
+}
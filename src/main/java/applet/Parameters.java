@@ -0,0 +1,58 @@
+/**
+ *
+ */
+package applet;
+
+/**
+ * Immutable set of the settings a query is answered with, see
+ * {@link Problem} and {@link Kimmig}: setters replace it as a whole, so that
+ * a query reads it once, without locking, and sees a consistent set even if
+ * the settings change meanwhile.
+ *
+ * @author stefano
+ *
+ */
+final class Parameters {
+
+	static final Parameters DEFAULT = new Parameters(BDD.Ordering.APPEARANCE, false, 0, 0L);
+
+	final BDD.Ordering ordering;
+
+	final boolean streaming;
+
+	final int threshold;
+
+	final long timeout;
+
+	private Parameters(BDD.Ordering ordering, boolean streaming, int threshold, long timeout) {
+		this.ordering = ordering;
+		this.streaming = streaming;
+		this.threshold = threshold;
+		this.timeout = timeout;
+	}
+
+	Parameters ordering(BDD.Ordering ordering) {
+		return new Parameters(ordering, streaming, threshold, timeout);
+	}
+
+	Parameters streaming(boolean streaming) {
+		return new Parameters(ordering, streaming, threshold, timeout);
+	}
+
+	Parameters threshold(int threshold) {
+		return new Parameters(ordering, streaming, threshold, timeout);
+	}
+
+	Parameters timeout(long timeout) {
+		return new Parameters(ordering, streaming, threshold, timeout);
+	}
+
+	/**
+	 * Returns the instant by which a query starting now must be compiled, in
+	 * {@link System#nanoTime()} terms, or {@link Long#MAX_VALUE} if never.
+	 */
+	long deadline() {
+		return 0 == timeout ? Long.MAX_VALUE : System.nanoTime() + 1_000_000L * timeout;
+	}
+
+}
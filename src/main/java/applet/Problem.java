@@ -7,21 +7,25 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
 
-import org.neo4j.graphalgo.GraphAlgoFactory;
-import org.neo4j.graphalgo.PathFinder;
 import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.DynamicLabel;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Label;
 import org.neo4j.graphdb.Node;
-import org.neo4j.graphdb.Path;
-import org.neo4j.graphdb.PathExpander;
-import org.neo4j.graphdb.PathExpanders;
 import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.RelationshipType;
 import org.neo4j.graphdb.Transaction;
@@ -30,20 +34,110 @@ import org.neo4j.visualization.graphviz.GraphvizWriter;
 import org.neo4j.walk.Walker;
 
 /**
+ * Safe for many threads adding, updating and querying at once. Readers never
+ * lock to find paths, nor to read the settings, which are kept in one
+ * immutable {@link Parameters} object, nor the {@link Snapshot}, which is
+ * replaced rather than refreshed in place; only compiling and evaluating
+ * diagrams take turns, since the {@link Manager} is shared, and a query
+ * compiles a few paths per turn, so that a long one does not hold the others
+ * up. Every write bumps
+ * a version, and results computed while it changed are neither cached nor
+ * stored, so that no stale result outlives the write.
+ *
  * @author stefano
  *
  */
-public class Problem {
+public class Problem implements AutoCloseable {
+
+	/**
+	 * The number of paths added to a diagram per hold of the lock of the
+	 * manager.
+	 */
+	private static final int CHUNK = 64;
+
+	/**
+	 * The number of diagrams kept by the store.
+	 */
+	private static final int STORED = 1 << 12;
+
+	/**
+	 * A snapshot along with the version of the graph it was taken at.
+	 */
+	private static final class Stamped {
+
+		private final Snapshot snapshot;
+
+		private final long version;
+
+		private Stamped(Snapshot snapshot, long version) {
+			this.snapshot = snapshot;
+			this.version = version;
+		}
+
+	}
 
-	private int count = 0;
+	private final Cache cache = new Cache(1 << 10);
 
 	private final GraphDatabaseService graph;
 
+	/**
+	 * The diagram of the last query of each thread, see {@link #getLast()};
+	 * guarded by the lock of the manager.
+	 */
+	private final Map<Thread, BDD> lasts = new HashMap<>();
+
+	private final Manager manager = new Manager();
+
+	private final Metrics metrics = new Metrics();
+
 	private final String path;
 
+	private volatile Parameters parameters = Parameters.DEFAULT;
+
+	private final ForkJoinPool pool = new ForkJoinPool();
+
+	private final Sampler sampler = new Sampler(Runtime.getRuntime().availableProcessors());
+
+	private volatile Stamped stamped = null;
+
+	private final Store store;
+
+	/**
+	 * The directory of the store if temporary, deleted on close.
+	 */
+	private final File temporary;
+
+	private final AtomicLong version = new AtomicLong();
+
+	/**
+	 * Opens the graph in the given directory, storing the compiled diagrams
+	 * in a temporary directory, which is deleted on close.
+	 */
 	public Problem(String path) {
+		this(path, null);
+	}
+
+	/**
+	 * Opens the graph in the given directory, storing the compiled diagrams
+	 * in the other one, where they are kept across runs; since they refer to
+	 * the relationships by id, the store must be deleted along with the
+	 * graph.
+	 */
+	public Problem(String path, String store) {
 		if (null == path || (path = path.trim()).isEmpty())
-			throw new IllegalArgumentException("Illegal 'path' argument in Problem(String): " + path);
+			throw new IllegalArgumentException("Illegal 'path' argument in Problem(String, String): " + path);
+		if (null != store && (store = store.trim()).isEmpty())
+			throw new IllegalArgumentException("Illegal 'store' argument in Problem(String, String): " + store);
+		if (null == store)
+			try {
+				this.temporary = Files.createTempDirectory("neodd-store").toFile();
+				store = temporary.getPath();
+			} catch (IOException e) {
+				throw new IllegalStateException("Failed in Problem(String, String): " + e);
+			}
+		else
+			this.temporary = null;
+		this.store = new Store(store, STORED);
 		this.graph = new GraphDatabaseFactory().newEmbeddedDatabase(path);
 		Runtime.getRuntime().addShutdownHook(new Thread() {
 			@Override
@@ -52,6 +146,7 @@ public class Problem {
 			}
 		});
 		this.path = path;
+		metrics.register(new File(path).getAbsolutePath());
 	}
 
 	public final Relationship add(RelationshipType type, Node tail, Node head, double prob) {
@@ -67,12 +162,63 @@ public class Problem {
 		try (Transaction tx = graph.beginTx()) {
 			result = tail.createRelationshipTo(head, type);
 			result.setProperty("prob", prob);
-			count += 1;
 			tx.success();
 		}
+		version.incrementAndGet();
+		cache.invalidate(type);
+		store.invalidate(type);
 		return result;
 	}
 
+	/**
+	 * Changes the probability of the given relationship, evicting the cached
+	 * and stored results that depend on it. The manager takes the new
+	 * probability before the graph does, so that one it rejects (such as the
+	 * choices of a group adding up to more than one) leaves the graph as it
+	 * was, and gets the old one back if the graph fails to commit; results are
+	 * evicted whatever happens.
+	 */
+	public final void update(Relationship relationship, double prob) {
+		if (null == relationship)
+			throw new IllegalArgumentException("Illegal 'relationship' argument in Problem.update(Relationship, double): " + relationship);
+		if (prob < 0.0 || prob > 1.0)
+			throw new IllegalArgumentException("Illegal 'prob' argument in Problem.update(Relationship, double): " + prob);
+		double old = -1.0;
+		boolean committed = false;
+		try {
+			try (Transaction tx = graph.beginTx()) {
+				double previous = (double) relationship.getProperty("prob", 1.0);
+				synchronized (manager) {
+					manager.update(relationship.getId(), prob);
+				}
+				old = previous;
+				relationship.setProperty("prob", prob);
+				tx.success();
+			}
+			committed = true;
+		} finally {
+			if (!committed && old >= 0.0)
+				synchronized (manager) {
+					manager.update(relationship.getId(), old);
+				}
+			version.incrementAndGet();
+			cache.invalidate(relationship.getId());
+			store.invalidate(relationship.getId());
+		}
+	}
+
+	/**
+	 * Evicts the cached and stored results of the queries that may follow
+	 * relationships of the given type, so that they are answered from scratch.
+	 */
+	public final void invalidate(RelationshipType type) {
+		if (null == type)
+			throw new IllegalArgumentException("Illegal 'type' argument in Problem.invalidate(RelationshipType): " + type);
+		version.incrementAndGet();
+		cache.invalidate(type);
+		store.invalidate(type);
+	}
+
 	public final Node add(Map<String, Object> properties, String... types) {
 		if (null == properties)
 			throw new IllegalArgumentException("Illegal 'properties' argument in Problem.add(Map<String, Object>, String...): " + properties);
@@ -115,35 +261,406 @@ public class Problem {
 			throw new IllegalArgumentException("Illegal 'dir' argument in Problem.correlate(Node, Node, RelationshipType, Direction, Object...): " + dir);
 		if (source.equals(target))
 			return 1.0;
+		Query query = new Query(source, target, type, dir, null == more ? new Object[0] : more);
+		Stamped stamped = this.stamped;
+		long stamp = stamp(stamped);
+		double known = lookup(query, stamp);
+		if (!Double.isNaN(known))
+			return known;
+		Parameters parameters = this.parameters;
+		long deadline = parameters.deadline();
+		Metrics.Record record = metrics.start(manager, query);
+		Enumerator enumerator = new Enumerator(graph, pool, null == stamped ? null : stamped.snapshot);
+		boolean failed = true;
 		try (Transaction ignore = graph.beginTx()) {
-			PathExpander<Object> expander = null;
-			if (null == more || 0 == more.length)
-				expander = PathExpanders.forTypeAndDirection(type, dir);
+			double result;
+			BDD bdd;
+			if (parameters.streaming)
+				try (Enumerator.Paths paths = enumerator.stream(query)) {
+					bdd = compile(query, paths, enumerator, parameters, deadline, record);
+				}
 			else {
-				RelationshipType t = (RelationshipType) more[0];
-				Direction d = (Direction) more[1];
-				expander = PathExpanders.forTypesAndDirections(type, dir, t, d, Arrays.copyOfRange(more, 2, more.length));
-			}
-			PathFinder<Path> finder = GraphAlgoFactory.allPaths(expander, 1 + count);
-			Iterable<Path> paths = finder.findAllPaths(source, target);
-
-			Set<Relationship> relationships = new HashSet<>();
-			Set<Set<Relationship>> expression = new HashSet<>();
-			for (Path path : paths) {
-				Set<Relationship> item = new HashSet<>();
-				for (Relationship relationship : path.relationships()) {
-					relationships.add(relationship);
-					item.add(relationship);
+				List<long[]> paths = enumerator.paths(query);
+				record.enumerated(paths.size());
+				bdd = compile(query, paths, enumerator, parameters, deadline, record);
+			}
+			Store.Draft draft;
+			synchronized (manager) {
+				draft = version.get() == stamp ? store.draft(query, bdd) : null;
+				result = solve(query, bdd, stamp, record);
+			}
+			if (null != draft)
+				store.save(draft);
+			failed = false;
+			return result;
+		} finally {
+			metrics.stop(record, failed);
+		}
+	}
+
+	/**
+	 * Returns the version of the graph that results computed on the given
+	 * snapshot, or on the graph itself if {@code null}, reflect: since the
+	 * snapshot is not refreshed on writes, its results may only be cached and
+	 * stored as long as no write followed it.
+	 */
+	private long stamp(Stamped stamped) {
+		return null == stamped ? version.get() : stamped.version;
+	}
+
+	/**
+	 * Returns the cached or else the stored result of the given query, caching
+	 * the latter unless the graph changed since the given version, or
+	 * {@code NaN} if there is none.
+	 */
+	private double lookup(Query query, long stamp) {
+		double result = cache.get(query);
+		if (!Double.isNaN(result))
+			return result;
+		synchronized (store) {
+			if (!store.contains(query))
+				return Double.NaN;
+			result = store.evaluate(query);
+			long[] relationships = store.relationships(query);
+			synchronized (cache) {
+				if (version.get() == stamp)
+					cache.put(query, result, relationships);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Batch version of
+	 * {@link #correlate(Node, Node, RelationshipType, Direction, Object...)}
+	 * returning the probability of each of the given pairs, in the same order.
+	 * Pairs are grouped by source and each group is answered by
+	 * {@link #correlate(Node, Node[], RelationshipType, Direction, Object...)}.
+	 */
+	public double[] correlateAll(List<Pair<Node>> pairs, RelationshipType type, Direction dir, Object... more) {
+		if (null == pairs || pairs.contains(null))
+			throw new IllegalArgumentException("Illegal 'pairs' argument in Problem.correlateAll(List<Pair<Node>>, RelationshipType, Direction, Object...): " + pairs);
+		if (null == type)
+			throw new IllegalArgumentException("Illegal 'type' argument in Problem.correlateAll(List<Pair<Node>>, RelationshipType, Direction, Object...): " + type);
+		if (null == dir)
+			throw new IllegalArgumentException("Illegal 'dir' argument in Problem.correlateAll(List<Pair<Node>>, RelationshipType, Direction, Object...): " + dir);
+		Map<Node, List<Integer>> groups = new LinkedHashMap<>();
+		for (int i = 0; i < pairs.size(); i++) {
+			List<Integer> group = groups.get(pairs.get(i).getSource());
+			if (null == group) {
+				group = new ArrayList<>();
+				groups.put(pairs.get(i).getSource(), group);
+			}
+			group.add(i);
+		}
+		double[] result = new double[pairs.size()];
+		for (Map.Entry<Node, List<Integer>> entry : groups.entrySet()) {
+			List<Integer> group = entry.getValue();
+			Node[] targets = new Node[group.size()];
+			for (int i = 0; i < targets.length; i++)
+				targets[i] = pairs.get(group.get(i)).getTarget();
+			double[] values = correlate(entry.getKey(), targets, type, dir, more);
+			for (int i = 0; i < targets.length; i++)
+				result[group.get(i)] = values[i];
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the probability that the given source is connected to each of
+	 * the given targets, in the same order. The targets that are neither
+	 * cached nor stored share a single enumeration of the paths leaving the
+	 * source, see {@link Enumerator#paths(List)}, and their diagrams are
+	 * compiled by the same manager, so that common sub-diagrams are built
+	 * once. All paths of the batch are kept in memory, even in streaming mode.
+	 */
+	public double[] correlate(Node source, Node[] targets, RelationshipType type, Direction dir, Object... more) {
+		if (null == source)
+			throw new IllegalArgumentException("Illegal 'source' argument in Problem.correlate(Node, Node[], RelationshipType, Direction, Object...): " + source);
+		if (null == targets || Arrays.asList(targets).contains(null))
+			throw new IllegalArgumentException("Illegal 'targets' argument in Problem.correlate(Node, Node[], RelationshipType, Direction, Object...): " + Arrays.toString(targets));
+		if (null == type)
+			throw new IllegalArgumentException("Illegal 'type' argument in Problem.correlate(Node, Node[], RelationshipType, Direction, Object...): " + type);
+		if (null == dir)
+			throw new IllegalArgumentException("Illegal 'dir' argument in Problem.correlate(Node, Node[], RelationshipType, Direction, Object...): " + dir);
+		if (null == more)
+			more = new Object[0];
+		double[] result = new double[targets.length];
+		Stamped stamped = this.stamped;
+		long stamp = stamp(stamped);
+		List<Query> queries = new ArrayList<>();
+		Map<Node, Integer> pending = new HashMap<>();
+		int[] indices = new int[targets.length];
+		for (int i = 0; i < targets.length; i++) {
+			indices[i] = -1;
+			if (source.equals(targets[i])) {
+				result[i] = 1.0;
+				continue;
+			}
+			Integer index = pending.get(targets[i]);
+			if (null != index) {
+				indices[i] = index;
+				continue;
+			}
+			Query query = new Query(source, targets[i], type, dir, more);
+			double known = lookup(query, stamp);
+			if (!Double.isNaN(known))
+				result[i] = known;
+			else {
+				indices[i] = queries.size();
+				pending.put(targets[i], queries.size());
+				queries.add(query);
+			}
+		}
+		if (queries.isEmpty())
+			return result;
+		Parameters parameters = this.parameters;
+		long deadline = parameters.deadline();
+		Metrics.Record record = metrics.start(manager, queries.toArray(new Query[queries.size()]));
+		double[] values = new double[queries.size()];
+		boolean failed = true;
+		try {
+			Enumerator enumerator = new Enumerator(graph, pool, null == stamped ? null : stamped.snapshot);
+			List<List<long[]>> paths = enumerator.paths(queries);
+			long count = 0;
+			for (List<long[]> list : paths)
+				count += list.size();
+			record.enumerated(count);
+			try (Transaction ignore = graph.beginTx()) {
+				for (int i = 0; i < values.length; i++) {
+					BDD bdd = compile(queries.get(i), paths.get(i), enumerator, parameters, deadline, record);
+					Store.Draft draft;
+					synchronized (manager) {
+						draft = version.get() == stamp ? store.draft(queries.get(i), bdd) : null;
+						values[i] = solve(queries.get(i), bdd, stamp, record);
+					}
+					if (null != draft)
+						store.save(draft);
 				}
-				expression.add(item);
 			}
+			failed = false;
+		} finally {
+			metrics.stop(record, failed);
+		}
+		for (int i = 0; i < targets.length; i++)
+			if (indices[i] >= 0)
+				result[i] = values[indices[i]];
+		return result;
+	}
 
-			BDD bdd = new BDD(expression, relationships);
-			bdd.dump("bdd.gv");
-			return bdd.traverse();
+	/**
+	 * Compiles the disjunction of the given paths, either one path at a time or
+	 * all at once, see {@link #setStreaming(boolean)}, giving up with an
+	 * {@link IllegalStateException} once the given deadline passes; must be
+	 * called inside a transaction. Paths are enumerated and resolved outside
+	 * the lock of the manager, which is only taken to add {@link #CHUNK} of
+	 * them at a time, so that other queries take turns in between.
+	 */
+	private BDD compile(Query query, Iterable<long[]> paths, Enumerator enumerator, Parameters parameters, long deadline, Metrics.Record record) {
+		Map<Long, Relationship> relationships = new HashMap<>();
+		List<Set<Relationship>> chunk = new ArrayList<>();
+		long count = 0;
+		BDD result;
+		synchronized (manager) {
+			result = new BDD(manager, parameters.streaming ? BDD.Ordering.APPEARANCE : parameters.ordering, parameters.threshold);
+		}
+		try {
+			if (parameters.streaming)
+				for (long[] path : paths) {
+					chunk.add(new LinkedHashSet<>(enumerator.resolve(path, relationships)));
+					count += 1;
+					if (CHUNK == chunk.size())
+						add(result, chunk, deadline);
+				}
+			else {
+				Set<Set<Relationship>> expression = new HashSet<>();
+				for (long[] path : paths) {
+					expression.add(new LinkedHashSet<>(enumerator.resolve(path, relationships)));
+					count += 1;
+				}
+				synchronized (manager) {
+					result.declare(expression, new HashSet<>(relationships.values()));
+				}
+				for (Set<Relationship> path : expression) {
+					chunk.add(path);
+					if (CHUNK == chunk.size())
+						add(result, chunk, deadline);
+				}
+			}
+			add(result, chunk, deadline);
+		} catch (RuntimeException e) {
+			synchronized (manager) {
+				result.close();
+			}
+			throw e;
+		}
+		synchronized (manager) {
+			record.compiled(query, result, count, relationships.size());
+		}
+		return result;
+	}
+
+	/**
+	 * Adds the given paths to the given diagram, holding the lock of the
+	 * manager, and clears them.
+	 */
+	private void add(BDD bdd, List<Set<Relationship>> paths, long deadline) {
+		synchronized (manager) {
+			manager.setDeadline(deadline);
+			try {
+				for (Set<Relationship> path : paths) {
+					if (System.nanoTime() > deadline)
+						throw new IllegalStateException("Deadline passed in Problem.add(BDD, List<Set<Relationship>>, long)");
+					bdd.add(path);
+				}
+			} finally {
+				manager.setDeadline(Long.MAX_VALUE);
+			}
+		}
+		paths.clear();
+	}
+
+	/**
+	 * Evaluates the given diagram of the given query, caching the result
+	 * unless the graph changed since the given version, and keeps it as the
+	 * last one of the calling thread; must be called holding the lock of the
+	 * manager, after the diagram is drafted for the store, which is only
+	 * written once the lock is released.
+	 */
+	private double solve(Query query, BDD bdd, long stamp, Metrics.Record record) {
+		BDD previous = lasts.put(Thread.currentThread(), bdd);
+		if (null != previous)
+			previous.close();
+		// the diagrams of the threads gone are never asked for again
+		for (Iterator<Map.Entry<Thread, BDD>> i = lasts.entrySet().iterator(); i.hasNext();) {
+			Map.Entry<Thread, BDD> entry = i.next();
+			if (!entry.getKey().isAlive()) {
+				entry.getValue().close();
+				i.remove();
+			}
+		}
+		double result = bdd.traverse();
+		// toString() only reports what is computed here, so it needs no lock
+		bdd.size();
+		bdd.variables();
+		record.evaluated(query, bdd, result);
+		long[] relationships = bdd.relationships();
+		synchronized (cache) {
+			if (version.get() == stamp)
+				cache.put(query, result, relationships);
+		}
+		return result;
+	}
+
+	/**
+	 * Anytime version of
+	 * {@link #correlate(Node, Node, RelationshipType, Direction, Object...)}:
+	 * returns the lower and upper bounds on the probability reached when they
+	 * are at most {@code tolerance} apart or after about {@code millis}
+	 * milliseconds, see {@link Approximation}. Cached and stored results are
+	 * returned as exact bounds.
+	 */
+	public double[] approximate(long millis, double tolerance, Node source, Node target, RelationshipType type, Direction dir, Object... more) {
+		if (millis < 0)
+			throw new IllegalArgumentException("Illegal 'millis' argument in Problem.approximate(long, double, Node, Node, RelationshipType, Direction, Object...): " + millis);
+		if (tolerance < 0.0 || tolerance > 1.0)
+			throw new IllegalArgumentException("Illegal 'tolerance' argument in Problem.approximate(long, double, Node, Node, RelationshipType, Direction, Object...): " + tolerance);
+		if (null == source)
+			throw new IllegalArgumentException("Illegal 'source' argument in Problem.approximate(long, double, Node, Node, RelationshipType, Direction, Object...): " + source);
+		if (null == target)
+			throw new IllegalArgumentException("Illegal 'target' argument in Problem.approximate(long, double, Node, Node, RelationshipType, Direction, Object...): " + target);
+		if (null == type)
+			throw new IllegalArgumentException("Illegal 'type' argument in Problem.approximate(long, double, Node, Node, RelationshipType, Direction, Object...): " + type);
+		if (null == dir)
+			throw new IllegalArgumentException("Illegal 'dir' argument in Problem.approximate(long, double, Node, Node, RelationshipType, Direction, Object...): " + dir);
+		if (source.equals(target))
+			return new double[] { 1.0, 1.0 };
+		if (null == more)
+			more = new Object[0];
+		Query query = new Query(source, target, type, dir, more);
+		double known = lookup(query, version.get());
+		if (!Double.isNaN(known))
+			return new double[] { known, known };
+		Stamped stamped = this.stamped;
+		if (null != stamped)
+			return new Approximation(manager, type, dir, more).bounds(subgraph(stamped.snapshot, query), millis, tolerance);
+		try (Transaction ignore = graph.beginTx()) {
+			return new Approximation(manager, type, dir, more).bounds(source, target, millis, tolerance);
+		}
+	}
+
+	/**
+	 * Sampling version of
+	 * {@link #correlate(Node, Node, RelationshipType, Direction, Object...)}:
+	 * returns the estimated probability followed by the bounds of its 95%
+	 * confidence interval, see {@link Sampler}. Cached and stored results are
+	 * returned as exact estimates.
+	 */
+	public double[] sample(double error, Node source, Node target, RelationshipType type, Direction dir, Object... more) {
+		if (error <= 0.0 || error >= 1.0)
+			throw new IllegalArgumentException("Illegal 'error' argument in Problem.sample(double, Node, Node, RelationshipType, Direction, Object...): " + error);
+		if (null == source)
+			throw new IllegalArgumentException("Illegal 'source' argument in Problem.sample(double, Node, Node, RelationshipType, Direction, Object...): " + source);
+		if (null == target)
+			throw new IllegalArgumentException("Illegal 'target' argument in Problem.sample(double, Node, Node, RelationshipType, Direction, Object...): " + target);
+		if (null == type)
+			throw new IllegalArgumentException("Illegal 'type' argument in Problem.sample(double, Node, Node, RelationshipType, Direction, Object...): " + type);
+		if (null == dir)
+			throw new IllegalArgumentException("Illegal 'dir' argument in Problem.sample(double, Node, Node, RelationshipType, Direction, Object...): " + dir);
+		if (source.equals(target))
+			return new double[] { 1.0, 1.0, 1.0 };
+		if (null == more)
+			more = new Object[0];
+		Query query = new Query(source, target, type, dir, more);
+		double known = lookup(query, version.get());
+		if (!Double.isNaN(known))
+			return new double[] { known, known, known };
+		Stamped stamped = this.stamped;
+		if (null != stamped)
+			return sampler.estimate(subgraph(stamped.snapshot, query), error);
+		try (Transaction ignore = graph.beginTx()) {
+			return sampler.estimate(source, target, error, type, dir, more);
 		}
 	}
 
+	private static Subgraph subgraph(Snapshot snapshot, Query query) {
+		return new Subgraph(snapshot, query.getSource(), new long[] { query.getTarget() }, query.getTypes(), query.getDirections());
+	}
+
+	/**
+	 * Takes a new {@link Snapshot} of the graph, which replaces the previous
+	 * one once complete, so that queries running meanwhile finish on the old
+	 * one; from then on, queries search the snapshot rather than the graph, so
+	 * it must be refreshed again after the graph is changed, and results are
+	 * neither cached nor stored until then. Since answers may change with the
+	 * snapshot, every cached and stored result is evicted.
+	 */
+	public final void refresh() {
+		long stamp = version.incrementAndGet();
+		cache.clear();
+		store.clear();
+		stamped = new Stamped(new Snapshot(graph), stamp);
+	}
+
+	/**
+	 * Shuts the graph down, along with the threads of the enumerator and of
+	 * the sampler.
+	 */
+	@Override
+	public void close() {
+		synchronized (manager) {
+			for (BDD bdd : lasts.values())
+				bdd.close();
+			lasts.clear();
+		}
+		sampler.close();
+		pool.shutdown();
+		metrics.unregister();
+		graph.shutdown();
+		if (null != temporary)
+			Utils.delete(temporary);
+	}
+
 	public void dump(String path) {
 		if (null == path || (path = path.trim()).isEmpty())
 			throw new IllegalArgumentException("Illegal 'path' argument in Problem.dump(String): " + path);
@@ -159,8 +676,107 @@ public class Problem {
 		}
 	}
 
+	/**
+	 * Returns the diagram compiled by the last query of the calling thread,
+	 * which reports the ordering it used and its size, or {@code null} if
+	 * none; it stays open until the next query of the same thread, so other
+	 * threads never close it, but since the manager is shared, it must be
+	 * traversed or dumped while no other thread queries.
+	 */
+	public final BDD getLast() {
+		synchronized (manager) {
+			return lasts.get(Thread.currentThread());
+		}
+	}
+
+	/**
+	 * Returns the result cache, which exposes its hit and miss counters.
+	 */
+	public final Cache getCache() {
+		return cache;
+	}
+
+	public final GraphDatabaseService getGraph() {
+		return graph;
+	}
+
+	/**
+	 * Returns the metrics of the queries answered from scratch, which are
+	 * also registered over JMX under the absolute path of the database.
+	 */
+	public final Metrics getMetrics() {
+		return metrics;
+	}
+
+	public final BDD.Ordering getOrdering() {
+		return parameters.ordering;
+	}
+
 	public final String getPath() {
 		return path;
 	}
 
+	/**
+	 * Returns the sampler used by
+	 * {@link #sample(double, Node, Node, RelationshipType, Direction, Object...)},
+	 * whose seed and sample limit can be changed.
+	 */
+	public final Sampler getSampler() {
+		return sampler;
+	}
+
+	public final Snapshot getSnapshot() {
+		Stamped stamped = this.stamped;
+		return null == stamped ? null : stamped.snapshot;
+	}
+
+	public final int getThreshold() {
+		return parameters.threshold;
+	}
+
+	public final long getTimeout() {
+		return parameters.timeout;
+	}
+
+	public final boolean isStreaming() {
+		return parameters.streaming;
+	}
+
+	public final synchronized void setOrdering(BDD.Ordering ordering) {
+		if (null == ordering)
+			throw new IllegalArgumentException("Illegal 'ordering' argument in Problem.setOrdering(BDD.Ordering): " + ordering);
+		parameters = parameters.ordering(ordering);
+	}
+
+	/**
+	 * In streaming mode every path found is OR-ed into the diagram as soon as
+	 * it is enumerated and then dropped, so memory is bounded by the diagram
+	 * rather than by the number of paths; relationships are then ordered as
+	 * they are met, regardless of {@link #setOrdering(BDD.Ordering)}.
+	 */
+	public final synchronized void setStreaming(boolean streaming) {
+		parameters = parameters.streaming(streaming);
+	}
+
+	/**
+	 * Sets the number of live BDD nodes above which variables are sifted while
+	 * compiling; 0 disables sifting.
+	 */
+	public final synchronized void setThreshold(int threshold) {
+		if (threshold < 0)
+			throw new IllegalArgumentException("Illegal 'threshold' argument in Problem.setThreshold(int): " + threshold);
+		parameters = parameters.threshold(threshold);
+	}
+
+	/**
+	 * Sets the milliseconds after which a query still compiling gives up with
+	 * an {@link IllegalStateException}, leaving nothing cached or stored; 0,
+	 * the default, waits forever.
+	 */
+	public final synchronized void setTimeout(long timeout) {
+		if (timeout < 0)
+			throw new IllegalArgumentException("Illegal 'timeout' argument in Problem.setTimeout(long): " + timeout);
+		parameters = parameters.timeout(timeout);
+	}
+
 }
@@ -0,0 +1,114 @@
+/**
+ *
+ */
+package applet;
+
+import java.util.Arrays;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.RelationshipType;
+
+/**
+ * Signature of a correlate query: the ids of its source and target and the
+ * relationship types and directions it may follow.
+ *
+ * @author stefano
+ *
+ */
+public class Query {
+
+	private final Direction[] directions;
+
+	private final long source;
+
+	private final long target;
+
+	private final String[] types;
+
+	public Query(Node source, Node target, RelationshipType type, Direction dir, Object... more) {
+		if (null == source)
+			throw new IllegalArgumentException("Illegal 'source' argument in Query(Node, Node, RelationshipType, Direction, Object...): " + source);
+		if (null == target)
+			throw new IllegalArgumentException("Illegal 'target' argument in Query(Node, Node, RelationshipType, Direction, Object...): " + target);
+		if (null == type)
+			throw new IllegalArgumentException("Illegal 'type' argument in Query(Node, Node, RelationshipType, Direction, Object...): " + type);
+		if (null == dir)
+			throw new IllegalArgumentException("Illegal 'dir' argument in Query(Node, Node, RelationshipType, Direction, Object...): " + dir);
+		if (null == more || 0 != more.length % 2)
+			throw new IllegalArgumentException("Illegal 'more' argument in Query(Node, Node, RelationshipType, Direction, Object...): " + Arrays.toString(more));
+		this.source = source.getId();
+		this.target = target.getId();
+		this.types = new String[1 + more.length / 2];
+		this.directions = new Direction[1 + more.length / 2];
+		this.types[0] = type.name();
+		this.directions[0] = dir;
+		for (int i = 0; i < more.length; i += 2) {
+			if (!(more[i] instanceof RelationshipType) || !(more[i + 1] instanceof Direction))
+				throw new IllegalArgumentException("Illegal 'more' argument in Query(Node, Node, RelationshipType, Direction, Object...): " + Arrays.toString(more));
+			this.types[1 + i / 2] = ((RelationshipType) more[i]).name();
+			this.directions[1 + i / 2] = (Direction) more[i + 1];
+		}
+	}
+
+	/**
+	 * Tells whether relationships of the given type may appear in the paths
+	 * of this query.
+	 */
+	public boolean involves(RelationshipType type) {
+		if (null == type)
+			throw new IllegalArgumentException("Illegal 'type' argument in Query.involves(RelationshipType): " + type);
+		for (String name : types)
+			if (name.equals(type.name()))
+				return true;
+		return false;
+	}
+
+	public final Direction[] getDirections() {
+		return directions.clone();
+	}
+
+	public final long getSource() {
+		return source;
+	}
+
+	public final long getTarget() {
+		return target;
+	}
+
+	public final String[] getTypes() {
+		return types.clone();
+	}
+
+	@Override
+	public int hashCode() {
+		int result = Long.hashCode(source);
+		result = 31 * result + Long.hashCode(target);
+		result = 31 * result + Arrays.hashCode(types);
+		result = 31 * result + Arrays.hashCode(directions);
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof Query))
+			return false;
+		Query other = (Query) obj;
+		return source == other.source && target == other.target && Arrays.equals(types, other.types) && Arrays.equals(directions, other.directions);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+		result.append(source).append("->").append(target).append('[');
+		for (int i = 0; i < types.length; i++) {
+			if (i > 0)
+				result.append(',');
+			result.append(types[i]).append(':').append(directions[i]);
+		}
+		return result.append(']').toString();
+	}
+
+}
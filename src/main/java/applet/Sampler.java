@@ -0,0 +1,274 @@
+/**
+ *
+ */
+package applet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.RelationshipType;
+
+/**
+ * Monte Carlo estimate of the probability that two nodes are connected.
+ *
+ * The {@link Subgraph} of the nodes lying between the source and the target
+ * is first copied into flat arrays; then every worker draws possible worlds
+ * on its own, keeping each relationship with its probability, and counts
+ * those in which the target is reached from the source. Coins are only flipped for the relationships
+ * actually met by the search, each at most once per world (a relationship
+ * met again from its other end already joins two reached nodes). The
+ * relationships depending on the choices of a group share a single draw per
+ * world, which falls in the interval of at most one of those choices, so that
+ * worlds follow the same model as the exact diagrams.
+ *
+ * Samples are drawn in rounds of {@link #BATCH} per worker, each with its own
+ * {@link SplittableRandom} split from a seeded one, so that the result only
+ * depends on the seed and on the number of workers. Sampling stops as soon as
+ * the 95% Wilson score interval is at most {@code error} wide on either side
+ * or the sample limit is reached.
+ *
+ * @author stefano
+ *
+ */
+public class Sampler implements AutoCloseable {
+
+	private static final int BATCH = 1 << 10;
+
+	private static final double Z = 1.959963984540054;
+
+	private final ExecutorService executor;
+
+	private long limit = 1L << 24;
+
+	private long seed = 0x2545F4914F6CDD1DL;
+
+	private final int threads;
+
+	public Sampler(int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("Illegal 'threads' argument in Sampler(int): " + threads);
+		this.threads = threads;
+		this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, "sampler");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Stops the workers; the sampler cannot be used afterwards.
+	 */
+	@Override
+	public void close() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Returns the estimated probability that the given nodes are connected
+	 * followed by the bounds of its confidence interval. The graph is read in
+	 * the calling thread, which must be inside a transaction.
+	 */
+	public double[] estimate(Node source, Node target, double error, RelationshipType type, Direction dir, Object... more) {
+		if (null == source)
+			throw new IllegalArgumentException("Illegal 'source' argument in Sampler.estimate(Node, Node, double, RelationshipType, Direction, Object...): " + source);
+		if (null == target)
+			throw new IllegalArgumentException("Illegal 'target' argument in Sampler.estimate(Node, Node, double, RelationshipType, Direction, Object...): " + target);
+		if (error <= 0.0 || error >= 1.0)
+			throw new IllegalArgumentException("Illegal 'error' argument in Sampler.estimate(Node, Node, double, RelationshipType, Direction, Object...): " + error);
+		if (null == type)
+			throw new IllegalArgumentException("Illegal 'type' argument in Sampler.estimate(Node, Node, double, RelationshipType, Direction, Object...): " + type);
+		if (null == dir)
+			throw new IllegalArgumentException("Illegal 'dir' argument in Sampler.estimate(Node, Node, double, RelationshipType, Direction, Object...): " + dir);
+		if (null == more || 0 != more.length % 2)
+			throw new IllegalArgumentException("Illegal 'more' argument in Sampler.estimate(Node, Node, double, RelationshipType, Direction, Object...): " + Arrays.toString(more));
+		RelationshipType[] types = new RelationshipType[1 + more.length / 2];
+		Direction[] directions = new Direction[1 + more.length / 2];
+		types[0] = type;
+		directions[0] = dir;
+		for (int i = 0; i < more.length; i += 2) {
+			if (!(more[i] instanceof RelationshipType) || !(more[i + 1] instanceof Direction))
+				throw new IllegalArgumentException("Illegal 'more' argument in Sampler.estimate(Node, Node, double, RelationshipType, Direction, Object...): " + Arrays.toString(more));
+			types[1 + i / 2] = (RelationshipType) more[i];
+			directions[1 + i / 2] = (Direction) more[i + 1];
+		}
+		if (source.equals(target))
+			return new double[] { 1.0, 1.0, 1.0 };
+		return estimate(new Subgraph(source, target, types, directions), error);
+	}
+
+	/**
+	 * Returns the estimated probability that the source of the given subgraph
+	 * is connected to its only target followed by the bounds of its confidence
+	 * interval; no transaction is needed.
+	 */
+	public double[] estimate(final Subgraph subgraph, double error) {
+		if (null == subgraph || 1 != subgraph.targets)
+			throw new IllegalArgumentException("Illegal 'subgraph' argument in Sampler.estimate(Subgraph, double): " + subgraph);
+		if (error <= 0.0 || error >= 1.0)
+			throw new IllegalArgumentException("Illegal 'error' argument in Sampler.estimate(Subgraph, double): " + error);
+		if (!subgraph.isConnected())
+			return new double[] { 0.0, 0.0, 0.0 };
+
+		final double[] lowers = new double[subgraph.relationships.length];
+		final int[] draws = draws(subgraph, lowers);
+		int count = 0;
+		for (int draw : draws)
+			count = Math.max(count, draw + 1);
+		SplittableRandom root = new SplittableRandom(seed);
+		List<Callable<Long>> tasks = new ArrayList<>();
+		for (int i = 0; i < threads; i++) {
+			final SplittableRandom random = root.split();
+			final int[] visited = new int[subgraph.size()];
+			final int[] queue = new int[subgraph.size()];
+			final int[] drawn = new int[count];
+			final double[] values = new double[count];
+			tasks.add(() -> sample(subgraph, draws, lowers, random, visited, queue, drawn, values, BATCH));
+		}
+		long hits = 0;
+		long samples = 0;
+		double[] result = null;
+		do {
+			try {
+				for (Future<Long> future : executor.invokeAll(tasks))
+					hits += future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted in Sampler.estimate(Subgraph, double)");
+			} catch (ExecutionException e) {
+				throw new IllegalStateException("Failed in Sampler.estimate(Subgraph, double): " + e.getCause());
+			}
+			samples += (long) threads * BATCH;
+			result = wilson(hits, samples);
+		} while (result[2] - result[1] > 2.0 * error && samples < limit);
+		return result;
+	}
+
+	/**
+	 * Returns, for each relationship of the given subgraph, the index of the
+	 * draw deciding it, and fills {@code lowers} with where its interval
+	 * starts. A relationship without a group has a draw of its own, while the
+	 * choices of a group met in the subgraph share one and take consecutive
+	 * intervals, as wide as their probabilities, in the order of the choices.
+	 */
+	private static int[] draws(Subgraph subgraph, double[] lowers) {
+		int[] result = new int[subgraph.relationships.length];
+		int count = 0;
+		Map<Long, Integer> indices = new HashMap<>();
+		List<Map<Integer, Double>> intervals = new ArrayList<>();
+		for (int i = 0; i < result.length; i++) {
+			if (subgraph.groups[i] < 0) {
+				result[i] = count++;
+				intervals.add(null);
+				continue;
+			}
+			Integer index = indices.get(subgraph.groups[i]);
+			if (null == index) {
+				index = count++;
+				indices.put(subgraph.groups[i], index);
+				intervals.add(new TreeMap<>());
+			}
+			result[i] = index;
+			intervals.get(index).put(subgraph.choices[i], subgraph.probs[i]);
+		}
+		for (Map<Integer, Double> choices : intervals)
+			if (null != choices) {
+				double sum = 0.0;
+				for (Map.Entry<Integer, Double> choice : choices.entrySet())
+					sum += choice.setValue(sum);
+			}
+		for (int i = 0; i < result.length; i++)
+			if (subgraph.groups[i] >= 0)
+				lowers[i] = intervals.get(result[i]).get(subgraph.choices[i]);
+		return result;
+	}
+
+	/**
+	 * Returns the observed frequency and the 95% Wilson score interval.
+	 */
+	private static double[] wilson(long hits, long samples) {
+		double p = (double) hits / samples;
+		double z2 = Z * Z / samples;
+		double center = (p + z2 / 2.0) / (1.0 + z2);
+		double width = Z / (1.0 + z2) * Math.sqrt(p * (1.0 - p) / samples + z2 / (4.0 * samples));
+		return new double[] { p, Math.max(0.0, center - width), Math.min(1.0, center + width) };
+	}
+
+	public final long getLimit() {
+		return limit;
+	}
+
+	public final long getSeed() {
+		return seed;
+	}
+
+	public final int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Sets the number of samples after which sampling stops regardless of the
+	 * error, which bounds the latency of a query.
+	 */
+	public final void setLimit(long limit) {
+		if (limit < 1)
+			throw new IllegalArgumentException("Illegal 'limit' argument in Sampler.setLimit(long): " + limit);
+		this.limit = limit;
+	}
+
+	public final void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Draws the given number of worlds and returns in how many of them the
+	 * target is reached from the source; {@code visited} holds the world in
+	 * which each node was last reached, and {@code drawn} the one in which
+	 * each draw was last made, along with its value in {@code values}.
+	 */
+	private static long sample(Subgraph subgraph, int[] draws, double[] lowers, SplittableRandom random, int[] visited, int[] queue, int[] drawn, double[] values, int samples) {
+		int[] offsets = subgraph.offsets;
+		int[] neighbours = subgraph.neighbours;
+		double[] probs = subgraph.probs;
+		long result = 0;
+		for (int world = visited[Subgraph.SOURCE] + 1, last = world + samples; world < last; world++) {
+			int head = 0, tail = 0;
+			queue[tail++] = Subgraph.SOURCE;
+			visited[Subgraph.SOURCE] = world;
+			search: while (head < tail) {
+				int node = queue[head++];
+				for (int i = offsets[node]; i < offsets[node + 1]; i++) {
+					int other = neighbours[i];
+					if (visited[other] == world)
+						continue;
+					int draw = draws[i];
+					if (drawn[draw] != world) {
+						drawn[draw] = world;
+						values[draw] = random.nextDouble();
+					}
+					if (values[draw] >= lowers[i] && values[draw] < lowers[i] + probs[i]) {
+						if (Subgraph.TARGET == other) {
+							result += 1;
+							break search;
+						}
+						visited[other] = world;
+						queue[tail++] = other;
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,134 @@
+/**
+ *
+ */
+package applet;
+
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Scaling sweep over graphs made by {@link Generator}: for every topology,
+ * degree and size given, a fresh {@link Kimmig} is loaded and queried by the
+ * given engines, and a line of
+ * {@code topology,engine,degree,n,loading,solving,prob} is printed, whose last
+ * columns are those printed by {@link Kimmig#main(String[])}.
+ *
+ * Sizes are swept in increasing order; once an engine takes longer than the
+ * budget (in seconds), larger sizes of the same topology and degree are
+ * skipped for it. The exact engine compiles the paths as they are streamed,
+ * see {@link Kimmig#setStreaming(boolean)}, so that it can be stopped when the
+ * budget runs out, in which case {@code NaN} is printed.
+ *
+ * Usage: {@code Scaling [topologies [degrees [sizes [engines [seed [budget]]]]]]},
+ * each list separated by commas, e.g.
+ * {@code Scaling LAYERED,GRID 2,4 10,20,40,80 EXACT,BOUNDS,SAMPLE 1 60}.
+ *
+ * @author stefano
+ *
+ */
+public class Scaling {
+
+	public static enum Engine {
+		EXACT, BOUNDS, SAMPLE;
+	}
+
+	private static final double ERROR = 0.01;
+
+	private static final double TOLERANCE = 0.001;
+
+	public static void main(String[] args) {
+		String[] topologies = (args.length > 0 ? args[0] : "ERDOS_RENYI,POWER_LAW,GRID,LAYERED").split(",");
+		String[] degrees = (args.length > 1 ? args[1] : "2,3").split(",");
+		String[] sizes = (args.length > 2 ? args[2] : "10,20,40,80,160").split(",");
+		String[] engines = (args.length > 3 ? args[3] : "EXACT,BOUNDS,SAMPLE").split(",");
+		long seed = args.length > 4 ? Long.parseLong(args[4]) : 1L;
+		double budget = args.length > 5 ? Double.parseDouble(args[5]) : 60.0;
+		System.out.println("topology,engine,degree,n,loading,solving,prob");
+		for (String topology : topologies)
+			for (String degree : degrees) {
+				boolean[] over = new boolean[engines.length];
+				for (String size : sizes)
+					for (int i = 0; i < engines.length; i++) {
+						if (over[i])
+							continue;
+						Engine engine = Engine.valueOf(engines[i].trim());
+						double[] result = run(Generator.Topology.valueOf(topology.trim()), engine, Integer.parseInt(degree.trim()), Integer.parseInt(size.trim()), seed, budget);
+						System.out.format(Locale.ROOT, "%s,%s,%s,%s,%.3f,%.3f,%.6f\n", topology.trim(), engine, degree.trim(), size.trim(), result[0], result[1], result[2]);
+						over[i] = result[1] > budget;
+					}
+			}
+		System.out.println("Done.");
+	}
+
+	/**
+	 * Returns the seconds spent loading and solving and the probability found
+	 * by the given engine on a new graph.
+	 */
+	private static double[] run(Generator.Topology topology, Engine engine, int degree, int n, long seed, double budget) {
+		try (Kimmig kimmig = new Kimmig()) {
+			long loading = System.nanoTime();
+			Generator generator = new Generator(seed);
+			generator.generate(kimmig.getLoader(), topology, n, degree);
+			loading = System.nanoTime() - loading;
+			long solving = System.nanoTime();
+			double prob;
+			switch (engine) {
+			case EXACT:
+				prob = exact(kimmig, generator.getSource(), generator.getTarget(), budget);
+				break;
+			case BOUNDS:
+				double[] bounds = kimmig.path(generator.getSource(), generator.getTarget(), (long) (1000 * budget), TOLERANCE);
+				prob = (bounds[0] + bounds[1]) / 2.0;
+				break;
+			case SAMPLE:
+				prob = kimmig.sample(generator.getSource(), generator.getTarget(), ERROR)[0];
+				break;
+			default:
+				throw new IllegalArgumentException("Illegal 'engine' argument in Scaling.run(Generator.Topology, Engine, int, int, long, double): " + engine);
+			}
+			solving = System.nanoTime() - solving;
+			return new double[] { loading / 1_000_000_000.0, solving / 1_000_000_000.0, prob };
+		}
+	}
+
+	/**
+	 * Answers the given query exactly in another thread, which gives up once
+	 * the given budget is spent, see {@link Kimmig#setTimeout(long)}, and is
+	 * interrupted if still waiting for paths then; returns {@code NaN} in that
+	 * case.
+	 */
+	private static double exact(final Kimmig kimmig, final String source, final String target, double budget) {
+		kimmig.setStreaming(true);
+		kimmig.setTimeout((long) Math.ceil(1000 * budget));
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		Future<Double> future = executor.submit(() -> kimmig.path(source, target));
+		try {
+			return future.get((long) (1000 * budget), TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			future.cancel(true);
+			return Double.NaN;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted in Scaling.exact(Kimmig, String, String, double)");
+		} catch (ExecutionException e) {
+			// given up, either on its own or interrupted
+			if (e.getCause() instanceof IllegalStateException)
+				return Double.NaN;
+			throw new IllegalStateException("Failed in Scaling.exact(Kimmig, String, String, double): " + e.getCause());
+		} finally {
+			executor.shutdown();
+			try {
+				// the graph must not be closed before the query lets go of it
+				executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,291 @@
+/**
+ *
+ */
+package applet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToDoubleBiFunction;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Long-lived query service, answering correlate requests from many clients
+ * through {@link #submit(String, String)} or over HTTP on the loopback
+ * interface, see {@link #listen(int)}:
+ *
+ * <pre>
+ * GET /correlate?source=hgnc_620&amp;target=hgnc_983
+ * </pre>
+ *
+ * Requests run on a pool of {@code concurrency} threads, each opening its own
+ * read transaction through the function given; since queries take turns on
+ * the lock of their manager anyway, more threads than processors would only
+ * wait on it. Admission is bounded: at most {@code concurrency} requests run
+ * at once, at most {@code queue} more wait for their turn in arrival order,
+ * and any other is turned down at once ({@link RejectedExecutionException},
+ * or 503 over HTTP), so that a burst cannot build an unbounded backlog and
+ * the latency of the requests admitted stays bounded.
+ *
+ * The given function is called from many threads at once. Any engine can be
+ * served, as long as it finds the nodes by name: {@link Kimmig#path(String,
+ * String)} does, while a {@link Problem} needs a function looking its nodes
+ * up first.
+ *
+ * Usage: {@code Service [file [port [concurrency [queue]]]]} loads the given
+ * file of facts into a {@link Kimmig} and serves it until killed.
+ *
+ * @author stefano
+ *
+ */
+public class Service implements AutoCloseable {
+
+	private static final String CONTEXT = "/correlate";
+
+	private final Semaphore admission;
+
+	private final int concurrency;
+
+	private final ToDoubleBiFunction<String, String> correlate;
+
+	private final ExecutorService executor;
+
+	private final int queue;
+
+	private final LongAdder rejected = new LongAdder();
+
+	private HttpServer server = null;
+
+	public Service(ToDoubleBiFunction<String, String> correlate, int concurrency, int queue) {
+		if (null == correlate)
+			throw new IllegalArgumentException("Illegal 'correlate' argument in Service(ToDoubleBiFunction<String, String>, int, int): " + correlate);
+		if (concurrency < 1)
+			throw new IllegalArgumentException("Illegal 'concurrency' argument in Service(ToDoubleBiFunction<String, String>, int, int): " + concurrency);
+		if (queue < 0)
+			throw new IllegalArgumentException("Illegal 'queue' argument in Service(ToDoubleBiFunction<String, String>, int, int): " + queue);
+		this.correlate = correlate;
+		this.concurrency = concurrency;
+		this.queue = queue;
+		this.admission = new Semaphore(concurrency + queue);
+		this.executor = Executors.newFixedThreadPool(concurrency);
+	}
+
+	/**
+	 * Admits the request for the probability that the given source is
+	 * connected to the given target, or throws a
+	 * {@link RejectedExecutionException} if the queue is full.
+	 */
+	public CompletableFuture<Double> submit(String source, String target) {
+		if (null == source || (source = source.trim()).isEmpty())
+			throw new IllegalArgumentException("Illegal 'source' argument in Service.submit(String, String): " + source);
+		if (null == target || (target = target.trim()).isEmpty())
+			throw new IllegalArgumentException("Illegal 'target' argument in Service.submit(String, String): " + target);
+		if (!admit())
+			throw new RejectedExecutionException("Queue full in Service.submit(String, String)");
+		final String start = source, end = target;
+		try {
+			return CompletableFuture.supplyAsync(() -> run(start, end), executor);
+		} catch (RejectedExecutionException e) {
+			admission.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Blocking version of {@link #submit(String, String)}.
+	 */
+	public double correlate(String source, String target) {
+		try {
+			return submit(source, target).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted in Service.correlate(String, String)");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IllegalStateException("Failed in Service.correlate(String, String): " + e.getCause());
+		}
+	}
+
+	private boolean admit() {
+		if (admission.tryAcquire())
+			return true;
+		rejected.increment();
+		return false;
+	}
+
+	/**
+	 * Answers an admitted request once its turn comes.
+	 */
+	private double run(String source, String target) {
+		try {
+			return correlate.applyAsDouble(source, target);
+		} finally {
+			admission.release();
+		}
+	}
+
+	/**
+	 * Starts serving requests over HTTP on the given port of the loopback
+	 * interface, or on any free one if 0, see {@link #getPort()}.
+	 */
+	public synchronized void listen(int port) {
+		if (port < 0 || port > 0xFFFF)
+			throw new IllegalArgumentException("Illegal 'port' argument in Service.listen(int): " + port);
+		if (null != server)
+			throw new IllegalStateException("Service already listening");
+		try {
+			server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), concurrency + queue);
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Illegal 'port' argument in Service.listen(int): " + port);
+		}
+		// requests are admitted by the dispatcher thread and answered by ours
+		server.createContext(CONTEXT, this::handle);
+		server.start();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		if (!"GET".equals(exchange.getRequestMethod())) {
+			reply(exchange, 405, "Method not allowed");
+			return;
+		}
+		Map<String, String> parameters = parameters(exchange.getRequestURI().getRawQuery());
+		String source = parameters.get("source");
+		String target = parameters.get("target");
+		if (null == source || source.trim().isEmpty() || null == target || target.trim().isEmpty()) {
+			reply(exchange, 400, "Missing 'source' or 'target' parameter");
+			return;
+		}
+		if (!admit()) {
+			exchange.getResponseHeaders().set("Retry-After", "1");
+			reply(exchange, 503, "Queue full");
+			return;
+		}
+		try {
+			executor.execute(() -> {
+				try {
+					double result = run(source.trim(), target.trim());
+					reply(exchange, 200, Double.toString(result));
+				} catch (RuntimeException e) {
+					reply(exchange, 500, String.valueOf(e.getMessage()));
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			admission.release();
+			reply(exchange, 503, "Shutting down");
+		}
+	}
+
+	private static Map<String, String> parameters(String query) {
+		Map<String, String> result = new HashMap<>();
+		if (null == query)
+			return result;
+		for (String pair : query.split("&")) {
+			int i = pair.indexOf('=');
+			if (i > 0)
+				try {
+					result.put(URLDecoder.decode(pair.substring(0, i), "UTF-8"), URLDecoder.decode(pair.substring(i + 1), "UTF-8"));
+				} catch (UnsupportedEncodingException | IllegalArgumentException e) {
+					// a malformed parameter is as good as a missing one
+				}
+		}
+		return result;
+	}
+
+	private static void reply(HttpExchange exchange, int status, String body) {
+		byte[] bytes = (body + "\n").getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		try (OutputStream out = exchange.getResponseBody()) {
+			exchange.sendResponseHeaders(status, bytes.length);
+			out.write(bytes);
+		} catch (IOException e) {
+			// the client went away
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Stops listening and waits for the requests admitted so far to be
+	 * answered.
+	 */
+	@Override
+	public synchronized void close() {
+		if (null != server)
+			server.stop(0);
+		server = null;
+		executor.shutdown();
+		try {
+			executor.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public final int getConcurrency() {
+		return concurrency;
+	}
+
+	/**
+	 * Returns the number of requests admitted and not answered yet.
+	 */
+	public final int getPending() {
+		return concurrency + queue - admission.availablePermits();
+	}
+
+	/**
+	 * Returns the port listened to, or -1 if not listening.
+	 */
+	public final synchronized int getPort() {
+		return null == server ? -1 : server.getAddress().getPort();
+	}
+
+	public final int getQueue() {
+		return queue;
+	}
+
+	/**
+	 * Returns the number of requests turned down so far.
+	 */
+	public final long getRejected() {
+		return rejected.sum();
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+		int concurrency = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		int queue = args.length > 3 ? Integer.parseInt(args[3]) : 256;
+		final Kimmig kimmig = new Kimmig();
+		kimmig.load(args.length > 0 ? args[0] : "source.txt");
+		kimmig.refresh();
+		final Service service = new Service(kimmig::path, concurrency, queue);
+		service.listen(port);
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				service.close();
+			}
+		});
+		System.out.format("Listening on http://%s:%d%s (%d threads)\n", InetAddress.getLoopbackAddress().getHostAddress(), service.getPort(), CONTEXT, service.getConcurrency());
+	}
+
+}
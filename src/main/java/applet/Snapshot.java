@@ -0,0 +1,240 @@
+/**
+ *
+ */
+package applet;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+/**
+ * Read-optimised copy of the whole graph in primitive arrays.
+ *
+ * Nodes and relationships are numbered densely; the Neo4j ids of both are
+ * kept to map results back, and node ids are mapped to indices through an
+ * array, since Neo4j hands them out densely. For every relationship type, the
+ * relationships leaving and entering each node are stored in compressed
+ * sparse row form: those of node {@code i} lie at {@code offsets[i]} up to
+ * {@code offsets[i + 1]} of {@code neighbours} (the other node) and
+ * {@code edges} (the relationship), while {@code probs} holds the probability
+ * of each relationship and {@code groups}, {@code choices} and {@code widths}
+ * the group it depends on, if any (-1 otherwise), the choice it takes and the
+ * number of choices of the group. A {@link Subgraph} is then cut out of a
+ * snapshot without touching the object API at all.
+ *
+ * A snapshot does not follow later writes to the graph until
+ * {@link #refresh()} is called; it is safe to read from many threads as long
+ * as it is not being refreshed.
+ *
+ * @author stefano
+ *
+ */
+public class Snapshot {
+
+	private static final String CHOICE = "choice";
+
+	private static final String CHOICES = "choices";
+
+	private static final String GROUP = "group";
+
+	private static final int IN = 1;
+
+	private static final int OUT = 0;
+
+	private static final String PROB = "prob";
+
+	int[] choices;
+
+	private int[][][] edges;
+
+	private final GraphDatabaseService graph;
+
+	long[] groups;
+
+	private int[] indices;
+
+	private int[][][] neighbours;
+
+	private long[] nodes;
+
+	private int[][][] offsets;
+
+	double[] probs;
+
+	long[] relationships;
+
+	private Map<String, Integer> types;
+
+	int[] widths;
+
+	public Snapshot(GraphDatabaseService graph) {
+		if (null == graph)
+			throw new IllegalArgumentException("Illegal 'graph' argument in Snapshot(GraphDatabaseService): " + graph);
+		this.graph = graph;
+		refresh();
+	}
+
+	/**
+	 * Copies the graph again, in a transaction of its own.
+	 */
+	public void refresh() {
+		try (Transaction ignore = graph.beginTx()) {
+			GlobalGraphOperations operations = GlobalGraphOperations.at(graph);
+			long[] nodes = new long[16];
+			long highest = -1;
+			int n = 0;
+			for (Node node : operations.getAllNodes()) {
+				if (n == nodes.length)
+					nodes = Arrays.copyOf(nodes, 2 * n);
+				nodes[n++] = node.getId();
+				highest = Math.max(highest, node.getId());
+			}
+			int[] indices = new int[(int) (highest + 1)];
+			Arrays.fill(indices, -1);
+			for (int i = 0; i < n; i++)
+				indices[(int) nodes[i]] = i;
+
+			Map<String, Integer> types = new HashMap<>();
+			long[] relationships = new long[16];
+			double[] probs = new double[16];
+			long[] groups = new long[16];
+			int[] choices = new int[16];
+			int[] widths = new int[16];
+			int[] tails = new int[16];
+			int[] heads = new int[16];
+			int[] kinds = new int[16];
+			int m = 0;
+			for (Relationship relationship : operations.getAllRelationships()) {
+				if (m == relationships.length) {
+					relationships = Arrays.copyOf(relationships, 2 * m);
+					probs = Arrays.copyOf(probs, 2 * m);
+					groups = Arrays.copyOf(groups, 2 * m);
+					choices = Arrays.copyOf(choices, 2 * m);
+					widths = Arrays.copyOf(widths, 2 * m);
+					tails = Arrays.copyOf(tails, 2 * m);
+					heads = Arrays.copyOf(heads, 2 * m);
+					kinds = Arrays.copyOf(kinds, 2 * m);
+				}
+				String name = relationship.getType().name();
+				Integer kind = types.get(name);
+				if (null == kind) {
+					kind = types.size();
+					types.put(name, kind);
+				}
+				relationships[m] = relationship.getId();
+				probs[m] = (double) relationship.getProperty(PROB, 1.0);
+				groups[m] = -1L;
+				if (relationship.hasProperty(GROUP)) {
+					groups[m] = ((Number) relationship.getProperty(GROUP)).longValue();
+					choices[m] = ((Number) relationship.getProperty(CHOICE, 1)).intValue();
+					widths[m] = ((Number) relationship.getProperty(CHOICES, choices[m] + 1)).intValue();
+				}
+				tails[m] = indices[(int) relationship.getStartNode().getId()];
+				heads[m] = indices[(int) relationship.getEndNode().getId()];
+				kinds[m++] = kind;
+			}
+
+			int[][][] offsets = new int[types.size()][2][n + 1];
+			for (int i = 0; i < m; i++) {
+				offsets[kinds[i]][OUT][tails[i] + 1] += 1;
+				offsets[kinds[i]][IN][heads[i] + 1] += 1;
+			}
+			int[][][] neighbours = new int[types.size()][2][];
+			int[][][] edges = new int[types.size()][2][];
+			for (int kind = 0; kind < types.size(); kind++)
+				for (int dir = OUT; dir <= IN; dir++) {
+					int[] offset = offsets[kind][dir];
+					for (int i = 0; i < n; i++)
+						offset[i + 1] += offset[i];
+					neighbours[kind][dir] = new int[offset[n]];
+					edges[kind][dir] = new int[offset[n]];
+				}
+			int[][][] cursors = new int[types.size()][2][];
+			for (int kind = 0; kind < types.size(); kind++)
+				for (int dir = OUT; dir <= IN; dir++)
+					cursors[kind][dir] = Arrays.copyOf(offsets[kind][dir], n);
+			for (int i = 0; i < m; i++) {
+				int slot = cursors[kinds[i]][OUT][tails[i]]++;
+				neighbours[kinds[i]][OUT][slot] = heads[i];
+				edges[kinds[i]][OUT][slot] = i;
+				slot = cursors[kinds[i]][IN][heads[i]]++;
+				neighbours[kinds[i]][IN][slot] = tails[i];
+				edges[kinds[i]][IN][slot] = i;
+			}
+
+			this.nodes = Arrays.copyOf(nodes, n);
+			this.indices = indices;
+			this.types = types;
+			this.relationships = Arrays.copyOf(relationships, m);
+			this.probs = Arrays.copyOf(probs, m);
+			this.groups = Arrays.copyOf(groups, m);
+			this.choices = Arrays.copyOf(choices, m);
+			this.widths = Arrays.copyOf(widths, m);
+			this.offsets = offsets;
+			this.neighbours = neighbours;
+			this.edges = edges;
+		}
+	}
+
+	/**
+	 * Returns the index of the node with the given id, or -1 if none.
+	 */
+	public int index(long id) {
+		return id < 0 || id >= indices.length ? -1 : indices[(int) id];
+	}
+
+	/**
+	 * Returns the id of the node with the given index.
+	 */
+	public long id(int node) {
+		return nodes[node];
+	}
+
+	/**
+	 * Returns the index of the relationship type with the given name, or -1 if
+	 * no relationship has it.
+	 */
+	public int type(String name) {
+		Integer result = types.get(name);
+		return null == result ? -1 : result;
+	}
+
+	/**
+	 * Returns the offsets of the relationships of the given type that may be
+	 * followed from each node in the given direction, which must not be
+	 * {@link Direction#BOTH}.
+	 */
+	int[] offsets(int type, Direction direction) {
+		return offsets[type][Direction.OUTGOING == direction ? OUT : IN];
+	}
+
+	int[] neighbours(int type, Direction direction) {
+		return neighbours[type][Direction.OUTGOING == direction ? OUT : IN];
+	}
+
+	int[] edges(int type, Direction direction) {
+		return edges[type][Direction.OUTGOING == direction ? OUT : IN];
+	}
+
+	/**
+	 * Returns the number of nodes.
+	 */
+	public int nodes() {
+		return nodes.length;
+	}
+
+	/**
+	 * Returns the number of relationships.
+	 */
+	public int relationships() {
+		return relationships.length;
+	}
+
+}
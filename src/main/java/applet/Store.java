@@ -0,0 +1,334 @@
+/**
+ *
+ */
+package applet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.neo4j.graphdb.RelationshipType;
+
+/**
+ * On-disk store of compiled BDDs, one file per query signature.
+ *
+ * Each file holds the signature, the relationship types of the query and the
+ * diagram as written by {@link BDD}; since nodes are written children first,
+ * {@link #evaluate(Query)} computes the probability in a single pass over the
+ * file without rebuilding the diagram. The signatures, types and relationship
+ * ids of every entry are indexed in memory when the store is opened, so that
+ * entries can be invalidated when the relationships they depend on change.
+ * Beyond its capacity, the store drops its least recently used entry, along
+ * with its file.
+ *
+ * Saving takes two steps: {@link #draft(Query, BDD)} serializes the diagram,
+ * which must be done holding the lock of its manager, and
+ * {@link #save(Draft)} writes it out, which needs no lock at all; a draft
+ * taken before an entry was invalidated or the store cleared is dropped
+ * rather than saved, since it may depend on what changed. Every other method
+ * locks the store.
+ *
+ * @author stefano
+ *
+ */
+public class Store {
+
+	/**
+	 * A diagram serialized for a query but not saved yet.
+	 */
+	public static class Draft {
+
+		private final byte[] bytes;
+
+		private final long epoch;
+
+		private final String key;
+
+		private final long[] relationships;
+
+		private final String[] types;
+
+		private Draft(String key, String[] types, long[] relationships, byte[] bytes, long epoch) {
+			this.key = key;
+			this.types = types;
+			this.relationships = relationships;
+			this.bytes = bytes;
+			this.epoch = epoch;
+		}
+
+	}
+
+	private static class Entry {
+
+		private final File file;
+
+		private final long[] relationships;
+
+		private final String[] types;
+
+		private Entry(File file, String[] types, long[] relationships) {
+			this.file = file;
+			this.types = types;
+			this.relationships = relationships;
+		}
+
+	}
+
+	private static final String EXTENSION = ".bdd";
+
+	private static final int MAGIC = 0x4E454444;
+
+	private final int capacity;
+
+	private final Map<Long, Set<String>> dependants;
+
+	private final File directory;
+
+	private final LinkedHashMap<String, Entry> entries;
+
+	private long epoch = 0;
+
+	public Store(String path, int capacity) {
+		if (null == path || (path = path.trim()).isEmpty())
+			throw new IllegalArgumentException("Illegal 'path' argument in Store(String, int): " + path);
+		if (capacity < 1)
+			throw new IllegalArgumentException("Illegal 'capacity' argument in Store(String, int): " + capacity);
+		this.directory = new File(path);
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IllegalArgumentException("Illegal 'path' argument in Store(String, int): " + path);
+		this.capacity = capacity;
+		this.dependants = new HashMap<>();
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Store.Entry> eldest) {
+				if (size() <= Store.this.capacity)
+					return false;
+				unindex(eldest.getKey(), eldest.getValue());
+				eldest.getValue().file.delete();
+				return true;
+			}
+
+		};
+		// the files last written are the last evicted
+		File[] files = directory.listFiles();
+		Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+		for (File file : files)
+			if (file.getName().endsWith(EXTENSION))
+				try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+					if (MAGIC != in.readInt())
+						continue;
+					String key = in.readUTF();
+					String[] types = new String[in.readInt()];
+					for (int i = 0; i < types.length; i++)
+						types[i] = in.readUTF();
+					long[] relationships = new long[in.readInt()];
+					for (int i = 0; i < relationships.length; i++) {
+						relationships[i] = in.readLong();
+						in.readDouble();
+					}
+					index(key, new Entry(file, types, relationships));
+				} catch (IOException e) {
+					file.delete();
+				}
+	}
+
+	private void index(String key, Entry entry) {
+		for (long relationship : entry.relationships) {
+			Set<String> keys = dependants.get(relationship);
+			if (null == keys) {
+				keys = new HashSet<>();
+				dependants.put(relationship, keys);
+			}
+			keys.add(key);
+		}
+		entries.put(key, entry);
+	}
+
+	private void unindex(String key, Entry entry) {
+		for (long relationship : entry.relationships) {
+			Set<String> keys = dependants.get(relationship);
+			keys.remove(key);
+			if (keys.isEmpty())
+				dependants.remove(relationship);
+		}
+	}
+
+	public synchronized boolean contains(Query query) {
+		if (null == query)
+			throw new IllegalArgumentException("Illegal 'query' argument in Store.contains(Query): " + query);
+		return entries.containsKey(query.toString());
+	}
+
+	/**
+	 * Computes the probability of the diagram stored for the given query.
+	 */
+	public synchronized double evaluate(Query query) {
+		if (null == query || !contains(query))
+			throw new IllegalArgumentException("Illegal 'query' argument in Store.evaluate(Query): " + query);
+		Entry entry = entries.get(query.toString());
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(entry.file)))) {
+			in.readInt();
+			in.readUTF();
+			for (int i = in.readInt(); i > 0; i--)
+				in.readUTF();
+			double[] probs = new double[in.readInt()];
+			for (int i = 0; i < probs.length; i++) {
+				in.readLong();
+				probs[i] = in.readDouble();
+			}
+			double[] values = new double[2 + in.readInt()];
+			values[0] = 0.0;
+			values[1] = 1.0;
+			for (int i = 2; i < values.length; i++) {
+				double prob = probs[in.readInt()];
+				double lo = values[in.readInt()];
+				double hi = values[in.readInt()];
+				values[i] = prob * hi + (1.0 - prob) * lo;
+			}
+			return values[in.readInt()];
+		} catch (IOException e) {
+			remove(query.toString());
+			throw new IllegalArgumentException("Illegal 'query' argument in Store.evaluate(Query): " + query);
+		}
+	}
+
+	/**
+	 * Returns the ids of the relationships the diagram stored for the given
+	 * query depends on.
+	 */
+	public synchronized long[] relationships(Query query) {
+		if (null == query || !contains(query))
+			throw new IllegalArgumentException("Illegal 'query' argument in Store.relationships(Query): " + query);
+		return entries.get(query.toString()).relationships.clone();
+	}
+
+	/**
+	 * Serializes the given diagram for the given query, to be saved by
+	 * {@link #save(Draft)}, or returns {@code null} if the diagram is over
+	 * choice groups, since the format only knows independent variables; must
+	 * be called holding the lock of the manager of the diagram.
+	 */
+	public Draft draft(Query query, BDD bdd) {
+		if (null == query)
+			throw new IllegalArgumentException("Illegal 'query' argument in Store.draft(Query, BDD): " + query);
+		if (null == bdd)
+			throw new IllegalArgumentException("Illegal 'bdd' argument in Store.draft(Query, BDD): " + bdd);
+		if (bdd.isGrouped())
+			return null;
+		long epoch;
+		synchronized (this) {
+			epoch = this.epoch;
+		}
+		String key = query.toString();
+		String[] types = query.getTypes();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		long[] relationships;
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeInt(MAGIC);
+			out.writeUTF(key);
+			out.writeInt(types.length);
+			for (String type : types)
+				out.writeUTF(type);
+			relationships = bdd.write(out);
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Illegal 'bdd' argument in Store.draft(Query, BDD): " + bdd);
+		}
+		return new Draft(key, types, relationships, bytes.toByteArray(), epoch);
+	}
+
+	/**
+	 * Saves the given draft, replacing any previous entry for its query,
+	 * unless an entry was invalidated or the store cleared since it was
+	 * taken; the file is written before the store is locked.
+	 */
+	public void save(Draft draft) {
+		if (null == draft)
+			throw new IllegalArgumentException("Illegal 'draft' argument in Store.save(Draft): " + draft);
+		File file;
+		try {
+			file = File.createTempFile(String.format("%08x-", draft.key.hashCode()), EXTENSION, directory);
+			try (OutputStream out = new FileOutputStream(file)) {
+				out.write(draft.bytes);
+			} catch (IOException e) {
+				file.delete();
+				throw e;
+			}
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Illegal 'draft' argument in Store.save(Draft): " + draft);
+		}
+		synchronized (this) {
+			if (draft.epoch != epoch) {
+				file.delete();
+				return;
+			}
+			remove(draft.key);
+			index(draft.key, new Entry(file, draft.types, draft.relationships));
+		}
+	}
+
+	/**
+	 * Drops every entry whose paths may use relationships of the given type;
+	 * a new relationship of that type may open paths no entry knows about.
+	 */
+	public synchronized void invalidate(RelationshipType type) {
+		if (null == type)
+			throw new IllegalArgumentException("Illegal 'type' argument in Store.invalidate(RelationshipType): " + type);
+		Set<String> keys = new HashSet<>();
+		for (Map.Entry<String, Entry> item : entries.entrySet())
+			for (String name : item.getValue().types)
+				if (name.equals(type.name()))
+					keys.add(item.getKey());
+		epoch += 1;
+		for (String key : keys)
+			remove(key);
+	}
+
+	/**
+	 * Drops every entry depending on the relationship with the given id.
+	 */
+	public synchronized void invalidate(long relationship) {
+		Set<String> keys = dependants.get(relationship);
+		epoch += 1;
+		if (null != keys)
+			for (String key : new HashSet<>(keys))
+				remove(key);
+	}
+
+	/**
+	 * Drops every entry.
+	 */
+	public synchronized void clear() {
+		epoch += 1;
+		for (String key : new HashSet<>(entries.keySet()))
+			remove(key);
+	}
+
+	private void remove(String key) {
+		Entry entry = entries.remove(key);
+		if (null != entry) {
+			unindex(key, entry);
+			entry.file.delete();
+		}
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+}
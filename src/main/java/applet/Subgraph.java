@@ -0,0 +1,387 @@
+/**
+ *
+ */
+package applet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+
+/**
+ * The part of the graph that may lie on a path from a source to a target,
+ * copied into flat arrays.
+ *
+ * Only the nodes that are both reachable from the source and able to reach
+ * the target, following the given relationship types and directions, are
+ * kept, so that no search ever expands a region it cannot leave towards the
+ * target. Since paths start at the source and end at the target, neither the
+ * relationships entering the source nor those leaving the target are kept.
+ *
+ * Nodes are numbered from {@link #SOURCE}, followed by the targets; if no
+ * target can be reached, these are the only nodes and have no relationships. The relationships that may be followed from
+ * node {@code i} are stored, in compressed sparse row form, at
+ * {@code offsets[i]} up to {@code offsets[i + 1]} of {@code neighbours},
+ * {@code relationships} (their ids), {@code probs} and, for those depending on
+ * a choice, {@code groups} (-1 for the others), {@code choices} and
+ * {@code widths} (the number of choices of the group), which are not copied
+ * for speed and must not be changed.
+ *
+ * Must be built inside a transaction, unless built out of a {@link Snapshot}.
+ *
+ * @author stefano
+ *
+ */
+public class Subgraph {
+
+	public static final int SOURCE = 0;
+
+	public static final int TARGET = 1;
+
+	private static final String CHOICE = "choice";
+
+	private static final String CHOICES = "choices";
+
+	private static final String GROUP = "group";
+
+	private static final String PROB = "prob";
+
+	final int[] choices, widths;
+
+	private final boolean connected;
+
+	final long[] groups;
+
+	final int[] neighbours, offsets;
+
+	final double[] probs;
+
+	final long[] relationships;
+
+	final int targets;
+
+	public Subgraph(Node source, Node target, RelationshipType[] types, Direction[] directions) {
+		this(source, new Node[] { target }, types, directions);
+	}
+
+	/**
+	 * Builds the subgraph shared by the paths from the given source to any of
+	 * the given targets, numbered from {@link #TARGET} in the given order. With
+	 * more than one target, a path may go on through a target towards another
+	 * one, so the relationships leaving the targets are kept.
+	 */
+	public Subgraph(Node source, Node[] targets, RelationshipType[] types, Direction[] directions) {
+		if (null == source)
+			throw new IllegalArgumentException("Illegal 'source' argument in Subgraph(Node, Node[], RelationshipType[], Direction[]): " + source);
+		if (null == targets || 0 == targets.length || new HashSet<>(Arrays.asList(targets)).size() != targets.length)
+			throw new IllegalArgumentException("Illegal 'targets' argument in Subgraph(Node, Node[], RelationshipType[], Direction[]): " + Arrays.toString(targets));
+		for (Node target : targets)
+			if (null == target || target.equals(source))
+				throw new IllegalArgumentException("Illegal 'targets' argument in Subgraph(Node, Node[], RelationshipType[], Direction[]): " + Arrays.toString(targets));
+		if (null == types || 0 == types.length)
+			throw new IllegalArgumentException("Illegal 'types' argument in Subgraph(Node, Node[], RelationshipType[], Direction[]): " + Arrays.toString(types));
+		if (null == directions || directions.length != types.length)
+			throw new IllegalArgumentException("Illegal 'directions' argument in Subgraph(Node, Node[], RelationshipType[], Direction[]): " + Arrays.toString(directions));
+		this.targets = targets.length;
+		Direction[] reverse = new Direction[directions.length];
+		for (int i = 0; i < directions.length; i++)
+			reverse[i] = directions[i].reverse();
+		Set<Node> ends = new HashSet<>();
+		if (1 == targets.length)
+			ends.add(targets[0]);
+		Set<Node> forward = reach(Collections.singletonList(source), ends, types, directions, null);
+		List<Node> nodes = new ArrayList<>();
+		Map<Node, Integer> indices = new HashMap<>();
+		indices.put(source, SOURCE);
+		nodes.add(source);
+		List<Node> reached = new ArrayList<>();
+		for (Node target : targets) {
+			indices.put(target, nodes.size());
+			nodes.add(target);
+			if (forward.contains(target))
+				reached.add(target);
+		}
+		this.connected = !reached.isEmpty();
+		if (connected) {
+			Set<Node> backward = reach(reached, Collections.singleton(source), types, reverse, forward);
+			for (Node node : forward)
+				if (backward.contains(node) && !indices.containsKey(node)) {
+					indices.put(node, nodes.size());
+					nodes.add(node);
+				}
+		}
+
+		int n = 0;
+		this.offsets = new int[nodes.size() + 1];
+		int[] neighbours = new int[16];
+		long[] relationships = new long[16];
+		double[] probs = new double[16];
+		long[] groups = new long[16];
+		int[] choices = new int[16];
+		int[] widths = new int[16];
+		for (int i = 0; i < nodes.size(); i++) {
+			offsets[i] = n;
+			Node node = nodes.get(i);
+			if (!connected || ends.contains(node) || (isTarget(i) && !forward.contains(node)))
+				continue;
+			for (Relationship relationship : relationships(node, types, directions)) {
+				Integer other = indices.get(relationship.getOtherNode(node));
+				if (null == other || SOURCE == other || i == other)
+					continue;
+				if (n == neighbours.length) {
+					neighbours = Arrays.copyOf(neighbours, 2 * n);
+					relationships = Arrays.copyOf(relationships, 2 * n);
+					probs = Arrays.copyOf(probs, 2 * n);
+					groups = Arrays.copyOf(groups, 2 * n);
+					choices = Arrays.copyOf(choices, 2 * n);
+					widths = Arrays.copyOf(widths, 2 * n);
+				}
+				neighbours[n] = other;
+				relationships[n] = relationship.getId();
+				groups[n] = -1L;
+				if (relationship.hasProperty(GROUP)) {
+					groups[n] = ((Number) relationship.getProperty(GROUP)).longValue();
+					choices[n] = ((Number) relationship.getProperty(CHOICE, 1)).intValue();
+					widths[n] = ((Number) relationship.getProperty(CHOICES, choices[n] + 1)).intValue();
+				}
+				probs[n++] = (double) relationship.getProperty(PROB, 1.0);
+			}
+		}
+		offsets[nodes.size()] = n;
+		this.neighbours = Arrays.copyOf(neighbours, n);
+		this.relationships = Arrays.copyOf(relationships, n);
+		this.probs = Arrays.copyOf(probs, n);
+		this.groups = Arrays.copyOf(groups, n);
+		this.choices = Arrays.copyOf(choices, n);
+		this.widths = Arrays.copyOf(widths, n);
+	}
+
+	/**
+	 * Builds the same subgraph as
+	 * {@link #Subgraph(Node, Node[], RelationshipType[], Direction[])} out of
+	 * the given snapshot, given the ids of the nodes and the names of the
+	 * relationship types; the graph itself is not read, so no transaction is
+	 * needed.
+	 */
+	public Subgraph(Snapshot snapshot, long source, long[] targets, String[] types, Direction[] directions) {
+		if (null == snapshot)
+			throw new IllegalArgumentException("Illegal 'snapshot' argument in Subgraph(Snapshot, long, long[], String[], Direction[]): " + snapshot);
+		if (snapshot.index(source) < 0)
+			throw new IllegalArgumentException("Illegal 'source' argument in Subgraph(Snapshot, long, long[], String[], Direction[]): " + source);
+		if (null == targets || 0 == targets.length)
+			throw new IllegalArgumentException("Illegal 'targets' argument in Subgraph(Snapshot, long, long[], String[], Direction[]): " + Arrays.toString(targets));
+		if (null == types || 0 == types.length || Arrays.asList(types).contains(null))
+			throw new IllegalArgumentException("Illegal 'types' argument in Subgraph(Snapshot, long, long[], String[], Direction[]): " + Arrays.toString(types));
+		if (null == directions || directions.length != types.length || Arrays.asList(directions).contains(null))
+			throw new IllegalArgumentException("Illegal 'directions' argument in Subgraph(Snapshot, long, long[], String[], Direction[]): " + Arrays.toString(directions));
+		int size = snapshot.nodes();
+		int[] indices = new int[size];
+		Arrays.fill(indices, -1);
+		int[] nodes = new int[size];
+		nodes[SOURCE] = snapshot.index(source);
+		indices[nodes[SOURCE]] = SOURCE;
+		for (int i = 0; i < targets.length; i++) {
+			int node = snapshot.index(targets[i]);
+			if (node < 0 || indices[node] >= 0)
+				throw new IllegalArgumentException("Illegal 'targets' argument in Subgraph(Snapshot, long, long[], String[], Direction[]): " + Arrays.toString(targets));
+			indices[node] = TARGET + i;
+			nodes[TARGET + i] = node;
+		}
+		this.targets = targets.length;
+
+		// each type is walked at most once per direction, so that no
+		// relationship but a loop is met twice from the same node
+		int[] kinds = new int[2 * types.length];
+		Direction[] sides = new Direction[2 * types.length];
+		int pairs = 0;
+		for (int i = 0; i < types.length; i++) {
+			int kind = snapshot.type(types[i]);
+			if (kind < 0)
+				continue;
+			for (Direction side : new Direction[] { Direction.OUTGOING, Direction.INCOMING })
+				if (Direction.BOTH == directions[i] || side == directions[i]) {
+					boolean seen = false;
+					for (int j = 0; j < pairs && !seen; j++)
+						seen = kinds[j] == kind && sides[j] == side;
+					if (!seen) {
+						kinds[pairs] = kind;
+						sides[pairs++] = side;
+					}
+				}
+		}
+		Direction[] reverse = new Direction[pairs];
+		for (int i = 0; i < pairs; i++)
+			reverse[i] = sides[i].reverse();
+
+		boolean[] ends = new boolean[size];
+		if (1 == targets.length)
+			ends[nodes[TARGET]] = true;
+		boolean[] forward = new boolean[size];
+		int[] queue = new int[size];
+		queue[0] = nodes[SOURCE];
+		int reached = reach(snapshot, queue, 1, forward, ends, kinds, sides, pairs, null);
+		int starts = 0;
+		int[] backwardQueue = new int[size];
+		for (int i = 0; i < targets.length; i++)
+			if (forward[nodes[TARGET + i]])
+				backwardQueue[starts++] = nodes[TARGET + i];
+		this.connected = starts > 0;
+		int count = TARGET + targets.length;
+		if (connected) {
+			boolean[] backward = new boolean[size];
+			Arrays.fill(ends, false);
+			ends[nodes[SOURCE]] = true;
+			reach(snapshot, backwardQueue, starts, backward, ends, kinds, reverse, pairs, forward);
+			for (int i = 0; i < reached; i++) {
+				int node = queue[i];
+				if (backward[node] && indices[node] < 0) {
+					indices[node] = count;
+					nodes[count++] = node;
+				}
+			}
+		}
+
+		int n = 0;
+		this.offsets = new int[count + 1];
+		int[] neighbours = new int[16];
+		long[] relationships = new long[16];
+		double[] probs = new double[16];
+		long[] groups = new long[16];
+		int[] choices = new int[16];
+		int[] widths = new int[16];
+		for (int i = 0; i < count; i++) {
+			offsets[i] = n;
+			int node = nodes[i];
+			if (!connected || (1 == targets.length && TARGET == i) || (isTarget(i) && !forward[node]))
+				continue;
+			for (int j = 0; j < pairs; j++) {
+				int[] offset = snapshot.offsets(kinds[j], sides[j]);
+				int[] others = snapshot.neighbours(kinds[j], sides[j]);
+				int[] edges = snapshot.edges(kinds[j], sides[j]);
+				for (int k = offset[node]; k < offset[node + 1]; k++) {
+					int other = indices[others[k]];
+					if (other < 0 || SOURCE == other || i == other)
+						continue;
+					if (n == neighbours.length) {
+						neighbours = Arrays.copyOf(neighbours, 2 * n);
+						relationships = Arrays.copyOf(relationships, 2 * n);
+						probs = Arrays.copyOf(probs, 2 * n);
+						groups = Arrays.copyOf(groups, 2 * n);
+						choices = Arrays.copyOf(choices, 2 * n);
+						widths = Arrays.copyOf(widths, 2 * n);
+					}
+					neighbours[n] = other;
+					relationships[n] = snapshot.relationships[edges[k]];
+					groups[n] = snapshot.groups[edges[k]];
+					choices[n] = snapshot.choices[edges[k]];
+					widths[n] = snapshot.widths[edges[k]];
+					probs[n++] = snapshot.probs[edges[k]];
+				}
+			}
+		}
+		offsets[count] = n;
+		this.neighbours = Arrays.copyOf(neighbours, n);
+		this.relationships = Arrays.copyOf(relationships, n);
+		this.probs = Arrays.copyOf(probs, n);
+		this.groups = Arrays.copyOf(groups, n);
+		this.choices = Arrays.copyOf(choices, n);
+		this.widths = Arrays.copyOf(widths, n);
+	}
+
+	/**
+	 * Walks the snapshot breadth-first from the first {@code starts} nodes of
+	 * the given queue, which is filled with the nodes reached, marked as such,
+	 * without going through the given ends and only through the given nodes
+	 * unless {@code null}; returns how many were reached.
+	 */
+	private static int reach(Snapshot snapshot, int[] queue, int starts, boolean[] result, boolean[] ends, int[] kinds, Direction[] sides, int pairs, boolean[] within) {
+		int tail = starts;
+		for (int i = 0; i < starts; i++)
+			result[queue[i]] = true;
+		for (int i = 0; i < tail; i++) {
+			int node = queue[i];
+			if (ends[node])
+				continue;
+			for (int j = 0; j < pairs; j++) {
+				int[] offset = snapshot.offsets(kinds[j], sides[j]);
+				int[] others = snapshot.neighbours(kinds[j], sides[j]);
+				for (int k = offset[node]; k < offset[node + 1]; k++) {
+					int other = others[k];
+					if ((null == within || within[other]) && !result[other]) {
+						result[other] = true;
+						queue[tail++] = other;
+					}
+				}
+			}
+		}
+		return tail;
+	}
+
+	/**
+	 * Returns the nodes reachable from the given starts without going through
+	 * the given ends, in breadth-first order, only walking through the given
+	 * nodes unless {@code null}.
+	 */
+	private static Set<Node> reach(Collection<Node> starts, Set<Node> ends, RelationshipType[] types, Direction[] directions, Set<Node> within) {
+		List<Node> queue = new ArrayList<>(starts);
+		Set<Node> result = new LinkedHashSet<>(starts);
+		for (int i = 0; i < queue.size(); i++) {
+			Node node = queue.get(i);
+			if (ends.contains(node))
+				continue;
+			for (Relationship relationship : relationships(node, types, directions)) {
+				Node other = relationship.getOtherNode(node);
+				if ((null == within || within.contains(other)) && result.add(other))
+					queue.add(other);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the relationships that may be followed from the given node, each
+	 * once.
+	 */
+	private static List<Relationship> relationships(Node node, RelationshipType[] types, Direction[] directions) {
+		List<Relationship> result = new ArrayList<>();
+		Set<Long> seen = new HashSet<>();
+		for (int i = 0; i < types.length; i++)
+			for (Relationship relationship : node.getRelationships(directions[i], types[i]))
+				if (seen.add(relationship.getId()))
+					result.add(relationship);
+		return result;
+	}
+
+	/**
+	 * Tells whether any target may be reached from the source at all.
+	 */
+	public boolean isConnected() {
+		return connected;
+	}
+
+	/**
+	 * Tells whether the given node is one of the targets.
+	 */
+	public boolean isTarget(int node) {
+		return node >= TARGET && node <= targets;
+	}
+
+	/**
+	 * Returns the number of nodes kept.
+	 */
+	public int size() {
+		return offsets.length - 1;
+	}
+
+}
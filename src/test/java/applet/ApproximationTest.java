@@ -0,0 +1,135 @@
+/**
+ *
+ */
+package applet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+
+/**
+ * Checks that the bounds of an {@link Approximation} always bracket the exact
+ * probability a {@link Problem} computes on small generated grids, however
+ * short the time given, and that they meet it when given enough.
+ *
+ * @author stefano
+ *
+ */
+public class ApproximationTest {
+
+	private static enum RelType implements RelationshipType {
+		EDGE;
+	}
+
+	private static final double DELTA = 1e-9;
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private final Manager manager = new Manager();
+
+	private final Map<String, Node> nodes = new HashMap<>();
+
+	private Problem problem;
+
+	private Node source, target;
+
+	@Before
+	public void start() {
+		problem = new Problem(folder.getRoot().getPath());
+	}
+
+	@After
+	public void stop() {
+		problem.close();
+	}
+
+	@Test
+	public void testBounds() {
+		generate(0);
+		check(problem.correlate(source, target, RelType.EDGE, Direction.BOTH));
+	}
+
+	@Test
+	public void testGroups() {
+		generate(3);
+		check(problem.correlate(source, target, RelType.EDGE, Direction.BOTH));
+	}
+
+	/**
+	 * Bounds are only as far apart as the tolerance allows, given the time.
+	 */
+	@Test
+	public void testTolerance() {
+		generate(0);
+		double exact = problem.correlate(source, target, RelType.EDGE, Direction.BOTH);
+		for (double tolerance : new double[] { 0.5, 0.1, 0.01 }) {
+			double[] result = bounds(60_000, tolerance);
+			assertTrue(result[1] - result[0] <= tolerance);
+			assertTrue(result[0] <= exact + DELTA && exact <= result[1] + DELTA);
+		}
+	}
+
+	/**
+	 * A result already computed is returned as exact bounds.
+	 */
+	@Test
+	public void testKnown() {
+		generate(0);
+		double exact = problem.correlate(source, target, RelType.EDGE, Direction.BOTH);
+		double[] result = problem.approximate(0, 0.0, source, target, RelType.EDGE, Direction.BOTH);
+		assertArrayEquals(new double[] { exact, exact }, result, 0.0);
+	}
+
+	/**
+	 * Checks that the bounds bracket the given exact value whatever the time
+	 * given, and meet it with no tolerance and time enough.
+	 */
+	private void check(double exact) {
+		assertTrue(exact > 0.0 && exact < 1.0);
+		for (long millis : new long[] { 0, 1, 10, 100 }) {
+			double[] result = bounds(millis, 0.0);
+			assertTrue(0.0 <= result[0] && result[0] <= result[1] && result[1] <= 1.0);
+			assertTrue(result[0] <= exact + DELTA && exact <= result[1] + DELTA);
+		}
+		double[] result = bounds(60_000, 0.0);
+		assertEquals(exact, result[0], DELTA);
+		assertEquals(exact, result[1], DELTA);
+	}
+
+	private double[] bounds(long millis, double tolerance) {
+		try (Transaction tx = problem.getGraph().beginTx()) {
+			double[] result = new Approximation(manager, RelType.EDGE, Direction.BOTH).bounds(source, target, millis, tolerance);
+			tx.success();
+			return result;
+		}
+	}
+
+	/**
+	 * Writes a grid of 16 nodes, with the given number of choices per group.
+	 */
+	private void generate(int groups) {
+		Generator generator = new Generator(7);
+		generator.setGroups(groups);
+		generator.setProbabilities(0.3, 0.7);
+		try (Loader loader = new Loader(problem.getGraph(), RelType.EDGE, nodes)) {
+			generator.generate(loader, Generator.Topology.GRID, 16, 4);
+		}
+		source = nodes.get(generator.getSource());
+		target = nodes.get(generator.getTarget());
+	}
+
+}
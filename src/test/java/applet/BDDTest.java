@@ -0,0 +1,459 @@
+/**
+ *
+ */
+package applet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+
+/**
+ * Checks the probability, the gradient and the most probable explanation of
+ * small random diagrams, with and without sifting and choice groups, against
+ * the enumeration of all their worlds.
+ *
+ * A group either leaves room for the choice of none or has choices adding up
+ * to exactly one; since neither a path nor a derivative is well defined in the
+ * latter case, only the probability and the most probable world are checked
+ * there.
+ *
+ * @author stefano
+ *
+ */
+public class BDDTest {
+
+	private static enum RelType implements RelationshipType {
+		EDGE;
+	}
+
+	/**
+	 * A random disjunction of paths over independent relationships and
+	 * choices, with the worlds it holds in.
+	 */
+	private static class Case {
+
+		/**
+		 * The relationships, and for each the index of its group or -1 and
+		 * its probability.
+		 */
+		private final List<Relationship> atoms = new ArrayList<>();
+
+		private final List<Integer> owners = new ArrayList<>();
+
+		private final List<Double> probs = new ArrayList<>();
+
+		/**
+		 * The relationships of each group and the probability of none of
+		 * them, 0 if the group has no such choice.
+		 */
+		private final List<List<Integer>> groups = new ArrayList<>();
+
+		private final List<Double> rests = new ArrayList<>();
+
+		private final List<int[]> paths = new ArrayList<>();
+
+		private int[] radices;
+
+		/**
+		 * Returns the number of worlds, numbered as mixed-radix counters with
+		 * a digit for each independent relationship (on or off) and one for
+		 * each group (one of its relationships or none).
+		 */
+		private int worlds() {
+			List<Integer> result = new ArrayList<>();
+			for (int atom = 0; atom < atoms.size(); atom++)
+				if (owners.get(atom) < 0)
+					result.add(2);
+			for (int group = 0; group < groups.size(); group++)
+				result.add(groups.get(group).size() + (rests.get(group) > 0.0 ? 1 : 0));
+			radices = new int[result.size()];
+			int count = 1;
+			for (int i = 0; i < radices.length; i++)
+				count *= radices[i] = result.get(i);
+			return count;
+		}
+
+		/**
+		 * Fills the relationships on in the given world and returns its
+		 * probability, leaving out the factor of the given independent
+		 * relationship or group (if not negative).
+		 */
+		private double world(int world, boolean[] on, int skipAtom, int skipGroup) {
+			Arrays.fill(on, false);
+			double result = 1.0;
+			int digit = 0;
+			for (int atom = 0; atom < atoms.size(); atom++)
+				if (owners.get(atom) < 0) {
+					int value = world % radices[digit];
+					world /= radices[digit++];
+					on[atom] = 1 == value;
+					if (atom != skipAtom)
+						result *= on[atom] ? probs.get(atom) : 1.0 - probs.get(atom);
+				}
+			for (int group = 0; group < groups.size(); group++) {
+				int value = world % radices[digit];
+				world /= radices[digit++];
+				List<Integer> members = groups.get(group);
+				double weight = value < members.size() ? probs.get(members.get(value)) : rests.get(group);
+				if (value < members.size())
+					on[members.get(value)] = true;
+				if (group != skipGroup)
+					result *= weight;
+			}
+			return result;
+		}
+
+		private boolean holds(boolean[] on) {
+			for (int[] path : paths) {
+				boolean all = true;
+				for (int atom : path)
+					all &= on[atom];
+				if (all)
+					return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Returns the option the given world takes for the given group, the
+		 * number of its relationships standing for none.
+		 */
+		private int option(boolean[] on, int group) {
+			List<Integer> members = groups.get(group);
+			for (int i = 0; i < members.size(); i++)
+				if (on[members.get(i)])
+					return i;
+			return members.size();
+		}
+
+		private boolean complete() {
+			return rests.contains(0.0);
+		}
+
+	}
+
+	private static final double DELTA = 1e-9;
+
+	/**
+	 * Choices of groups adding up to exactly one, by size.
+	 */
+	private static final double[][][] FULL = { {}, {}, { { 0.5, 0.5 }, { 0.25, 0.75 } }, { { 0.25, 0.25, 0.5 }, { 0.125, 0.375, 0.5 } } };
+
+	private static final int TRIALS = 300;
+
+	@ClassRule
+	public static final TemporaryFolder folder = new TemporaryFolder();
+
+	private static GraphDatabaseService graph;
+
+	private static long groups = 0;
+
+	private static Node head;
+
+	private static Node tail;
+
+	@BeforeClass
+	public static void start() {
+		graph = new GraphDatabaseFactory().newEmbeddedDatabase(folder.getRoot().getPath());
+		try (Transaction tx = graph.beginTx()) {
+			tail = graph.createNode();
+			head = graph.createNode();
+			tx.success();
+		}
+	}
+
+	@AfterClass
+	public static void stop() {
+		graph.shutdown();
+	}
+
+	@Test
+	public void testIndependent() {
+		Random random = new Random(1);
+		for (int trial = 0; trial < TRIALS; trial++)
+			check(random, new Manager(), trial % 2 == 0 ? 0 : 4, false);
+	}
+
+	@Test
+	public void testGroups() {
+		Random random = new Random(2);
+		for (int trial = 0; trial < TRIALS; trial++)
+			check(random, new Manager(), trial % 2 == 0 ? 0 : 4, true);
+	}
+
+	/**
+	 * Runs the trials on the same manager, so that each diagram recycles the
+	 * variables of those closed before it.
+	 */
+	@Test
+	public void testShared() {
+		Random random = new Random(3);
+		Manager manager = new Manager();
+		for (int trial = 0; trial < TRIALS; trial++)
+			check(random, manager, trial % 2 == 0 ? 0 : 4, trial % 3 > 0);
+	}
+
+	/**
+	 * A diagram started on the same manager after another declared its
+	 * relationships, but before it added its paths, leaves them declared.
+	 */
+	@Test
+	public void testDeclared() {
+		Manager manager = new Manager();
+		try (Transaction tx = graph.beginTx()) {
+			Set<Set<Relationship>> expression = new HashSet<>();
+			Set<Relationship> relationships = new HashSet<>();
+			double none = 1.0;
+			for (int i = 0; i < 300; i++) {
+				Relationship relationship = tail.createRelationshipTo(head, RelType.EDGE);
+				relationship.setProperty("prob", 0.01);
+				relationships.add(relationship);
+				expression.add(new HashSet<>(Arrays.asList(relationship)));
+				none *= 0.99;
+			}
+			try (BDD first = new BDD(manager, BDD.Ordering.INSERTION, 0)) {
+				first.declare(expression, relationships);
+				assertEquals(300, manager.variables());
+				try (BDD second = new BDD(manager, 0)) {
+					assertEquals(300, manager.variables());
+				}
+				for (Set<Relationship> path : expression)
+					first.add(path);
+				assertEquals(300, manager.variables());
+				assertEquals(1.0 - none, first.traverse(), DELTA);
+			}
+			tx.failure();
+		}
+	}
+
+	@Test
+	public void testSifting() {
+		Random random = new Random(4);
+		int sifted = 0;
+		for (int trial = 0; trial < TRIALS; trial++)
+			if (check(random, new Manager(), 1, trial % 2 == 0))
+				sifted += 1;
+		assertTrue("no diagram was sifted", sifted > 0);
+	}
+
+	/**
+	 * Builds a random case, compiles it and checks the diagram against the
+	 * enumeration of its worlds; returns whether the diagram was sifted.
+	 */
+	private static boolean check(Random random, Manager manager, int threshold, boolean grouped) {
+		try (Transaction tx = graph.beginTx()) {
+			Case c = generate(random, grouped);
+			try (BDD bdd = new BDD(manager, threshold)) {
+				for (int[] path : c.paths) {
+					List<Relationship> relationships = new ArrayList<>();
+					for (int atom : path)
+						relationships.add(c.atoms.get(atom));
+					bdd.add(relationships);
+				}
+				check(c, bdd);
+				tx.success();
+				return bdd.isSifted();
+			}
+		}
+	}
+
+	private static void check(Case c, BDD bdd) {
+		int worlds = c.worlds();
+		boolean[] on = new boolean[c.atoms.size()];
+		String message = c.paths.size() + " paths over " + c.atoms.size() + " relationships in " + c.groups.size() + " groups";
+
+		double exact = 0.0;
+		double world = 0.0;
+		for (int w = 0; w < worlds; w++) {
+			double prob = c.world(w, on, -1, -1);
+			if (c.holds(on)) {
+				exact += prob;
+				world = Math.max(world, prob);
+			}
+		}
+		assertEquals(message, exact, bdd.traverse(), DELTA);
+		assertEquals(message, exact, bdd.traverse(BDD.Evaluation.ALL_PATHS), DELTA);
+
+		// the world only weighs the relationships the diagram tests, the
+		// others taking their likeliest value whatever the diagram
+		Set<Long> tested = new HashSet<>();
+		for (long id : bdd.relationships())
+			tested.add(id);
+		for (int atom = 0; atom < c.atoms.size(); atom++)
+			if (c.owners.get(atom) < 0 && !tested.contains(c.atoms.get(atom).getId()))
+				world /= Math.max(c.probs.get(atom), 1.0 - c.probs.get(atom));
+		for (int group = 0; group < c.groups.size(); group++) {
+			double likeliest = c.rests.get(group);
+			boolean test = false;
+			for (int atom : c.groups.get(group)) {
+				likeliest = Math.max(likeliest, c.probs.get(atom));
+				test |= tested.contains(c.atoms.get(atom).getId());
+			}
+			if (!test)
+				world /= likeliest;
+		}
+		BDD.Explanation explanation = bdd.mostProbableExplanation();
+		assertEquals(message, world, explanation.getWorldProbability(), DELTA);
+
+		LongDoubleMap gradient = bdd.gradient();
+		for (int atom = 0; atom < c.atoms.size(); atom++) {
+			int group = c.owners.get(atom);
+			if (group >= 0 && 0.0 == c.rests.get(group))
+				continue;
+			double derivative = 0.0;
+			for (int w = 0; w < worlds; w++) {
+				double prob = c.world(w, on, group < 0 ? atom : -1, group);
+				if (!c.holds(on))
+					continue;
+				if (group < 0)
+					derivative += on[atom] ? prob : -prob;
+				else if (on[atom])
+					derivative += prob;
+				else if (c.option(on, group) == c.groups.get(group).size())
+					derivative -= prob;
+			}
+			assertEquals(message, derivative, gradient.get(c.atoms.get(atom).getId(), 0.0), DELTA);
+		}
+
+		if (c.complete())
+			return;
+		double path = 0.0;
+		for (int[] p : c.paths) {
+			Set<Integer> atoms = new HashSet<>();
+			Set<Integer> owners = new HashSet<>();
+			double prob = 1.0;
+			boolean consistent = true;
+			for (int atom : p)
+				if (atoms.add(atom)) {
+					int group = c.owners.get(atom);
+					consistent &= group < 0 || owners.add(group);
+					prob *= c.probs.get(atom);
+				}
+			if (consistent)
+				path = Math.max(path, prob);
+		}
+		assertEquals(message, path, explanation.getPathProbability(), DELTA);
+		if (exact > 0.0) {
+			assertTrue(message, c.holds(mark(c, explanation.getPath())));
+			assertTrue(message, c.holds(mark(c, explanation.getWorld())));
+		}
+	}
+
+	private static boolean[] mark(Case c, long[] ids) {
+		Set<Long> set = new HashSet<>();
+		for (long id : ids)
+			set.add(id);
+		boolean[] result = new boolean[c.atoms.size()];
+		for (int atom = 0; atom < result.length; atom++)
+			result[atom] = set.contains(c.atoms.get(atom).getId());
+		return result;
+	}
+
+	/**
+	 * Returns a random case, whose relationships are created between the same
+	 * two nodes; only those some path goes through are kept, so that the
+	 * diagram knows every relationship of the enumeration.
+	 */
+	private static Case generate(Random random, boolean grouped) {
+		List<Double> probs = new ArrayList<>();
+		List<Integer> owners = new ArrayList<>();
+		List<Integer> positions = new ArrayList<>();
+		List<double[]> weights = new ArrayList<>();
+		for (int i = random.nextInt(6); i >= 0; i--) {
+			probs.add(random.nextDouble());
+			owners.add(-1);
+			positions.add(-1);
+		}
+		for (int group = grouped ? random.nextInt(3) : -1; group >= 0; group--) {
+			int size = 1 + random.nextInt(3);
+			double[] choices;
+			if (size > 1 && random.nextInt(3) == 0)
+				choices = FULL[size][random.nextInt(FULL[size].length)];
+			else {
+				choices = new double[size + 1];
+				double sum = 0.0;
+				for (int i = 0; i <= size; i++)
+					sum += choices[i] = 0.05 + random.nextDouble();
+				for (int i = 0; i <= size; i++)
+					choices[i] /= sum;
+			}
+			for (int i = 0; i < size; i++) {
+				probs.add(choices[i]);
+				owners.add(weights.size());
+				positions.add(i);
+			}
+			weights.add(choices);
+		}
+
+		List<int[]> paths = new ArrayList<>();
+		boolean[] used = new boolean[probs.size()];
+		for (int i = random.nextInt(6); i >= 0; i--) {
+			int length = 1 + random.nextInt(Math.min(4, probs.size()));
+			Set<Integer> path = new HashSet<>();
+			while (path.size() < length)
+				path.add(random.nextInt(probs.size()));
+			int[] atoms = new int[length];
+			int n = 0;
+			for (int atom : path)
+				used[atoms[n++] = atom] = true;
+			paths.add(atoms);
+		}
+
+		Case result = new Case();
+		int[] atoms = new int[probs.size()];
+		int[] indices = new int[weights.size()];
+		Arrays.fill(indices, -1);
+		long[] ids = new long[weights.size()];
+		for (int atom = 0; atom < probs.size(); atom++) {
+			if (!used[atom])
+				continue;
+			int owner = owners.get(atom);
+			Relationship relationship = tail.createRelationshipTo(head, RelType.EDGE);
+			relationship.setProperty("prob", probs.get(atom));
+			if (owner >= 0) {
+				if (indices[owner] < 0) {
+					indices[owner] = result.groups.size();
+					ids[owner] = groups++;
+					result.groups.add(new ArrayList<Integer>());
+					result.rests.add(1.0);
+				}
+				relationship.setProperty("group", ids[owner]);
+				relationship.setProperty("choice", positions.get(atom) + 1);
+				relationship.setProperty("choices", weights.get(owner).length);
+				result.groups.get(indices[owner]).add(result.atoms.size());
+				result.rests.set(indices[owner], result.rests.get(indices[owner]) - probs.get(atom));
+			}
+			atoms[atom] = result.atoms.size();
+			result.atoms.add(relationship);
+			result.owners.add(owner < 0 ? -1 : indices[owner]);
+			result.probs.add(probs.get(atom));
+		}
+		for (int group = 0; group < result.rests.size(); group++)
+			if (result.rests.get(group) < DELTA)
+				result.rests.set(group, 0.0);
+		for (int[] path : paths)
+			for (int i = 0; i < path.length; i++)
+				path[i] = atoms[path[i]];
+		result.paths.addAll(paths);
+		return result;
+	}
+
+}
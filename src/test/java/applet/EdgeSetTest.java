@@ -0,0 +1,54 @@
+/**
+ *
+ */
+package applet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author stefano
+ *
+ */
+public class EdgeSetTest {
+
+	@Test
+	public void testDirection() {
+		EdgeSet edges = new EdgeSet();
+		assertTrue(edges.add(1, 2, 100));
+		assertFalse(edges.add(2, 1, 100));
+		assertTrue(edges.add(1, 2, 101));
+		assertTrue(edges.contains(2, 1, 101));
+		assertEquals(2, edges.size());
+	}
+
+	@Test
+	public void testChoices() {
+		EdgeSet edges = new EdgeSet();
+		assertTrue(edges.add(1, 2, 100));
+		assertTrue(edges.add(1, 2, 100, 7, 1));
+		assertTrue(edges.add(1, 2, 100, 7, 2));
+		assertTrue(edges.add(1, 2, 100, 8, 1));
+		assertFalse(edges.add(2, 1, 100, 7, 1));
+		// a negative group stands for no choice at all
+		assertFalse(edges.add(2, 1, 100, -1, 3));
+		assertFalse(edges.contains(1, 2, 100, 9, 1));
+		assertEquals(4, edges.size());
+	}
+
+	@Test
+	public void testGrow() {
+		EdgeSet edges = new EdgeSet(1);
+		for (int i = 0; i < 10_000; i++)
+			assertTrue(edges.add(i, i + 1, i % 7, i % 3 - 1, i % 5 + 1));
+		for (int i = 0; i < 10_000; i++) {
+			assertTrue(edges.contains(i + 1, i, i % 7, i % 3 - 1, i % 5 + 1));
+			assertFalse(edges.contains(i, i + 1, i % 7 + 1, i % 3 - 1, i % 5 + 1));
+		}
+		assertEquals(10_000, edges.size());
+	}
+
+}
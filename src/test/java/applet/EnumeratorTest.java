@@ -0,0 +1,167 @@
+/**
+ *
+ */
+package applet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+
+/**
+ * Enumerates the paths across a small grid, with a few dead ends hanging off
+ * it, in every way the {@link Enumerator} offers, and checks them against a
+ * plain depth-first search of the whole graph. The grid has more paths than
+ * the queue of a stream holds, so that its tasks have to wait for room.
+ *
+ * @author stefano
+ *
+ */
+public class EnumeratorTest {
+
+	private static enum RelType implements RelationshipType {
+		EDGE;
+	}
+
+	@ClassRule
+	public static final TemporaryFolder folder = new TemporaryFolder();
+
+	private static GraphDatabaseService graph;
+
+	private static final Map<String, Node> nodes = new HashMap<>();
+
+	private static ForkJoinPool pool;
+
+	private static Node source, target;
+
+	@BeforeClass
+	public static void start() {
+		graph = new GraphDatabaseFactory().newEmbeddedDatabase(folder.getRoot().getPath());
+		pool = new ForkJoinPool(4);
+		Generator generator = new Generator(1);
+		try (Loader loader = new Loader(graph, RelType.EDGE, nodes)) {
+			generator.generate(loader, Generator.Topology.GRID, 25, 4);
+			// dead ends, which no path to the target goes through
+			loader.add(generator.getSource(), "x1", 100);
+			loader.add("x1", "x2", 100);
+			loader.add(Generator.name(12), "x3", 100);
+		}
+		source = nodes.get(generator.getSource());
+		target = nodes.get(generator.getTarget());
+	}
+
+	@AfterClass
+	public static void stop() {
+		pool.shutdown();
+		graph.shutdown();
+	}
+
+	@Test
+	public void testPaths() {
+		Set<String> expected = search(source, target);
+		assertTrue(expected.size() > 1 << 10);
+		assertEquals(expected, strings(new Enumerator(graph, pool).paths(query(target))));
+		assertEquals(expected, strings(new Enumerator(graph, pool, new Snapshot(graph)).paths(query(target))));
+	}
+
+	@Test
+	public void testStream() {
+		Set<String> expected = search(source, target);
+		for (Snapshot snapshot : new Snapshot[] { null, new Snapshot(graph) })
+			try (Enumerator.Paths paths = new Enumerator(graph, pool, snapshot).stream(query(target))) {
+				List<long[]> found = new ArrayList<>();
+				for (long[] path : paths)
+					found.add(path);
+				assertEquals(expected.size(), found.size());
+				assertEquals(expected, strings(found));
+			}
+	}
+
+	/**
+	 * A stream closed early lets go of the tasks waiting for room.
+	 */
+	@Test
+	public void testClose() {
+		try (Enumerator.Paths paths = new Enumerator(graph, pool).stream(query(target))) {
+			int count = 0;
+			for (long[] path : paths)
+				if (++count == 10)
+					break;
+		}
+		assertTrue(pool.awaitQuiescence(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testTargets() {
+		Node[] targets = { target, nodes.get(Generator.name(12)), nodes.get(Generator.name(7)) };
+		List<Query> queries = new ArrayList<>();
+		for (Node node : targets)
+			queries.add(query(node));
+		List<List<long[]>> paths = new Enumerator(graph, pool).paths(queries);
+		for (int i = 0; i < targets.length; i++)
+			assertEquals(search(source, targets[i]), strings(paths.get(i)));
+	}
+
+	private static Query query(Node node) {
+		return new Query(source, node, RelType.EDGE, Direction.BOTH);
+	}
+
+	private static Set<String> strings(List<long[]> paths) {
+		Set<String> result = new HashSet<>();
+		for (long[] path : paths)
+			result.add(Arrays.toString(path));
+		return result;
+	}
+
+	/**
+	 * Returns every simple path between the given nodes, found by a plain
+	 * depth-first search of the whole graph.
+	 */
+	private static Set<String> search(Node from, Node to) {
+		Set<String> result = new HashSet<>();
+		try (Transaction tx = graph.beginTx()) {
+			Set<Node> visited = new HashSet<>();
+			visited.add(from);
+			search(from, to, visited, new ArrayList<Long>(), result);
+			tx.success();
+		}
+		return result;
+	}
+
+	private static void search(Node node, Node to, Set<Node> visited, List<Long> path, Set<String> result) {
+		for (Relationship relationship : node.getRelationships(RelType.EDGE, Direction.BOTH)) {
+			Node other = relationship.getOtherNode(node);
+			if (!visited.add(other))
+				continue;
+			path.add(relationship.getId());
+			if (other.equals(to))
+				result.add(path.toString());
+			else
+				search(other, to, visited, path, result);
+			path.remove(path.size() - 1);
+			visited.remove(other);
+		}
+	}
+
+}
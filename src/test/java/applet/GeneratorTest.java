@@ -0,0 +1,177 @@
+/**
+ *
+ */
+package applet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.helpers.collection.IteratorUtil;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+/**
+ * Generates small graphs of every topology into fresh databases and checks
+ * their sizes, their probabilities and groups, and that the same seed always
+ * yields the same graph.
+ *
+ * @author stefano
+ *
+ */
+public class GeneratorTest {
+
+	private static enum RelType implements RelationshipType {
+		EDGE;
+	}
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private final List<GraphDatabaseService> graphs = new ArrayList<>();
+
+	@After
+	public void stop() {
+		for (GraphDatabaseService graph : graphs)
+			graph.shutdown();
+	}
+
+	@Test
+	public void testSeed() throws IOException {
+		for (Generator.Topology topology : Generator.Topology.values()) {
+			List<String> first = edges(generate(new Generator(5), topology, 40, 4));
+			assertEquals(first, edges(generate(new Generator(5), topology, 40, 4)));
+			assertNotEquals(first, edges(generate(new Generator(6), topology, 40, 4)));
+		}
+		Generator generator = new Generator(5);
+		generator.setGroups(3);
+		List<String> first = edges(generate(generator, Generator.Topology.ERDOS_RENYI, 40, 4));
+		assertEquals(first, edges(generate(generator, Generator.Topology.ERDOS_RENYI, 40, 4)));
+	}
+
+	@Test
+	public void testTopologies() throws IOException {
+		Generator generator = new Generator(5);
+		GraphDatabaseService graph = generate(generator, Generator.Topology.GRID, 16, 4);
+		// 4 rows and 4 columns of 3 edges each
+		assertEquals(24, edges(graph).size());
+		assertEquals(Generator.name(15), generator.getTarget());
+		graph = generate(generator, Generator.Topology.GRID, 14, 4);
+		assertEquals(24, edges(graph).size());
+		graph = generate(generator, Generator.Topology.ERDOS_RENYI, 40, 4);
+		assertTrue(edges(graph).size() <= 80);
+		assertEquals(Generator.name(39), generator.getTarget());
+		graph = generate(generator, Generator.Topology.POWER_LAW, 40, 4);
+		assertEquals(40, nodes(graph));
+		// the second node links to the first, the others to up to two before
+		assertTrue(edges(graph).size() <= 1 + 2 * 38);
+		graph = generate(generator, Generator.Topology.LAYERED, 20, 4);
+		// 5 layers of 4 nodes between the source and the target
+		assertEquals(22, nodes(graph));
+		assertEquals(Generator.name(21), generator.getTarget());
+		assertEquals(Generator.name(0), generator.getSource());
+	}
+
+	/**
+	 * Probabilities stay within the given range, and those of the choices of
+	 * a group add up to at most one.
+	 */
+	@Test
+	public void testProbabilities() throws IOException {
+		for (Generator.Distribution distribution : Generator.Distribution.values()) {
+			Generator generator = new Generator(5);
+			generator.setDistribution(distribution);
+			generator.setProbabilities(0.2, 0.6);
+			GraphDatabaseService graph = generate(generator, Generator.Topology.ERDOS_RENYI, 40, 4);
+			try (Transaction tx = graph.beginTx()) {
+				for (Relationship relationship : GlobalGraphOperations.at(graph).getAllRelationships()) {
+					double prob = (double) relationship.getProperty("prob");
+					assertTrue(prob >= 0.2 - 1e-3 && prob <= 0.6 + 1e-3);
+					assertFalse(relationship.hasProperty(Loader.GROUP));
+				}
+				tx.success();
+			}
+		}
+		for (int groups : new int[] { 2, 3, 5 }) {
+			Generator generator = new Generator(5);
+			generator.setGroups(groups);
+			Map<Long, Double> sums = new HashMap<>();
+			Map<Long, Integer> sizes = new HashMap<>();
+			GraphDatabaseService graph = generate(generator, Generator.Topology.ERDOS_RENYI, 40, 4);
+			try (Transaction tx = graph.beginTx()) {
+				for (Relationship relationship : GlobalGraphOperations.at(graph).getAllRelationships()) {
+					long group = (long) relationship.getProperty(Loader.GROUP);
+					int choice = (int) relationship.getProperty(Loader.CHOICE);
+					int choices = (int) relationship.getProperty(Loader.CHOICES);
+					assertTrue(choice >= 1 && choice <= choices && choices <= groups + 1);
+					sums.merge(group, (double) relationship.getProperty("prob"), Double::sum);
+					sizes.merge(group, 1, Integer::sum);
+				}
+				tx.success();
+			}
+			assertTrue(sums.size() > 1);
+			for (long group : sums.keySet()) {
+				assertTrue(sums.get(group) <= 1.0 + 1e-9);
+				assertTrue(sizes.get(group) <= groups);
+			}
+		}
+	}
+
+	/**
+	 * Writes the graph the given generator draws into a fresh database.
+	 */
+	private GraphDatabaseService generate(Generator generator, Generator.Topology topology, int n, int degree) throws IOException {
+		GraphDatabaseService result = new GraphDatabaseFactory().newEmbeddedDatabase(folder.newFolder().getPath());
+		graphs.add(result);
+		try (Loader loader = new Loader(result, RelType.EDGE, new HashMap<String, Node>())) {
+			generator.generate(loader, topology, n, degree);
+		}
+		return result;
+	}
+
+	private static int nodes(GraphDatabaseService graph) {
+		try (Transaction tx = graph.beginTx()) {
+			int result = IteratorUtil.count(GlobalGraphOperations.at(graph).getAllNodes());
+			tx.success();
+			return result;
+		}
+	}
+
+	/**
+	 * Returns each edge of the given graph by the names of its ends and what
+	 * it holds, in order.
+	 */
+	private static List<String> edges(GraphDatabaseService graph) {
+		try (Transaction tx = graph.beginTx()) {
+			List<String> result = new ArrayList<>();
+			for (Relationship relationship : GlobalGraphOperations.at(graph).getAllRelationships()) {
+				StringBuilder edge = new StringBuilder();
+				edge.append(relationship.getStartNode().getProperty("name")).append(' ').append(relationship.getEndNode().getProperty("name"));
+				for (String key : relationship.getPropertyKeys())
+					edge.append(' ').append(key).append('=').append(relationship.getProperty(key));
+				result.add(edge.toString());
+			}
+			Collections.sort(result);
+			tx.success();
+			return result;
+		}
+	}
+
+}
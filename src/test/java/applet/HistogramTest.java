@@ -0,0 +1,83 @@
+/**
+ *
+ */
+package applet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Checks the percentiles of a {@link Histogram} against those of the values
+ * recorded, which they may only exceed by the width of a bucket.
+ *
+ * @author stefano
+ *
+ */
+public class HistogramTest {
+
+	private static final double DELTA = 1e-12;
+
+	@Test
+	public void testSmall() {
+		Histogram histogram = new Histogram();
+		for (long value = 0; value < 32; value++)
+			histogram.record(value);
+		// below 32 every value has a bucket of its own
+		assertEquals(15, histogram.percentile(0.5));
+		assertEquals(0, histogram.percentile(0.0));
+		assertEquals(31, histogram.percentile(1.0));
+		assertEquals(15.5, histogram.mean(), DELTA);
+		assertEquals(32, histogram.count());
+	}
+
+	@Test
+	public void testLarge() {
+		Histogram histogram = new Histogram();
+		long n = 100_000;
+		for (long value = 1; value <= n; value++)
+			histogram.record(value);
+		for (double fraction : new double[] { 0.1, 0.5, 0.9, 0.99, 0.999 }) {
+			long exact = (long) Math.ceil(fraction * n);
+			long estimate = histogram.percentile(fraction);
+			assertTrue(fraction + ": " + estimate, estimate >= exact && estimate <= exact + exact / 32);
+		}
+		assertEquals(n, histogram.percentile(1.0));
+		assertEquals(n, histogram.max());
+		assertEquals(n * (n + 1) / 2, histogram.sum());
+		assertEquals((n + 1) / 2.0, histogram.mean(), DELTA);
+	}
+
+	/**
+	 * Large values are rounded up to the end of their bucket, 1/32 of their
+	 * power of two wide, but never past the maximum recorded.
+	 */
+	@Test
+	public void testHuge() {
+		Histogram histogram = new Histogram();
+		histogram.record(1L << 40);
+		assertEquals(1L << 40, histogram.percentile(1.0));
+		histogram.record(Long.MAX_VALUE);
+		assertEquals((1L << 40) + (1L << 35) - 1, histogram.percentile(0.5));
+		assertEquals(Long.MAX_VALUE, histogram.percentile(1.0));
+	}
+
+	@Test
+	public void testReset() {
+		Histogram histogram = new Histogram();
+		histogram.record(1000);
+		histogram.reset();
+		assertEquals(0, histogram.count());
+		assertEquals(0, histogram.percentile(0.5));
+		assertEquals(0.0, histogram.mean(), DELTA);
+		histogram.record(7);
+		assertEquals(7, histogram.percentile(0.5));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegative() {
+		new Histogram().record(-1);
+	}
+
+}
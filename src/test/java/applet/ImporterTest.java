@@ -0,0 +1,157 @@
+/**
+ *
+ */
+package applet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+
+/**
+ * Imports small fact files into the graph of a {@link Problem} and checks the
+ * relationships and probabilities that result.
+ *
+ * @author stefano
+ *
+ */
+public class ImporterTest {
+
+	private static enum RelType implements RelationshipType {
+		EDGE;
+	}
+
+	private static final double DELTA = 1e-12;
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private Loader loader;
+
+	private final Map<String, Node> nodes = new HashMap<>();
+
+	private Problem problem;
+
+	@Before
+	public void start() throws IOException {
+		problem = new Problem(folder.newFolder().getPath());
+		loader = new Loader(problem.getGraph(), RelType.EDGE, nodes);
+	}
+
+	@After
+	public void stop() {
+		loader.close();
+		problem.close();
+	}
+
+	@Test
+	public void testLoad() throws IOException {
+		long read = load(
+				"% edges waiting for their groups, declared later in another order",
+				"edge(a,b) :- choice(1,1,X).",
+				"edge(c,d) :- choice(2,2,X).",
+				"edge(b,c) :- choice(1,2,X).",
+				"edge(b,a) :- choice(1,1,X).",
+				"fact(ignored).",
+				"1 { choice(2,1,1609), choice(2,2,2303) } 1.",
+				"1 { choice(1,1,357), choice(1,2,1204) } 1.",
+				"% a group without a disjunction, weighed in place",
+				"edge(a,c) :- choice(3,1,2303).");
+		assertEquals(5, read);
+		assertEquals(4, loader.getLoaded());
+		assertEquals(1, loader.getDuplicates());
+		try (Transaction tx = problem.getGraph().beginTx()) {
+			check("a", "b", 357, 1, 1, 3);
+			check("b", "c", 1204, 1, 2, 3);
+			check("c", "d", 2303, 2, 2, 3);
+			check("a", "c", 2303, 3, 1, 2);
+			tx.success();
+		}
+		// a and b are joined by the first choice of group 1, or by its second
+		// one through c
+		double expected = Math.exp(-0.357) + Math.exp(-1.204) * Math.exp(-2.303);
+		assertEquals(expected, correlate("a", "b"), DELTA);
+		assertEquals(Math.exp(-2.303) * Math.exp(-2.303), correlate("a", "d"), DELTA);
+		problem.refresh();
+		assertEquals(expected, correlate("a", "b"), DELTA);
+		assertEquals(Math.exp(-2.303) * Math.exp(-2.303), correlate("a", "d"), DELTA);
+	}
+
+	@Test
+	public void testWeights() throws IOException {
+		load("1 { choice(5,1,1204), choice(5,2,1609), choice(5,3,2303) } 1.",
+				"edge(p,q) :- choice(5,3,X).",
+				"edge(q,r) :- choice(5,1,100).");
+		try (Transaction tx = problem.getGraph().beginTx()) {
+			check("p", "q", 2303, 5, 3, 4);
+			// a weight given in place wins over the declared one
+			check("q", "r", 100, 5, 1, 4);
+			tx.success();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUndeclared() throws IOException {
+		load("edge(a,b) :- choice(7,1,X).");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testChoice() throws IOException {
+		load("1 { choice(7,1,357), choice(7,2,1204) } 1.",
+				"edge(a,b) :- choice(7,3,X).");
+	}
+
+	/**
+	 * A choice beyond those the manager can encode is malformed, rather than
+	 * truncated to an int.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testLimit() throws IOException {
+		load("edge(a,b) :- choice(7,4294967297,357).");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMalformed() throws IOException {
+		load("edge(a,b) :- choice(7,1,357)");
+	}
+
+	private long load(String... lines) throws IOException {
+		File file = folder.newFile();
+		Files.write(file.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+		return new Importer(loader).load(file.getPath());
+	}
+
+	private void check(String tail, String head, int logp, long group, int choice, int choices) {
+		Relationship relationship = null;
+		for (Relationship candidate : nodes.get(tail).getRelationships())
+			if (candidate.getOtherNode(nodes.get(tail)).equals(nodes.get(head)))
+				relationship = candidate;
+		assertNotNull(tail + "-" + head, relationship);
+		assertEquals(Math.exp(logp / -1000.0), (double) relationship.getProperty("prob"), DELTA);
+		assertEquals(group, ((Number) relationship.getProperty(Loader.GROUP)).longValue());
+		assertEquals(choice, ((Number) relationship.getProperty(Loader.CHOICE)).intValue());
+		assertEquals(choices, ((Number) relationship.getProperty(Loader.CHOICES)).intValue());
+	}
+
+	private double correlate(String source, String target) {
+		return problem.correlate(nodes.get(source), nodes.get(target), RelType.EDGE, Direction.BOTH);
+	}
+
+}
@@ -0,0 +1,109 @@
+/**
+ *
+ */
+package applet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+
+/**
+ * @author stefano
+ *
+ */
+public class LoaderTest {
+
+	private static enum RelType implements RelationshipType {
+		EDGE;
+	}
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private GraphDatabaseService graph;
+
+	private Loader loader;
+
+	private final Map<String, Node> nodes = new HashMap<>();
+
+	@Before
+	public void start() {
+		graph = new GraphDatabaseFactory().newEmbeddedDatabase(folder.getRoot().getPath());
+		loader = new Loader(graph, RelType.EDGE, nodes, 2);
+	}
+
+	@After
+	public void stop() {
+		loader.close();
+		graph.shutdown();
+	}
+
+	@Test
+	public void testDuplicates() {
+		assertNotNull(loader.add("a", "b", 357));
+		assertNull(loader.add("b", "a", 357));
+		assertNotNull(loader.add("a", "b", 1204));
+		assertNotNull(loader.add("b", "c", 357));
+		loader.flush();
+		assertEquals(3, loader.getLoaded());
+		assertEquals(1, loader.getDuplicates());
+		assertEquals(3, nodes.size());
+		try (Transaction tx = graph.beginTx()) {
+			assertEquals(2, count(nodes.get("a")));
+			assertEquals(3, count(nodes.get("b")));
+			tx.success();
+		}
+	}
+
+	/**
+	 * Edges with the same ends and weight that depend on different choices, or
+	 * on none, are different events and must all be kept with their groups.
+	 */
+	@Test
+	public void testChoices() {
+		assertNotNull(loader.add("a", "b", 357));
+		assertNotNull(loader.add("a", "b", 357, 7, 1, 2));
+		assertNotNull(loader.add("b", "a", 357, 7, 2, 2));
+		assertNotNull(loader.add("a", "b", 357, 8, 1, 2));
+		assertNull(loader.add("b", "a", 357, 7, 1, 2));
+		loader.flush();
+		assertEquals(4, loader.getLoaded());
+		assertEquals(1, loader.getDuplicates());
+		try (Transaction tx = graph.beginTx()) {
+			Map<Long, Integer> groups = new HashMap<>();
+			for (Relationship relationship : nodes.get("a").getRelationships(Direction.BOTH)) {
+				long group = ((Number) relationship.getProperty(Loader.GROUP, -1L)).longValue();
+				groups.merge(group, 1, Integer::sum);
+			}
+			assertEquals(Integer.valueOf(1), groups.get(-1L));
+			assertEquals(Integer.valueOf(2), groups.get(7L));
+			assertEquals(Integer.valueOf(1), groups.get(8L));
+			tx.success();
+		}
+	}
+
+	private static int count(Node node) {
+		int result = 0;
+		for (@SuppressWarnings("unused")
+		Relationship relationship : node.getRelationships(Direction.BOTH))
+			result += 1;
+		return result;
+	}
+
+}
@@ -0,0 +1,108 @@
+/**
+ *
+ */
+package applet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.RelationshipType;
+
+/**
+ * Runs queries on a {@link Problem} and checks the {@link Metrics} they leave,
+ * counting the failed ones apart.
+ *
+ * @author stefano
+ *
+ */
+public class MetricsTest {
+
+	private static enum RelType implements RelationshipType {
+		EDGE;
+	}
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private final Map<String, Node> nodes = new HashMap<>();
+
+	private Problem problem;
+
+	@Before
+	public void start() {
+		problem = new Problem(folder.getRoot().getPath());
+		try (Loader loader = new Loader(problem.getGraph(), RelType.EDGE, nodes)) {
+			loader.add("a", "b", 693);
+			loader.add("b", "c", 693);
+			// the choices of group 7 add up to more than one
+			loader.add("c", "d", 357, 7, 1, 2);
+			loader.add("c", "d", 511, 7, 2, 2);
+		}
+	}
+
+	@After
+	public void stop() {
+		problem.close();
+	}
+
+	@Test
+	public void testQueries() {
+		Metrics metrics = problem.getMetrics();
+		correlate("a", "c");
+		problem.getCache().clear();
+		correlate("a", "c");
+		// the second time, the diagram is read from the store
+		assertEquals(1, metrics.getQueries());
+		assertEquals(0, metrics.getFailures());
+		assertEquals(1, metrics.getPaths());
+		assertEquals(2, metrics.getVariables());
+		assertTrue(metrics.getNodes()[3] >= 2.0);
+		assertTrue(metrics.getQueryMillis()[0] > 0.0);
+		problem.setStreaming(true);
+		problem.invalidate(RelType.EDGE);
+		correlate("a", "c");
+		assertEquals(2, metrics.getQueries());
+		metrics.reset();
+		assertEquals(0, metrics.getQueries());
+		assertEquals(0, metrics.getPaths());
+	}
+
+	/**
+	 * A query failing past its start is counted, but does not add to the
+	 * distributions.
+	 */
+	@Test
+	public void testFailures() {
+		Metrics metrics = problem.getMetrics();
+		for (boolean streaming : new boolean[] { false, true }) {
+			problem.setStreaming(streaming);
+			try {
+				correlate("a", "d");
+				fail("choices adding up to more than one");
+			} catch (IllegalArgumentException e) {
+			}
+		}
+		assertEquals(2, metrics.getFailures());
+		assertEquals(0, metrics.getQueries());
+		assertEquals(0, metrics.getPaths());
+		correlate("a", "c");
+		assertEquals(1, metrics.getQueries());
+		assertEquals(2, metrics.getFailures());
+	}
+
+	private double correlate(String source, String target) {
+		return problem.correlate(nodes.get(source), nodes.get(target), RelType.EDGE, Direction.BOTH);
+	}
+
+}
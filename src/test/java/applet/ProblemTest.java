@@ -0,0 +1,213 @@
+/**
+ *
+ */
+package applet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+
+/**
+ * Checks that the results cached and stored by a {@link Problem} follow the
+ * changes to its graph. Each query is asked again after the cache is cleared,
+ * so that the stored diagram answers it instead.
+ *
+ * @author stefano
+ *
+ */
+public class ProblemTest {
+
+	private static enum RelType implements RelationshipType {
+		EDGE;
+	}
+
+	private static final double DELTA = 1e-12;
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private Problem problem;
+
+	private Node x, y, z;
+
+	@Before
+	public void start() {
+		problem = new Problem(folder.getRoot().getPath());
+		x = problem.add(new HashMap<String, Object>());
+		y = problem.add(new HashMap<String, Object>());
+		z = problem.add(new HashMap<String, Object>());
+	}
+
+	@After
+	public void stop() {
+		problem.close();
+	}
+
+	@Test
+	public void testAdd() {
+		problem.add(RelType.EDGE, x, y, 0.5);
+		check(0.0, x, z);
+		check(0.5, x, y);
+		problem.add(RelType.EDGE, y, z, 0.5);
+		assertEquals(0, problem.getCache().size());
+		check(0.25, x, z);
+		check(0.5, x, y);
+	}
+
+	@Test
+	public void testUpdate() {
+		Relationship relationship = problem.add(RelType.EDGE, x, y, 0.5);
+		problem.add(RelType.EDGE, y, z, 0.5);
+		check(0.25, x, z);
+		check(0.5, y, z);
+		problem.update(relationship, 0.8);
+		// only the results depending on the relationship are evicted
+		assertEquals(1, problem.getCache().size());
+		long hits = problem.getCache().getHits();
+		assertEquals(0.5, correlate(y, z), DELTA);
+		assertEquals(hits + 1, problem.getCache().getHits());
+		check(0.4, x, z);
+	}
+
+	/**
+	 * An update the manager rejects leaves the graph and the results as they
+	 * were.
+	 */
+	@Test
+	public void testRejected() {
+		Map<String, Node> nodes = new HashMap<>();
+		Relationship first, second;
+		try (Loader loader = new Loader(problem.getGraph(), RelType.EDGE, nodes)) {
+			first = loader.add("a", "b", 693, 7, 1, 3);
+			second = loader.add("a", "b", 1204, 7, 2, 3);
+		}
+		double p1 = Math.exp(-0.693);
+		double p2 = Math.exp(-1.204);
+		assertEquals(p1 + p2, correlate(nodes.get("a"), nodes.get("b")), DELTA);
+		try {
+			problem.update(first, 0.9);
+			fail("choices adding up to more than one");
+		} catch (IllegalArgumentException e) {
+		}
+		try (Transaction tx = problem.getGraph().beginTx()) {
+			assertEquals(p1, (double) first.getProperty("prob"), DELTA);
+			tx.success();
+		}
+		check(p1 + p2, nodes.get("a"), nodes.get("b"));
+		problem.update(second, 0.1);
+		check(p1 + 0.1, nodes.get("a"), nodes.get("b"));
+	}
+
+	@Test
+	public void testRefresh() {
+		problem.add(RelType.EDGE, x, y, 0.5);
+		problem.add(RelType.EDGE, y, z, 0.5);
+		problem.refresh();
+		check(0.25, x, z);
+		problem.add(RelType.EDGE, x, z, 0.3);
+		// the snapshot misses the new relationship until refreshed, and its
+		// results are not kept meanwhile
+		assertEquals(0.25, correlate(x, z), DELTA);
+		assertEquals(0, problem.getCache().size());
+		problem.refresh();
+		check(0.475, x, z);
+		problem.refresh();
+		assertEquals(0, problem.getCache().size());
+		check(0.475, x, z);
+	}
+
+	/**
+	 * The diagram of the last query of a thread stays open while other
+	 * threads query.
+	 */
+	@Test
+	public void testLast() throws Exception {
+		problem.add(RelType.EDGE, x, y, 0.5);
+		problem.add(RelType.EDGE, y, z, 0.5);
+		SynchronousQueue<BDD> handoff = new SynchronousQueue<>();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<Double> theirs = executor.submit(() -> {
+				correlate(x, y);
+				BDD last = problem.getLast();
+				handoff.put(last);
+				handoff.take();
+				return last.traverse(BDD.Evaluation.ALL_PATHS);
+			});
+			BDD last = handoff.take();
+			assertEquals(0.25, correlate(x, z), DELTA);
+			assertNotSame(last, problem.getLast());
+			handoff.put(problem.getLast());
+			assertEquals(0.5, theirs.get(), DELTA);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Threads sharing the manager get the answers of a single one.
+	 */
+	@Test
+	public void testThreads() throws Exception {
+		Node[] nodes = new Node[8];
+		for (int i = 0; i < nodes.length; i++)
+			nodes[i] = problem.add(new HashMap<String, Object>());
+		for (int i = 0; i < nodes.length; i++)
+			for (int j = i + 1; j < nodes.length; j += 1 + i % 3)
+				problem.add(RelType.EDGE, nodes[i], nodes[j], 0.1 + 0.1 * ((i + j) % 8));
+		double[] expected = new double[nodes.length];
+		for (int i = 1; i < nodes.length; i++)
+			expected[i] = correlate(nodes[0], nodes[i]);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			for (int round = 0; round < 4; round++) {
+				problem.invalidate(RelType.EDGE);
+				List<Future<Double>> results = new ArrayList<>();
+				for (int i = 1; i < nodes.length; i++) {
+					Node target = nodes[i];
+					results.add(executor.submit(() -> correlate(nodes[0], target)));
+				}
+				for (int i = 1; i < nodes.length; i++)
+					assertEquals(expected[i], results.get(i - 1).get(), DELTA);
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Asks the given query, again from the cache and once more from the store,
+	 * expecting the given probability each time.
+	 */
+	private void check(double expected, Node source, Node target) {
+		assertEquals(expected, correlate(source, target), DELTA);
+		assertEquals(expected, correlate(source, target), DELTA);
+		problem.getCache().clear();
+		assertEquals(expected, correlate(source, target), DELTA);
+	}
+
+	private double correlate(Node source, Node target) {
+		return problem.correlate(source, target, RelType.EDGE, Direction.BOTH);
+	}
+
+}
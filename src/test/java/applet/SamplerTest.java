@@ -0,0 +1,160 @@
+/**
+ *
+ */
+package applet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+
+/**
+ * Compares the estimates of a {@link Sampler} with the exact probabilities a
+ * {@link Problem} computes on small generated grids, with and without groups
+ * of mutually exclusive choices.
+ *
+ * @author stefano
+ *
+ */
+public class SamplerTest {
+
+	private static enum RelType implements RelationshipType {
+		EDGE;
+	}
+
+	private static final double DELTA = 1e-12;
+
+	private static final double ERROR = 0.005;
+
+	private static final int SEEDS = 40;
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private final Map<String, Node> nodes = new HashMap<>();
+
+	private Problem problem;
+
+	private Sampler sampler;
+
+	private Node source, target;
+
+	@Before
+	public void start() {
+		problem = new Problem(folder.getRoot().getPath());
+		sampler = new Sampler(2);
+		sampler.setSeed(1);
+	}
+
+	@After
+	public void stop() {
+		sampler.close();
+		problem.close();
+	}
+
+	@Test
+	public void testEstimate() {
+		generate(0);
+		check(problem.correlate(source, target, RelType.EDGE, Direction.BOTH));
+	}
+
+	@Test
+	public void testGroups() {
+		generate(3);
+		check(problem.correlate(source, target, RelType.EDGE, Direction.BOTH));
+	}
+
+	/**
+	 * The same seed and number of threads draw the same worlds.
+	 */
+	@Test
+	public void testSeed() {
+		generate(3);
+		double[] first = estimate(ERROR);
+		sampler.setSeed(2);
+		double[] second = estimate(ERROR);
+		sampler.setSeed(1);
+		assertArrayEquals(first, estimate(ERROR), DELTA);
+		assertTrue(first[0] != second[0]);
+	}
+
+	/**
+	 * Sampling stops at the limit, with a wider interval than asked for.
+	 */
+	@Test
+	public void testLimit() {
+		generate(0);
+		double exact = problem.correlate(source, target, RelType.EDGE, Direction.BOTH);
+		sampler.setLimit(1);
+		double[] result = estimate(ERROR);
+		assertTrue(result[2] - result[1] > 2.0 * ERROR);
+		assertTrue(result[1] <= exact && exact <= result[2]);
+	}
+
+	/**
+	 * A result already computed is returned as an exact estimate.
+	 */
+	@Test
+	public void testKnown() {
+		generate(0);
+		double exact = problem.correlate(source, target, RelType.EDGE, Direction.BOTH);
+		double[] result = problem.sample(ERROR, source, target, RelType.EDGE, Direction.BOTH);
+		assertArrayEquals(new double[] { exact, exact, exact }, result, DELTA);
+	}
+
+	/**
+	 * Checks that the estimate is within the requested error of the given
+	 * exact value, and that the intervals drawn with different seeds contain
+	 * it about as often as their confidence says.
+	 */
+	private void check(double exact) {
+		assertTrue(exact > 0.0 && exact < 1.0);
+		double[] result = estimate(ERROR);
+		assertTrue(result[2] - result[1] <= 2.0 * ERROR);
+		assertEquals(exact, result[0], 2.0 * ERROR);
+		int covered = 0;
+		for (int seed = 0; seed < SEEDS; seed++) {
+			sampler.setSeed(seed);
+			result = estimate(0.02);
+			if (result[1] <= exact && exact <= result[2])
+				covered += 1;
+		}
+		// 38 expected out of 40, fewer than 34 once in about 1400 sets of seeds
+		assertTrue(covered >= SEEDS - 6);
+	}
+
+	private double[] estimate(double error) {
+		try (Transaction tx = problem.getGraph().beginTx()) {
+			double[] result = sampler.estimate(source, target, error, RelType.EDGE, Direction.BOTH);
+			tx.success();
+			return result;
+		}
+	}
+
+	/**
+	 * Writes a grid of 16 nodes, with the given number of choices per group.
+	 */
+	private void generate(int groups) {
+		Generator generator = new Generator(7);
+		generator.setGroups(groups);
+		generator.setProbabilities(0.3, 0.7);
+		try (Loader loader = new Loader(problem.getGraph(), RelType.EDGE, nodes)) {
+			generator.generate(loader, Generator.Topology.GRID, 16, 4);
+		}
+		source = nodes.get(generator.getSource());
+		target = nodes.get(generator.getTarget());
+	}
+
+}
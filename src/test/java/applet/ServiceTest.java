@@ -0,0 +1,111 @@
+/**
+ *
+ */
+package applet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Fills a {@link Service} with requests that block until released and checks
+ * that those beyond its queue are turned down, then answered once there is
+ * room again.
+ *
+ * @author stefano
+ *
+ */
+public class ServiceTest {
+
+	private static final double DELTA = 1e-12;
+
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	private final CountDownLatch started = new CountDownLatch(1);
+
+	private Service service;
+
+	@Before
+	public void start() {
+		service = new Service((source, target) -> {
+			started.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return source.equals(target) ? 1.0 : 0.5;
+		}, 1, 1);
+		service.listen(0);
+	}
+
+	@After
+	public void stop() {
+		release.countDown();
+		service.close();
+	}
+
+	@Test
+	public void testSubmit() throws Exception {
+		CompletableFuture<Double> running = service.submit("a", "b");
+		CompletableFuture<Double> waiting = service.submit("a", "a");
+		assertEquals(2, service.getPending());
+		try {
+			service.submit("a", "c");
+			fail("queue full");
+		} catch (RejectedExecutionException e) {
+		}
+		assertEquals(1, service.getRejected());
+		release.countDown();
+		assertEquals(0.5, running.get(10, TimeUnit.SECONDS), DELTA);
+		assertEquals(1.0, waiting.get(10, TimeUnit.SECONDS), DELTA);
+		assertEquals(0.5, service.correlate("a", "c"), DELTA);
+		assertEquals(0, service.getPending());
+	}
+
+	@Test
+	public void testHttp() throws Exception {
+		assertEquals(400, get("source=a").getResponseCode());
+		CompletableFuture<Double> running = service.submit("a", "b");
+		started.await(10, TimeUnit.SECONDS);
+		CompletableFuture<Double> waiting = service.submit("a", "b");
+		HttpURLConnection connection = get("source=a&target=b");
+		assertEquals(503, connection.getResponseCode());
+		assertEquals("1", connection.getHeaderField("Retry-After"));
+		release.countDown();
+		running.get(10, TimeUnit.SECONDS);
+		waiting.get(10, TimeUnit.SECONDS);
+		connection = get("source=a&target=b");
+		assertEquals(200, connection.getResponseCode());
+		assertEquals(0.5, Double.parseDouble(body(connection.getInputStream())), DELTA);
+	}
+
+	private HttpURLConnection get(String query) throws IOException {
+		URL url = new URL("http://127.0.0.1:" + service.getPort() + "/correlate?" + query);
+		HttpURLConnection result = (HttpURLConnection) url.openConnection();
+		result.setConnectTimeout(10_000);
+		result.setReadTimeout(10_000);
+		return result;
+	}
+
+	private static String body(InputStream in) {
+		try (Scanner scanner = new Scanner(in, StandardCharsets.UTF_8.name())) {
+			return scanner.useDelimiter("\\A").next().trim();
+		}
+	}
+
+}
@@ -0,0 +1,170 @@
+/**
+ *
+ */
+package applet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.helpers.collection.IteratorUtil;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+/**
+ * Checks that a {@link Snapshot} of a generated graph, with groups and two
+ * relationship types, holds what the graph does, and that the subgraphs built
+ * out of it are those built by reading the graph.
+ *
+ * @author stefano
+ *
+ */
+public class SnapshotTest {
+
+	private static enum RelType implements RelationshipType {
+		EDGE, LINK;
+	}
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private GraphDatabaseService graph;
+
+	private final Map<String, Node> nodes = new HashMap<>();
+
+	private Node source, target;
+
+	@Before
+	public void start() {
+		graph = new GraphDatabaseFactory().newEmbeddedDatabase(folder.getRoot().getPath());
+		Generator generator = new Generator(3);
+		generator.setGroups(3);
+		try (Loader loader = new Loader(graph, RelType.EDGE, nodes)) {
+			generator.generate(loader, Generator.Topology.GRID, 16, 4);
+		}
+		try (Loader loader = new Loader(graph, RelType.LINK, nodes)) {
+			loader.add(Generator.name(0), Generator.name(5), 500);
+			loader.add(Generator.name(10), Generator.name(15), 500);
+		}
+		source = nodes.get(generator.getSource());
+		target = nodes.get(generator.getTarget());
+	}
+
+	@After
+	public void stop() {
+		graph.shutdown();
+	}
+
+	@Test
+	public void testCounts() {
+		Snapshot snapshot = new Snapshot(graph);
+		try (Transaction tx = graph.beginTx()) {
+			GlobalGraphOperations operations = GlobalGraphOperations.at(graph);
+			int count = 0;
+			for (Node node : operations.getAllNodes()) {
+				assertEquals(node.getId(), snapshot.id(snapshot.index(node.getId())));
+				count += 1;
+			}
+			assertEquals(count, snapshot.nodes());
+			assertEquals(IteratorUtil.count(operations.getAllRelationships()), snapshot.relationships());
+			tx.success();
+		}
+		assertEquals(-1, snapshot.index(-1));
+		assertEquals(-1, snapshot.index(1 << 20));
+		assertTrue(snapshot.type(RelType.EDGE.name()) >= 0);
+		assertTrue(snapshot.type(RelType.LINK.name()) >= 0);
+		assertEquals(-1, snapshot.type("NONE"));
+	}
+
+	@Test
+	public void testSubgraph() {
+		Snapshot snapshot = new Snapshot(graph);
+		Node[] targets = { target, nodes.get(Generator.name(6)) };
+		for (Direction direction : Direction.values()) {
+			check(snapshot, new Node[] { target }, new RelType[] { RelType.EDGE }, direction);
+			check(snapshot, targets, new RelType[] { RelType.EDGE }, direction);
+			check(snapshot, targets, new RelType[] { RelType.EDGE, RelType.LINK }, direction);
+		}
+	}
+
+	/**
+	 * A snapshot misses what was written after it until refreshed.
+	 */
+	@Test
+	public void testRefresh() {
+		Snapshot snapshot = new Snapshot(graph);
+		int relationships = snapshot.relationships();
+		try (Loader loader = new Loader(graph, RelType.LINK, nodes)) {
+			loader.add(Generator.name(0), "x", 100);
+			loader.add("x", Generator.name(15), 100);
+		}
+		assertEquals(relationships, snapshot.relationships());
+		assertEquals(-1, snapshot.index(nodes.get("x").getId()));
+		snapshot.refresh();
+		assertEquals(relationships + 2, snapshot.relationships());
+		assertTrue(snapshot.index(nodes.get("x").getId()) >= 0);
+		check(snapshot, new Node[] { target }, new RelType[] { RelType.EDGE, RelType.LINK }, Direction.BOTH);
+	}
+
+	/**
+	 * Builds the subgraph for the given query both ways and compares their
+	 * nodes and relationships; nodes may be numbered differently beyond the
+	 * source and the targets, so each relationship is compared by its ends.
+	 */
+	private void check(Snapshot snapshot, Node[] targets, RelType[] types, Direction direction) {
+		Direction[] directions = new Direction[types.length];
+		String[] names = new String[types.length];
+		for (int i = 0; i < types.length; i++) {
+			directions[i] = direction;
+			names[i] = types[i].name();
+		}
+		long[] ids = new long[targets.length];
+		for (int i = 0; i < targets.length; i++)
+			ids[i] = targets[i].getId();
+		Subgraph expected;
+		try (Transaction tx = graph.beginTx()) {
+			expected = new Subgraph(source, targets, types, directions);
+			tx.success();
+		}
+		Subgraph actual = new Subgraph(snapshot, source.getId(), ids, names, directions);
+		assertEquals(expected.isConnected(), actual.isConnected());
+		assertEquals(expected.size(), actual.size());
+		assertEquals(expected.targets, actual.targets);
+		assertEquals(edges(expected), edges(actual));
+		assertTrue(Direction.INCOMING == direction || actual.isConnected());
+	}
+
+	/**
+	 * Returns each relationship of the given subgraph along with what it
+	 * holds, naming its ends by their index only if they are the source or a
+	 * target.
+	 */
+	private static List<String> edges(Subgraph subgraph) {
+		List<String> result = new ArrayList<>();
+		for (int node = 0; node < subgraph.size(); node++)
+			for (int i = subgraph.offsets[node]; i < subgraph.offsets[node + 1]; i++)
+				result.add(subgraph.relationships[i] + " " + end(subgraph, node) + " " + end(subgraph, subgraph.neighbours[i]) + " " + subgraph.probs[i] + " " + subgraph.groups[i] + " " + subgraph.choices[i] + " " + subgraph.widths[i]);
+		Collections.sort(result);
+		return result;
+	}
+
+	private static String end(Subgraph subgraph, int node) {
+		return node <= subgraph.targets ? Integer.toString(node) : "*";
+	}
+
+}
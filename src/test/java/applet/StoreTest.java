@@ -0,0 +1,155 @@
+/**
+ *
+ */
+package applet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+
+/**
+ * Saves small diagrams over made-up relationships and checks what the
+ * {@link Store} evaluates, evicts and drops, also once reopened.
+ *
+ * @author stefano
+ *
+ */
+public class StoreTest {
+
+	private static enum RelType implements RelationshipType {
+		EDGE;
+	}
+
+	private static final double DELTA = 1e-12;
+
+	private static final double[] PROBS = { 0.5, 0.4, 0.3 };
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private GraphDatabaseService graph;
+
+	private final Manager manager = new Manager();
+
+	private final Node[] nodes = new Node[4];
+
+	private File directory;
+
+	@Before
+	public void start() throws IOException {
+		graph = new GraphDatabaseFactory().newEmbeddedDatabase(folder.newFolder().getPath());
+		try (Transaction tx = graph.beginTx()) {
+			for (int i = 0; i < nodes.length; i++)
+				nodes[i] = graph.createNode();
+			tx.success();
+		}
+		directory = folder.newFolder();
+	}
+
+	@After
+	public void stop() {
+		graph.shutdown();
+	}
+
+	@Test
+	public void testEvaluate() {
+		Store store = new Store(directory.getPath(), 4);
+		Query query = query(1);
+		// 1 and 2, or 3
+		save(store, query, new long[][] { { 1L, 2L }, { 3L } }, PROBS);
+		double expected = 1.0 - (1.0 - 0.5 * 0.4) * (1.0 - 0.3);
+		assertEquals(expected, store.evaluate(query), DELTA);
+		assertArrayEquals(new long[] { 1L, 2L, 3L }, sorted(store.relationships(query)));
+		store = new Store(directory.getPath(), 4);
+		assertEquals(expected, store.evaluate(query), DELTA);
+		store.invalidate(2L);
+		assertFalse(store.contains(query));
+		assertEquals(0, directory.list().length);
+	}
+
+	/**
+	 * The least recently used entry is evicted, along with its file.
+	 */
+	@Test
+	public void testEvict() {
+		Store store = new Store(directory.getPath(), 2);
+		save(store, query(1), new long[][] { { 1L } }, PROBS);
+		save(store, query(2), new long[][] { { 2L } }, PROBS);
+		store.evaluate(query(1));
+		save(store, query(3), new long[][] { { 3L } }, PROBS);
+		assertEquals(2, store.size());
+		assertTrue(store.contains(query(1)));
+		assertFalse(store.contains(query(2)));
+		assertTrue(store.contains(query(3)));
+		assertEquals(2, directory.list().length);
+		// a smaller store drops the files it cannot keep
+		store = new Store(directory.getPath(), 1);
+		assertEquals(1, store.size());
+		assertEquals(1, directory.list().length);
+	}
+
+	/**
+	 * A draft taken before an invalidation is not saved, since it may depend
+	 * on what changed.
+	 */
+	@Test
+	public void testStale() {
+		Store store = new Store(directory.getPath(), 4);
+		Store.Draft draft;
+		try (BDD bdd = new BDD(manager, 0)) {
+			bdd.add(new long[] { 1L }, new double[] { 0.5 });
+			draft = store.draft(query(1), bdd);
+		}
+		store.invalidate(RelType.EDGE);
+		store.save(draft);
+		assertFalse(store.contains(query(1)));
+		assertEquals(0, directory.list().length);
+	}
+
+	private Query query(int target) {
+		try (Transaction tx = graph.beginTx()) {
+			Query result = new Query(nodes[0], nodes[target], RelType.EDGE, Direction.BOTH);
+			tx.success();
+			return result;
+		}
+	}
+
+	/**
+	 * Saves the disjunction of the given paths over relationships numbered
+	 * from 1, with the given probabilities.
+	 */
+	private void save(Store store, Query query, long[][] paths, double[] probs) {
+		try (BDD bdd = new BDD(manager, 0)) {
+			for (long[] path : paths) {
+				double[] weights = new double[path.length];
+				for (int i = 0; i < path.length; i++)
+					weights[i] = probs[(int) path[i] - 1];
+				bdd.add(path, weights);
+			}
+			store.save(store.draft(query, bdd));
+		}
+	}
+
+	private static long[] sorted(long[] values) {
+		Arrays.sort(values);
+		return values;
+	}
+
+}